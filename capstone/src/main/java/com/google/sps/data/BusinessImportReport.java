@@ -0,0 +1,60 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+// The outcome of a bulk import of businesses.
+public final class BusinessImportReport {
+  private final long importId;
+  private final boolean complete;
+  private final int rowsRead;
+  private final int imported;
+  private final int errorCount;
+  private final List<ImportRowError> errors;
+  private final long elapsedMillis;
+  private final double rowsPerSecond;
+
+  /**
+   * Business import report constructor.
+   *
+   * @param importId the id to read the report back with.
+   * @param complete whether every row has been imported yet.
+   * @param rowsRead how many rows the import contained.
+   * @param imported how many businesses were saved.
+   * @param errorCount how many rows failed, which may be more than are listed.
+   * @param errors the first rows that failed, in order.
+   * @param elapsedMillis how long the import took, or has taken so far.
+   */
+  public BusinessImportReport(
+      long importId,
+      boolean complete,
+      int rowsRead,
+      int imported,
+      int errorCount,
+      List<ImportRowError> errors,
+      long elapsedMillis) {
+    this.importId = importId;
+    this.complete = complete;
+    this.rowsRead = rowsRead;
+    this.imported = imported;
+    this.errorCount = errorCount;
+    this.errors = errors;
+    this.elapsedMillis = elapsedMillis;
+    // Rows saved but not indexed are counted as both imported and failed.
+    int rowsProcessed = Math.min(imported + errorCount, rowsRead);
+    this.rowsPerSecond = rowsProcessed * 1000.0 / Math.max(elapsedMillis, 1);
+  }
+}
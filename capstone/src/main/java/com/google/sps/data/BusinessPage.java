@@ -0,0 +1,41 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+// Everything business.html shows when it loads, gathered in one response.
+public final class BusinessPage {
+  private final User user;
+  private final BusinessProfile business;
+  private final boolean isFollowing;
+  private final List<Comment> comments;
+
+  /**
+   * Business page constructor.
+   *
+   * @param user the viewer's login data.
+   * @param business the business the page is about, with its follower count.
+   * @param isFollowing whether the viewer follows the business.
+   * @param comments the newest top level comments on the business, newest first.
+   */
+  public BusinessPage(
+      User user, BusinessProfile business, boolean isFollowing, List<Comment> comments) {
+    this.user = user;
+    this.business = business;
+    this.isFollowing = isFollowing;
+    this.comments = comments;
+  }
+}
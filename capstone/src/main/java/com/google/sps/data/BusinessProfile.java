@@ -26,6 +26,8 @@ public final class BusinessProfile {
   private String calendarEmail;
   private String support;
   private boolean isCurrentUser;
+  // Only included where the count is needed, as it costs an extra read.
+  private Long followerCount;
 
   /**
    * Business user's information constructor.
@@ -60,4 +62,8 @@ public final class BusinessProfile {
     this.support = support;
     this.isCurrentUser = isCurrentUser;
   }
+
+  public void setFollowerCount(long followerCount) {
+    this.followerCount = followerCount;
+  }
 }
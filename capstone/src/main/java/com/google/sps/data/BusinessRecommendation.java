@@ -0,0 +1,32 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// A business recommended to the followers of another business.
+public final class BusinessRecommendation {
+  private final String businessId;
+  private final int sharedFollowers;
+
+  /**
+   * Business recommendation constructor.
+   *
+   * @param businessId the unique id of the recommended business.
+   * @param sharedFollowers how many followers of the original business also follow this one.
+   */
+  public BusinessRecommendation(String businessId, int sharedFollowers) {
+    this.businessId = businessId;
+    this.sharedFollowers = sharedFollowers;
+  }
+}
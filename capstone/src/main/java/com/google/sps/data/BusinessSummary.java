@@ -0,0 +1,38 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// The few fields of a business needed to list it, without its longer texts.
+public final class BusinessSummary {
+  private final String id;
+  private final String name;
+  private final String location;
+  private final String bio;
+
+  /**
+   * Business summary constructor.
+   *
+   * @param id the unique id of the business.
+   * @param name the name of the business.
+   * @param location the location of the business.
+   * @param bio the start of the business' bio, shortened for listings.
+   */
+  public BusinessSummary(String id, String name, String location, String bio) {
+    this.id = id;
+    this.name = name;
+    this.location = location;
+    this.bio = bio;
+  }
+}
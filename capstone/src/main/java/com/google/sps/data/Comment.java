@@ -14,9 +14,15 @@
 
 package com.google.sps.data;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 public final class Comment {
+  // Unlike SimpleDateFormat, one formatter can be shared by every request thread.
+  private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+      DateTimeFormatter.ofPattern("MM/dd/yy HH:mm").withZone(ZoneId.systemDefault());
+
   /**
    * Represents a user's comment.
    *
@@ -61,6 +67,22 @@ public final class Comment {
     this.parentId = parentId;
     this.hasReplies = hasReplies;
     // Epoch timestamp is formatted in UTC time
-    this.timestampStr = new SimpleDateFormat("MM/dd/yy HH:mm").format(timestamp);
+    this.timestampStr = TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(timestamp));
+  }
+
+  public String getId() {
+    return this.id;
+  }
+
+  public long getTimestamp() {
+    return this.timestamp;
+  }
+
+  public String getBusinessId() {
+    return this.businessId;
+  }
+
+  public String getParentId() {
+    return this.parentId;
   }
 }
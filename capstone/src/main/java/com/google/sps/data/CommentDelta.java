@@ -0,0 +1,34 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+// The comments posted since a client last polled, and where it should poll from next time.
+public final class CommentDelta {
+  private final List<Comment> comments;
+  private final String cursor;
+
+  /**
+   * Comment delta constructor.
+   *
+   * @param comments the new comments, oldest first.
+   * @param cursor the cursor to pass, with the same "since", on the next poll.
+   */
+  public CommentDelta(List<Comment> comments, String cursor) {
+    this.comments = comments;
+    this.cursor = cursor;
+  }
+}
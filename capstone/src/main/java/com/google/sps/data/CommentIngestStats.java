@@ -0,0 +1,42 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// Health of the write-behind comment ingestion queue as seen by this instance.
+public final class CommentIngestStats {
+  private final int queueDepth;
+  private final long drainedComments;
+  private final long averageVisibilityDelayMs;
+  private final long maxVisibilityDelayMs;
+
+  /**
+   * Ingestion statistics constructor.
+   *
+   * @param queueDepth the number of comments accepted but not yet written to datastore.
+   * @param drainedComments the number of comments this instance has written to datastore.
+   * @param averageVisibilityDelayMs the average time from posting a comment to it being written.
+   * @param maxVisibilityDelayMs the longest time from posting a comment to it being written.
+   */
+  public CommentIngestStats(
+      int queueDepth,
+      long drainedComments,
+      long averageVisibilityDelayMs,
+      long maxVisibilityDelayMs) {
+    this.queueDepth = queueDepth;
+    this.drainedComments = drainedComments;
+    this.averageVisibilityDelayMs = averageVisibilityDelayMs;
+    this.maxVisibilityDelayMs = maxVisibilityDelayMs;
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// Progress of one run of the comment search reindex.
+public final class CommentReindexStats {
+  private final long commentsIndexed;
+  private final boolean complete;
+
+  /**
+   * Reindex statistics constructor.
+   *
+   * @param commentsIndexed the number of comments written to the search index by this run.
+   * @param complete whether every comment has been indexed, or the job continues in another task.
+   */
+  public CommentReindexStats(long commentsIndexed, boolean complete) {
+    this.commentsIndexed = commentsIndexed;
+    this.complete = complete;
+  }
+}
@@ -18,6 +18,9 @@ package com.google.sps.data;
 public final class Follow {
   private String userId;
   private String businessId;
+  // Name and location of the followed business or the following user, when requested.
+  private String name;
+  private String location;
 
   /**
    * Follow Constructor
@@ -29,4 +32,9 @@ public final class Follow {
     this.userId = userId;
     this.businessId = businessId;
   }
+
+  public void setProfile(String name, String location) {
+    this.name = name;
+    this.location = location;
+  }
 }
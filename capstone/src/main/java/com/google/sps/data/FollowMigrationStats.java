@@ -0,0 +1,36 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// Progress of one run of the follow key migration.
+public final class FollowMigrationStats {
+  private final long legacyFollows;
+  private final long keyedFollowsWritten;
+  private final boolean complete;
+
+  /**
+   * Migration statistics constructor.
+   *
+   * @param legacyFollows the number of automatically keyed follows that were rewritten and removed.
+   * @param keyedFollowsWritten the number of follows written under their user and business key.
+   *     Lower than legacyFollows when duplicates were merged.
+   * @param complete whether every follow has been migrated, or the job continues in another task.
+   */
+  public FollowMigrationStats(long legacyFollows, long keyedFollowsWritten, boolean complete) {
+    this.legacyFollows = legacyFollows;
+    this.keyedFollowsWritten = keyedFollowsWritten;
+    this.complete = complete;
+  }
+}
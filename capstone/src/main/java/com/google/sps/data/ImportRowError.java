@@ -0,0 +1,35 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// A row of a bulk import that could not be imported, and why.
+public final class ImportRowError {
+  private final int row;
+  private final String id;
+  private final String message;
+
+  /**
+   * Import row error constructor.
+   *
+   * @param row the position of the row in the import, starting at 1 after any header.
+   * @param id the id given in the row, or null if it has none.
+   * @param message what was wrong with the row.
+   */
+  public ImportRowError(int row, String id, String message) {
+    this.row = row;
+    this.id = id;
+    this.message = message;
+  }
+}
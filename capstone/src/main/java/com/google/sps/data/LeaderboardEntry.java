@@ -0,0 +1,47 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+// A business' place on the most followed businesses leaderboard.
+public final class LeaderboardEntry {
+  private final String businessId;
+  private final String name;
+  private final long followerCount;
+
+  /**
+   * Leaderboard entry constructor.
+   *
+   * @param businessId the unique id of the business.
+   * @param name the name of the business.
+   * @param followerCount how many users followed the business when the leaderboard was saved.
+   */
+  public LeaderboardEntry(String businessId, String name, long followerCount) {
+    this.businessId = businessId;
+    this.name = name;
+    this.followerCount = followerCount;
+  }
+
+  public String getBusinessId() {
+    return businessId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getFollowerCount() {
+    return followerCount;
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import java.util.Map;
+
+// Everything profile.html shows when it loads, gathered in one response.
+public final class ProfilePage {
+  private final User user;
+  private final UserProfile profile;
+  private final List<BusinessProfile> followedBusinesses;
+  private final String followsCursor;
+  private final List<Comment> comments;
+  private final Map<String, String> businessNames;
+
+  /**
+   * Profile page constructor.
+   *
+   * @param user the viewer's login data.
+   * @param profile the profile the page is about.
+   * @param followedBusinesses the businesses the profile's user follows, up to a limit.
+   * @param followsCursor where /follows continues the followed businesses, or null if all are here.
+   * @param comments the newest comments the profile's user posted, newest first.
+   * @param businessNames the name of each business the comments were posted on, by id.
+   */
+  public ProfilePage(
+      User user,
+      UserProfile profile,
+      List<BusinessProfile> followedBusinesses,
+      String followsCursor,
+      List<Comment> comments,
+      Map<String, String> businessNames) {
+    this.user = user;
+    this.profile = profile;
+    this.followedBusinesses = followedBusinesses;
+    this.followsCursor = followsCursor;
+    this.comments = comments;
+    this.businessNames = businessNames;
+  }
+}
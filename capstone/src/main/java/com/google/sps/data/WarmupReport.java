@@ -0,0 +1,69 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import java.util.Map;
+
+// What an instance's warmup did, and how long it took.
+public final class WarmupReport {
+  private final boolean ready;
+  private final long elapsedMillis;
+  private final Map<String, Long> stepMillis;
+  private final List<String> failedSteps;
+  private final int hotBusinessesLoaded;
+
+  /**
+   * Warmup report constructor.
+   *
+   * @param ready whether every step succeeded.
+   * @param elapsedMillis how long the whole warmup took.
+   * @param stepMillis how long each step took, in the order they ran.
+   * @param failedSteps the steps that threw, which the instance will redo on demand.
+   * @param hotBusinessesLoaded how many of the most followed businesses' profiles were cached.
+   */
+  public WarmupReport(
+      boolean ready,
+      long elapsedMillis,
+      Map<String, Long> stepMillis,
+      List<String> failedSteps,
+      int hotBusinessesLoaded) {
+    this.ready = ready;
+    this.elapsedMillis = elapsedMillis;
+    this.stepMillis = stepMillis;
+    this.failedSteps = failedSteps;
+    this.hotBusinessesLoaded = hotBusinessesLoaded;
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public Map<String, Long> getStepMillis() {
+    return stepMillis;
+  }
+
+  public List<String> getFailedSteps() {
+    return failedSteps;
+  }
+
+  public int getHotBusinessesLoaded() {
+    return hotBusinessesLoaded;
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.AsyncDatastoreUtil.startQuery;
+import static com.google.sps.data.JsonStreamUtil.writeJsonArray;
 import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.LAT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
@@ -26,23 +28,22 @@ import static com.google.sps.data.ProfileDatastoreUtil.SW_LAT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.SW_LNG_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
 
-import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.CompositeFilter;
 import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.gson.Gson;
+import com.google.common.collect.Iterables;
 import com.google.sps.data.MapInfo;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -52,7 +53,8 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/map")
 public class MapServlet extends HttpServlet {
 
-  DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final AsyncDatastoreService asyncDatastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -79,21 +81,6 @@ public class MapServlet extends HttpServlet {
                 new FilterPredicate(LAT_PROPERTY, FilterOperator.GREATER_THAN_OR_EQUAL, SW_Lat),
                 new FilterPredicate(LAT_PROPERTY, FilterOperator.LESS_THAN_OR_EQUAL, NE_Lat)));
 
-    // Convert entities to Profile objects.
-    Query latQuery = new Query(PROFILE_TASK_NAME).setFilter(latFilter);
-    PreparedQuery latResults = datastore.prepare(latQuery);
-    List<MapInfo> latList = new ArrayList<>();
-    for (Entity entity : latResults.asIterable()) {
-      String id = (String) entity.getKey().getName();
-      String name = (String) entity.getProperty(NAME_PROPERTY);
-      String location = (String) entity.getProperty(LOCATION_PROPERTY);
-      double lat = (Double) entity.getProperty(LAT_PROPERTY);
-      double lng = (Double) entity.getProperty(LONG_PROPERTY);
-
-      MapInfo business = new MapInfo(id, name, location, lat, lng);
-      latList.add(business);
-    }
-
     // Filter businesses that are within the map search bounds.
     Filter lngFilter =
         new CompositeFilter(
@@ -103,28 +90,31 @@ public class MapServlet extends HttpServlet {
                 new FilterPredicate(LONG_PROPERTY, FilterOperator.GREATER_THAN_OR_EQUAL, SW_Lng),
                 new FilterPredicate(LONG_PROPERTY, FilterOperator.LESS_THAN_OR_EQUAL, NE_Lng)));
 
-    // Convert entities to Profile objects.
-    Query lngQuery = new Query(PROFILE_TASK_NAME).setFilter(lngFilter);
-    PreparedQuery lngResults = datastore.prepare(lngQuery);
-    List<MapInfo> lngList = new ArrayList<>();
-    for (Entity entity : lngResults.asIterable()) {
-      String id = (String) entity.getKey().getName();
-      String name = (String) entity.getProperty(NAME_PROPERTY);
-      String location = (String) entity.getProperty(LOCATION_PROPERTY);
-      double lat = (Double) entity.getProperty(LAT_PROPERTY);
-      double lng = (Double) entity.getProperty(LONG_PROPERTY);
+    // Both queries are started before either is read, so they run at the same time. Only the IDs
+    // are needed from the longitude query, to intersect with the latitude one.
+    Iterator<Entity> lngResults =
+        startQuery(asyncDatastore, new Query(PROFILE_TASK_NAME).setFilter(lngFilter).setKeysOnly());
+    Iterator<Entity> latResults =
+        startQuery(asyncDatastore, new Query(PROFILE_TASK_NAME).setFilter(latFilter));
 
-      MapInfo business = new MapInfo(id, name, location, lat, lng);
-      lngList.add(business);
+    Set<String> lngIds = new HashSet<>();
+    while (lngResults.hasNext()) {
+      lngIds.add(lngResults.next().getKey().getName());
     }
 
-    List<MapInfo> resultsList =
-        latList.stream()
-            .filter(os -> lngList.stream().anyMatch(ns -> os.getId().equals(ns.getId())))
-            .collect(Collectors.toList());
+    // Convert entities to MapInfo objects as they are read and written.
+    Iterable<Entity> results =
+        Iterables.filter(() -> latResults, entity -> lngIds.contains(entity.getKey().getName()));
+    writeJsonArray(response, results, entity -> generateMapInfo(entity));
+  }
+
+  private MapInfo generateMapInfo(Entity entity) {
+    String id = entity.getKey().getName();
+    String name = (String) entity.getProperty(NAME_PROPERTY);
+    String location = (String) entity.getProperty(LOCATION_PROPERTY);
+    double lat = (Double) entity.getProperty(LAT_PROPERTY);
+    double lng = (Double) entity.getProperty(LONG_PROPERTY);
 
-    response.setContentType("application/json;");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(resultsList));
+    return new MapInfo(id, name, location, lat, lng);
   }
 }
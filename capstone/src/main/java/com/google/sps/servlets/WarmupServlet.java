@@ -0,0 +1,202 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.BusinessSearchUtil.getBusinessIndex;
+import static com.google.sps.data.ProfileDatastoreUtil.generateBusinessProfile;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.search.Query;
+import com.google.appengine.api.search.QueryOptions;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.BusinessSummary;
+import com.google.sps.data.Comment;
+import com.google.sps.data.FollowGraph;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowScan;
+import com.google.sps.data.LeaderboardEntry;
+import com.google.sps.data.MapInfo;
+import com.google.sps.data.ProfileRepository;
+import com.google.sps.data.WarmupReport;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet App Engine calls when it starts an instance, before sending it traffic. It does the work
+ * that would otherwise land on the instance's first requests: building the follow graph from a
+ * scan, caching the most followed businesses' profiles, opening the search index and exercising the
+ * JSON serializers. The work is done once per instance; later calls return the same report. web.xml
+ * restricts the URL to admins, which App Engine's own warmup requests count as even though no user
+ * is signed in.
+ */
+@WebServlet("/_ah/warmup")
+public class WarmupServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+  private static final Logger logger = Logger.getLogger(WarmupServlet.class.getName());
+
+  private static final String FOLLOW_INDEXES_STEP = "followIndexes";
+  private static final String HOT_BUSINESSES_STEP = "hotBusinesses";
+  private static final String SEARCH_INDEX_STEP = "searchIndex";
+  private static final String SERIALIZERS_STEP = "serializers";
+  private static final int SERIALIZER_ROUNDS = 200;
+
+  private final DatastoreService datastore;
+  private final FollowGraph followGraph;
+  private final FollowLeaderboard leaderboard;
+  private final ProfileRepository profileRepository;
+  private final SearchService searchService;
+  private final LongSupplier clock;
+
+  // The report of the last warmup, kept once every step has succeeded.
+  private WarmupReport report;
+
+  public WarmupServlet() {
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        FollowGraph.getInstance(),
+        FollowLeaderboard.getInstance(),
+        ProfileRepository.getInstance(),
+        SearchServiceFactory.getSearchService(),
+        System::currentTimeMillis);
+  }
+
+  public WarmupServlet(
+      DatastoreService datastore,
+      FollowGraph followGraph,
+      FollowLeaderboard leaderboard,
+      ProfileRepository profileRepository,
+      SearchService searchService,
+      LongSupplier clock) {
+    this.datastore = datastore;
+    this.followGraph = followGraph;
+    this.leaderboard = leaderboard;
+    this.profileRepository = profileRepository;
+    this.searchService = searchService;
+    this.clock = clock;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    WarmupReport warmupReport;
+    synchronized (this) {
+      if (report == null) {
+        warmupReport = warmUp();
+        if (warmupReport.isReady()) {
+          report = warmupReport;
+        }
+      } else {
+        warmupReport = report;
+      }
+    }
+
+    // A failed warmup doesn't stop the instance from serving, but should stand out in the logs.
+    if (!warmupReport.isReady()) {
+      response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(warmupReport));
+  }
+
+  private WarmupReport warmUp() {
+    long start = clock.getAsLong();
+    Map<String, Long> stepMillis = new LinkedHashMap<>();
+    List<String> failedSteps = new ArrayList<>();
+    List<Entity> hotBusinesses = new ArrayList<>();
+
+    runStep(
+        FOLLOW_INDEXES_STEP,
+        () -> FollowScan.rebuild(datastore, followGraph),
+        stepMillis,
+        failedSteps);
+    runStep(
+        HOT_BUSINESSES_STEP,
+        () -> hotBusinesses.addAll(loadHotBusinesses()),
+        stepMillis,
+        failedSteps);
+    runStep(
+        SEARCH_INDEX_STEP,
+        () ->
+            getBusinessIndex(searchService)
+                .search(
+                    Query.newBuilder().setOptions(QueryOptions.newBuilder().setLimit(1)).build("")),
+        stepMillis,
+        failedSteps);
+    runStep(SERIALIZERS_STEP, () -> exerciseSerializers(hotBusinesses), stepMillis, failedSteps);
+
+    long elapsedMillis = clock.getAsLong() - start;
+    WarmupReport warmupReport =
+        new WarmupReport(
+            failedSteps.isEmpty(), elapsedMillis, stepMillis, failedSteps, hotBusinesses.size());
+    logger.info("Warmup took " + elapsedMillis + " ms: " + GSON.toJson(warmupReport));
+    return warmupReport;
+  }
+
+  /** Time a step. A step that fails is logged and skipped, to be done on demand later. */
+  private void runStep(
+      String name, Runnable step, Map<String, Long> stepMillis, List<String> failedSteps) {
+    long start = clock.getAsLong();
+    try {
+      step.run();
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Warmup step " + name + " failed.", e);
+      failedSteps.add(name);
+    }
+    stepMillis.put(name, clock.getAsLong() - start);
+  }
+
+  /** Cache the profiles of the most followed businesses, which most pages show. */
+  private List<Entity> loadHotBusinesses() {
+    List<String> businessIds = new ArrayList<>();
+    for (LeaderboardEntry entry : leaderboard.getTop(FollowLeaderboard.CAPACITY)) {
+      businessIds.add(entry.getBusinessId());
+    }
+    return new ArrayList<>(profileRepository.getBusinesses(businessIds).values());
+  }
+
+  /** Convert each kind of response object to and from JSON, so the JIT compiles the paths. */
+  private static void exerciseSerializers(List<Entity> hotBusinesses) {
+    List<Object> samples = new ArrayList<>();
+    for (Entity businessEntity : hotBusinesses) {
+      samples.add(generateBusinessProfile(businessEntity, false));
+    }
+    samples.add(
+        new BusinessProfile(
+            "id", "name", "location", "bio", "story", "about", "", "support", false));
+    samples.add(new BusinessSummary("id", "name", "location", "bio"));
+    samples.add(new MapInfo("id", "name", "location", 0, 0));
+    samples.add(new Comment("id", "content", 0, "userId", "name", "businessId", "", false));
+
+    for (int i = 0; i < SERIALIZER_ROUNDS; i++) {
+      for (Object sample : samples) {
+        GSON.fromJson(GSON.toJson(sample), sample.getClass());
+      }
+    }
+  }
+}
@@ -14,17 +14,12 @@
 
 package com.google.sps.servlets.authentication;
 
-import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
-
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.sps.data.ProfileRepository;
 import com.google.sps.data.User;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
@@ -37,11 +32,13 @@ import javax.servlet.http.HttpServletResponse;
  * login/logout url links for client side. When signed in, redirect to a servlet to determine
  * whether it's a new user or not.
  */
-@WebServlet("/login")
+// Loaded when the instance starts, so its login and logout URLs are made before any request.
+@WebServlet(urlPatterns = "/login", loadOnStartup = 1)
 public class LoginServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
 
-  private UserService userService = UserServiceFactory.getUserService();
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
 
   private static final String IS_BUSINESS = "isBusiness";
   private static final String SUPPORT_PROPERTY = "support";
@@ -55,11 +52,9 @@ public class LoginServlet extends HttpServlet {
 
     if (userService.isUserLoggedIn()) {
       String userId = userService.getCurrentUser().getUserId();
-      String keyString = KeyFactory.createKeyString(PROFILE_TASK_NAME, userId);
-      Key userKey = KeyFactory.stringToKey(keyString);
 
       try {
-        entity = datastore.get(userKey);
+        entity = profileRepository.getProfile(userId);
       } catch (EntityNotFoundException e) {
         response.sendError(
             HttpServletResponse.SC_NOT_FOUND,
@@ -74,7 +69,6 @@ public class LoginServlet extends HttpServlet {
     }
 
     response.setContentType("application/json;");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(userData));
+    response.getWriter().println(GSON.toJson(userData));
   }
 }
@@ -24,15 +24,15 @@ import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.NO;
 import static com.google.sps.data.ProfileDatastoreUtil.NULL_STRING;
 import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.putNewVersion;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.ProfileRepository;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -43,20 +43,19 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/check_new_user")
 public class NewUserServlet extends HttpServlet {
 
-  UserService userService = UserServiceFactory.getUserService();
+  private final UserService userService = UserServiceFactory.getUserService();
 
-  DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     // Create a key from user sign in ID and check if it's in the database.
     String userId = userService.getCurrentUser().getUserId();
 
-    String keyString = KeyFactory.createKeyString(PROFILE_TASK_NAME, userId);
-    Key userKey = KeyFactory.stringToKey(keyString);
-
     try {
-      Entity entity = datastore.get(userKey);
+      profileRepository.getProfile(userId);
       response.sendRedirect("/index.html");
     } catch (EntityNotFoundException e) {
       // Add user to database with default values.
@@ -68,7 +67,7 @@ public class NewUserServlet extends HttpServlet {
       userEntity.setProperty(LONG_PROPERTY, NULL_STRING);
       userEntity.setProperty(BIO_PROPERTY, NULL_STRING);
 
-      datastore.put(userEntity);
+      putNewVersion(userEntity, datastore);
 
       response.sendRedirect("/profile.html?id=" + userId);
     }
@@ -0,0 +1,735 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.BusinessSearchUtil.MAX_INDEX_BATCH_SIZE;
+import static com.google.sps.data.BusinessSearchUtil.buildBusinessDocument;
+import static com.google.sps.data.BusinessSearchUtil.getBusinessIndex;
+import static com.google.sps.data.CsvUtil.readCsvRecord;
+import static com.google.sps.data.ProfileDatastoreUtil.ABOUT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.CALENDAR_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LAT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LONG_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.STORY_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.SUPPORT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.ProfileDatastoreUtil.setVersion;
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.OperationResult;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.StatusCode;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.sps.data.BusinessImportReport;
+import com.google.sps.data.ImportRowError;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Creates many business profiles at once, from newline delimited JSON objects or CSV with a header
+ * row, keyed by the fields of a business profile plus the "id" of the user who owns it. Admins
+ * only.
+ *
+ * <p>An upload is only split into chunks of rows and stored, so that it is accepted within the
+ * request deadline however large it is. Each chunk is then imported by its own task, which chains
+ * the next: its rows are validated in parallel, saved and indexed for search in as few puts as the
+ * search service allows. The running report is stored with the import and can be read back with a
+ * GET by its importId.
+ *
+ * <p>Imports only create profiles. A row whose id already has a profile is rejected, so an import
+ * can never overwrite a profile a user has edited. Each profile records the chunk that created it,
+ * so a chunk that is retried after saving its profiles counts and indexes them instead.
+ */
+@WebServlet(BusinessImportServlet.IMPORT_URL)
+public class BusinessImportServlet extends HttpServlet {
+  public static final String IMPORT_URL = "/tasks/businesses/import";
+  public static final String IMPORT_TASK_NAME = "BusinessImport";
+  public static final String CHUNK_TASK_NAME = "BusinessImportChunk";
+  public static final String IMPORT_ID_PARAMETER = "importId";
+  public static final String ID_FIELD = "id";
+
+  /** The most entities datastore accepts in one put. */
+  public static final int PUT_BATCH_SIZE = 500;
+
+  public static final int MAX_REPORTED_ERRORS = 1000;
+
+  // Keeps a stored chunk under the 1MB entity limit, even if every character takes three bytes.
+  public static final int MAX_CHUNK_CHARS = 300 * 1000;
+  // Longer than any valid row, whose fields are limited to MAX_FIELD_BYTES each.
+  public static final int MAX_ROW_CHARS = 20 * 1000;
+
+  // The most entity groups a cross-group transaction can write.
+  private static final int MAX_TRANSACTION_GROUPS = 25;
+
+  private static final String HEADER_PROPERTY = "header";
+  private static final String ROWS_READ_PROPERTY = "rowsRead";
+  private static final String IMPORTED_PROPERTY = "imported";
+  private static final String ERROR_COUNT_PROPERTY = "errorCount";
+  private static final String ERRORS_PROPERTY = "errors";
+  private static final String STARTED_AT_PROPERTY = "startedAt";
+  private static final String FINISHED_AT_PROPERTY = "finishedAt";
+  private static final String CHUNK_COUNT_PROPERTY = "chunkCount";
+  private static final String NEXT_CHUNK_PROPERTY = "nextChunk";
+  private static final String FIRST_ROW_PROPERTY = "firstRow";
+  private static final String ROWS_PROPERTY = "rows";
+  // Set on each imported profile to the key of the chunk that created it.
+  private static final String IMPORT_CHUNK_PROPERTY = "importChunk";
+
+  private static final String FORMAT_PARAMETER = "format";
+  private static final String NDJSON_FORMAT = "ndjson";
+  private static final String CSV_FORMAT = "csv";
+  private static final Gson GSON = new Gson();
+  private static final Type ROW_TYPE = new TypeToken<Map<String, String>>() {}.getType();
+  private static final Type CHUNK_ROWS_TYPE = new TypeToken<List<List<String>>>() {}.getType();
+  private static final Type ERRORS_TYPE = new TypeToken<List<ImportRowError>>() {}.getType();
+
+  // Datastore refuses indexed strings longer than this, which would fail the whole batch.
+  private static final int MAX_FIELD_BYTES = 1500;
+  // Valid as both a datastore key name and a search document id.
+  private static final Pattern ID_PATTERN = Pattern.compile("[0-9A-Za-z._-]{1,500}");
+
+  private static final String[] TEXT_PROPERTIES = {
+    NAME_PROPERTY,
+    LOCATION_PROPERTY,
+    BIO_PROPERTY,
+    STORY_PROPERTY,
+    ABOUT_PROPERTY,
+    CALENDAR_PROPERTY,
+    SUPPORT_PROPERTY
+  };
+  private static final Set<String> FIELDS = new HashSet<>(Arrays.asList(TEXT_PROPERTIES));
+
+  static {
+    FIELDS.add(ID_FIELD);
+    FIELDS.add(LAT_PROPERTY);
+    FIELDS.add(LONG_PROPERTY);
+  }
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore;
+  private final SearchService searchService;
+  private final Queue taskQueue;
+  private final LongSupplier clock;
+
+  public BusinessImportServlet() {
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        SearchServiceFactory.getSearchService(),
+        QueueFactory.getDefaultQueue(),
+        System::currentTimeMillis);
+  }
+
+  public BusinessImportServlet(
+      DatastoreService datastore,
+      SearchService searchService,
+      Queue taskQueue,
+      LongSupplier clock) {
+    this.datastore = datastore;
+    this.searchService = searchService;
+    this.taskQueue = taskQueue;
+    this.clock = clock;
+  }
+
+  /** Report on the import with the given importId. */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    Entity importEntity = getImport(request.getParameter(IMPORT_ID_PARAMETER));
+    if (importEntity == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "No import with this id was found.");
+      return;
+    }
+    sendReport(importEntity, response);
+  }
+
+  /**
+   * Accept an upload, or import the next chunk of an accepted upload when run as a task with its
+   * importId.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    if (request.getParameter(IMPORT_ID_PARAMETER) != null) {
+      Entity importEntity = getImport(request.getParameter(IMPORT_ID_PARAMETER));
+      if (importEntity == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "No import with this id was found.");
+        return;
+      }
+      sendReport(importNextChunk(importEntity), response);
+      return;
+    }
+
+    String format = request.getParameter(FORMAT_PARAMETER);
+    if (format == null) {
+      format = NDJSON_FORMAT;
+    }
+    if (!format.equals(NDJSON_FORMAT) && !format.equals(CSV_FORMAT)) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "The format must be either 'ndjson' or 'csv'.");
+      return;
+    }
+
+    BufferedReader reader = request.getReader();
+    List<String> header = null;
+    if (format.equals(CSV_FORMAT)) {
+      header = readCsvRecord(reader);
+      String headerError = checkHeader(header);
+      if (headerError != null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, headerError);
+        return;
+      }
+    }
+
+    Entity importEntity = acceptUpload(reader, header);
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    sendReport(importEntity, response);
+  }
+
+  /**
+   * Store an upload as chunks of rows under a new import, and start importing the first chunk. Rows
+   * too long to be valid are rejected here, since they could not be stored.
+   *
+   * @param header the CSV header, or null when reading NDJSON.
+   * @return the new import.
+   */
+  private Entity acceptUpload(BufferedReader reader, List<String> header) throws IOException {
+    Key importKey = datastore.allocateIds(IMPORT_TASK_NAME, 1).getStart();
+    Progress progress = new Progress();
+    int chunkCount = 0;
+    int firstRow = 1;
+    List<List<String>> rows = new ArrayList<>();
+    int chunkChars = 0;
+    List<String> row;
+    while ((row = readRow(reader, header)) != null) {
+      progress.rowsRead++;
+      int rowChars = row.stream().mapToInt(String::length).sum();
+      if (rowChars > MAX_ROW_CHARS) {
+        progress.addError(
+            progress.rowsRead, null, "The row is longer than " + MAX_ROW_CHARS + " characters.");
+        row = Collections.emptyList();
+        rowChars = 0;
+      }
+
+      if (rows.size() == PUT_BATCH_SIZE || chunkChars + rowChars > MAX_CHUNK_CHARS) {
+        chunkCount++;
+        datastore.put(buildChunk(importKey, chunkCount, firstRow, rows));
+        firstRow += rows.size();
+        rows.clear();
+        chunkChars = 0;
+      }
+      rows.add(row);
+      chunkChars += rowChars;
+    }
+    if (!rows.isEmpty()) {
+      chunkCount++;
+      datastore.put(buildChunk(importKey, chunkCount, firstRow, rows));
+    }
+
+    Entity importEntity = new Entity(importKey);
+    importEntity.setUnindexedProperty(HEADER_PROPERTY, header);
+    importEntity.setUnindexedProperty(STARTED_AT_PROPERTY, clock.getAsLong());
+    importEntity.setUnindexedProperty(CHUNK_COUNT_PROPERTY, (long) chunkCount);
+    importEntity.setUnindexedProperty(NEXT_CHUNK_PROPERTY, 1L);
+    progress.writeTo(importEntity);
+    if (chunkCount == 0) {
+      importEntity.setUnindexedProperty(FINISHED_AT_PROPERTY, clock.getAsLong());
+    }
+    datastore.put(importEntity);
+
+    if (chunkCount > 0) {
+      taskQueue.add(
+          TaskOptions.Builder.withUrl(IMPORT_URL)
+              .param(IMPORT_ID_PARAMETER, String.valueOf(importKey.getId())));
+    }
+    return importEntity;
+  }
+
+  /**
+   * Import the next chunk of an import, then record its progress, drop the chunk and chain a task
+   * for the chunk after it in one transaction. A retried task whose chunk was already recorded
+   * changes nothing.
+   *
+   * @return the import as it now stands.
+   */
+  @SuppressWarnings("unchecked")
+  private Entity importNextChunk(Entity importEntity) {
+    if (importEntity.getProperty(FINISHED_AT_PROPERTY) != null) {
+      return importEntity;
+    }
+    long chunkNumber = (long) importEntity.getProperty(NEXT_CHUNK_PROPERTY);
+    Key chunkKey = KeyFactory.createKey(importEntity.getKey(), CHUNK_TASK_NAME, chunkNumber);
+    Entity chunk;
+    try {
+      chunk = datastore.get(chunkKey);
+    } catch (EntityNotFoundException e) {
+      return importEntity;
+    }
+
+    List<String> header = (List<String>) importEntity.getProperty(HEADER_PROPERTY);
+    int firstRow = (int) (long) chunk.getProperty(FIRST_ROW_PROPERTY);
+    List<List<String>> rows =
+        GSON.fromJson(((Text) chunk.getProperty(ROWS_PROPERTY)).getValue(), CHUNK_ROWS_TYPE);
+    List<RawRow> batch = new ArrayList<>();
+    for (int i = 0; i < rows.size(); i++) {
+      // Rows that were rejected when the upload was accepted are stored empty.
+      if (!rows.get(i).isEmpty()) {
+        batch.add(new RawRow(firstRow + i, header, rows.get(i)));
+      }
+    }
+    Progress chunkProgress = new Progress();
+    importBatch(chunkKey, batch, chunkProgress);
+
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity current = datastore.get(transaction, importEntity.getKey());
+      if ((long) current.getProperty(NEXT_CHUNK_PROPERTY) != chunkNumber) {
+        return current;
+      }
+      Progress progress = Progress.readFrom(current);
+      progress.add(chunkProgress);
+      progress.writeTo(current);
+      current.setUnindexedProperty(NEXT_CHUNK_PROPERTY, chunkNumber + 1);
+      if (chunkNumber == (long) current.getProperty(CHUNK_COUNT_PROPERTY)) {
+        current.setUnindexedProperty(FINISHED_AT_PROPERTY, clock.getAsLong());
+      } else {
+        taskQueue.add(
+            transaction,
+            TaskOptions.Builder.withUrl(IMPORT_URL)
+                .param(IMPORT_ID_PARAMETER, String.valueOf(current.getKey().getId())));
+      }
+      datastore.put(transaction, current);
+      datastore.delete(transaction, chunkKey);
+      transaction.commit();
+      return current;
+    } catch (EntityNotFoundException e) {
+      throw new IllegalStateException("Import " + importEntity.getKey() + " disappeared.", e);
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  private static Entity buildChunk(
+      Key importKey, int chunkNumber, int firstRow, List<List<String>> rows) {
+    Entity chunk = new Entity(KeyFactory.createKey(importKey, CHUNK_TASK_NAME, chunkNumber));
+    chunk.setUnindexedProperty(FIRST_ROW_PROPERTY, (long) firstRow);
+    chunk.setUnindexedProperty(ROWS_PROPERTY, new Text(GSON.toJson(rows)));
+    return chunk;
+  }
+
+  /**
+   * @return the import with this id, or null if there is none.
+   */
+  private Entity getImport(String importId) {
+    try {
+      return datastore.get(KeyFactory.createKey(IMPORT_TASK_NAME, Long.parseLong(importId)));
+    } catch (NumberFormatException | EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private void sendReport(Entity importEntity, HttpServletResponse response) throws IOException {
+    Progress progress = Progress.readFrom(importEntity);
+    Long finishedAt = (Long) importEntity.getProperty(FINISHED_AT_PROPERTY);
+    long end = finishedAt == null ? clock.getAsLong() : finishedAt;
+    BusinessImportReport report =
+        new BusinessImportReport(
+            importEntity.getKey().getId(),
+            finishedAt != null,
+            progress.rowsRead,
+            progress.imported,
+            progress.errorCount,
+            progress.errors,
+            end - (long) importEntity.getProperty(STARTED_AT_PROPERTY));
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(report));
+  }
+
+  /**
+   * @return why a CSV header can not be imported, or null if it can.
+   */
+  private static String checkHeader(List<String> header) {
+    if (header == null) {
+      return "A CSV import must start with a header row.";
+    }
+    for (String column : header) {
+      if (!FIELDS.contains(column)) {
+        return "Unknown column: " + column;
+      }
+    }
+    if (!header.contains(ID_FIELD) || !header.contains(NAME_PROPERTY)) {
+      return "The header must include the columns id and name.";
+    }
+    return null;
+  }
+
+  /**
+   * Read the next row without parsing it, so that parsing can happen later and in parallel. Blank
+   * lines between NDJSON rows are skipped.
+   *
+   * @param header the CSV header, or null when reading NDJSON.
+   * @return the fields of a CSV record or the single line of an NDJSON row, or null at the end of
+   *     the input.
+   */
+  private static List<String> readRow(BufferedReader reader, List<String> header)
+      throws IOException {
+    if (header != null) {
+      return readCsvRecord(reader);
+    }
+
+    String line;
+    do {
+      line = reader.readLine();
+    } while (line != null && line.trim().isEmpty());
+    return line == null ? null : Collections.singletonList(line);
+  }
+
+  /** Validate a batch of rows, then save and index the valid ones. */
+  private void importBatch(Key chunkKey, List<RawRow> rows, Progress progress) {
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    // Validation uses no App Engine services, so it is free to run on other threads. Entities are
+    // built back on the request thread, since creating a key needs the request's environment.
+    List<ValidatedRow> validated =
+        rows.parallelStream().map(row -> validate(row)).collect(Collectors.toList());
+
+    List<ValidatedRow> toSave = new ArrayList<>();
+    for (ValidatedRow row : validated) {
+      if (row.error != null) {
+        progress.addError(row.number, row.id, row.error);
+      } else if (!progress.importedIds.add(row.id)) {
+        progress.addError(row.number, row.id, "The id appears in an earlier row.");
+      } else {
+        row.entity = buildProfile(row.id, row.properties, chunkKey);
+        toSave.add(row);
+      }
+    }
+
+    List<ValidatedRow> saved = new ArrayList<>();
+    for (int i = 0; i < toSave.size(); i += MAX_TRANSACTION_GROUPS) {
+      saved.addAll(
+          createProfiles(
+              chunkKey,
+              toSave.subList(i, Math.min(i + MAX_TRANSACTION_GROUPS, toSave.size())),
+              progress));
+    }
+    toSave = saved;
+    progress.imported += toSave.size();
+
+    for (int i = 0; i < toSave.size(); i += MAX_INDEX_BATCH_SIZE) {
+      indexBatch(toSave.subList(i, Math.min(i + MAX_INDEX_BATCH_SIZE, toSave.size())), progress);
+    }
+  }
+
+  /**
+   * Save the profiles of rows whose ids have none yet. Each profile is its own entity group, so the
+   * check and the put share one cross-group transaction, and a profile created meanwhile by its
+   * user is never overwritten. Profiles this chunk already created, on an attempt that failed
+   * before recording its progress, are kept as they are and returned with the saved rows.
+   *
+   * @return the rows that were saved.
+   */
+  private List<ValidatedRow> createProfiles(
+      Key chunkKey, List<ValidatedRow> rows, Progress progress) {
+    List<Key> keys = rows.stream().map(row -> row.entity.getKey()).collect(Collectors.toList());
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Map<Key, Entity> existing = datastore.get(transaction, keys);
+      List<ValidatedRow> toSave = new ArrayList<>();
+      List<ValidatedRow> savedBefore = new ArrayList<>();
+      List<ValidatedRow> rejected = new ArrayList<>();
+      for (ValidatedRow row : rows) {
+        Entity existingProfile = existing.get(row.entity.getKey());
+        if (existingProfile == null) {
+          toSave.add(row);
+        } else if (chunkKey.equals(existingProfile.getProperty(IMPORT_CHUNK_PROPERTY))) {
+          row.entity = existingProfile;
+          savedBefore.add(row);
+        } else {
+          rejected.add(row);
+        }
+      }
+      datastore.put(
+          transaction, toSave.stream().map(row -> row.entity).collect(Collectors.toList()));
+      transaction.commit();
+
+      for (ValidatedRow row : rejected) {
+        progress.addError(row.number, row.id, "A profile with this id already exists.");
+      }
+      toSave.addAll(savedBefore);
+      return toSave;
+    } catch (ConcurrentModificationException | DatastoreFailureException e) {
+      for (ValidatedRow row : rows) {
+        progress.addError(row.number, row.id, "The business could not be saved.");
+      }
+      return Collections.emptyList();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Add saved businesses to the search index in one put, retrying once if it fails transiently. */
+  private void indexBatch(List<ValidatedRow> rows, Progress progress) {
+    Index index = getBusinessIndex(searchService);
+    List<Document> documents =
+        rows.stream()
+            .map(
+                row ->
+                    buildBusinessDocument(row.id, (String) row.entity.getProperty(NAME_PROPERTY)))
+            .collect(Collectors.toList());
+
+    PutException failure;
+    try {
+      index.put(documents);
+      return;
+    } catch (PutException e) {
+      failure = e;
+    }
+    if (StatusCode.TRANSIENT_ERROR.equals(failure.getOperationResult().getCode())) {
+      try {
+        index.put(documents);
+        return;
+      } catch (PutException e) {
+        failure = e;
+      }
+    }
+
+    // Results are per document when the put got as far as trying each one.
+    List<OperationResult> results = failure.getResults();
+    for (int i = 0; i < rows.size(); i++) {
+      if (results.size() != rows.size() || !StatusCode.OK.equals(results.get(i).getCode())) {
+        ValidatedRow row = rows.get(i);
+        progress.addError(row.number, row.id, "Saved, but could not be added to search.");
+      }
+    }
+  }
+
+  /** Parse a row and build the profile it describes, or explain why it is invalid. */
+  private static ValidatedRow validate(RawRow row) {
+    Map<String, String> fields;
+    if (row.header != null) {
+      if (row.fields.size() != row.header.size()) {
+        return ValidatedRow.invalid(
+            row.number,
+            null,
+            "Expected " + row.header.size() + " columns but found " + row.fields.size() + ".");
+      }
+      fields = new HashMap<>();
+      for (int i = 0; i < row.header.size(); i++) {
+        fields.put(row.header.get(i), row.fields.get(i));
+      }
+      return checkFields(row.number, fields);
+    }
+
+    try {
+      fields = GSON.fromJson(row.fields.get(0), ROW_TYPE);
+    } catch (JsonParseException e) {
+      fields = null;
+    }
+    if (fields == null) {
+      return ValidatedRow.invalid(row.number, null, "The row is not a JSON object of fields.");
+    }
+    for (String field : fields.keySet()) {
+      if (!FIELDS.contains(field)) {
+        return ValidatedRow.invalid(row.number, fields.get(ID_FIELD), "Unknown field: " + field);
+      }
+    }
+    return checkFields(row.number, fields);
+  }
+
+  /** Check a row's fields and convert them to the profile properties they set. */
+  private static ValidatedRow checkFields(int number, Map<String, String> fields) {
+    String id = fields.get(ID_FIELD);
+    if (id == null || !ID_PATTERN.matcher(id).matches() || id.startsWith("__")) {
+      return ValidatedRow.invalid(
+          number, id, "The id must be letters, digits, '.', '_' or '-', and not start with '__'.");
+    }
+
+    String name = fields.get(NAME_PROPERTY);
+    if (name == null || name.trim().isEmpty()) {
+      return ValidatedRow.invalid(number, id, "Required field: name was not filled out.");
+    }
+
+    Map<String, Object> properties = new HashMap<>();
+    for (String property : TEXT_PROPERTIES) {
+      String value = fields.get(property) == null ? "" : fields.get(property);
+      if (value.getBytes(StandardCharsets.UTF_8).length > MAX_FIELD_BYTES) {
+        return ValidatedRow.invalid(
+            number, id, "Field " + property + " is longer than " + MAX_FIELD_BYTES + " bytes.");
+      }
+      properties.put(property, value);
+    }
+    for (String property : new String[] {LAT_PROPERTY, LONG_PROPERTY}) {
+      String value = fields.get(property);
+      try {
+        properties.put(
+            property, value == null || value.isEmpty() ? null : Double.parseDouble(value));
+      } catch (NumberFormatException e) {
+        return ValidatedRow.invalid(number, id, "Field " + property + " must be a number.");
+      }
+    }
+
+    return new ValidatedRow(number, id, properties, null);
+  }
+
+  private static Entity buildProfile(String id, Map<String, Object> properties, Key chunkKey) {
+    Entity profile = new Entity(PROFILE_TASK_NAME, id);
+    profile.setProperty(IS_BUSINESS_PROPERTY, YES);
+    for (Map.Entry<String, Object> property : properties.entrySet()) {
+      profile.setProperty(property.getKey(), property.getValue());
+    }
+    profile.setUnindexedProperty(IMPORT_CHUNK_PROPERTY, chunkKey);
+    setVersion(profile, 1);
+    return profile;
+  }
+
+  // A row as read from the import: the fields of a CSV record and its header, or an NDJSON line as
+  // the only field and no header.
+  private static final class RawRow {
+    private final int number;
+    private final List<String> header;
+    private final List<String> fields;
+
+    private RawRow(int number, List<String> header, List<String> fields) {
+      this.number = number;
+      this.header = header;
+      this.fields = fields;
+    }
+  }
+
+  // A row's profile properties if it is valid, or what is wrong with it if not.
+  private static final class ValidatedRow {
+    private final int number;
+    private final String id;
+    private final Map<String, Object> properties;
+    private final String error;
+    private Entity entity;
+
+    private ValidatedRow(int number, String id, Map<String, Object> properties, String error) {
+      this.number = number;
+      this.id = id;
+      this.properties = properties;
+      this.error = error;
+    }
+
+    private static ValidatedRow invalid(int number, String id, String error) {
+      return new ValidatedRow(number, id, null, error);
+    }
+  }
+
+  // Running totals of an import, or of one chunk of it.
+  private static final class Progress {
+    // Ids saved so far, to catch repeats within a chunk. Later chunks find the saved profile.
+    private final Set<String> importedIds = new HashSet<>();
+    private List<ImportRowError> errors = new ArrayList<>();
+    private int rowsRead = 0;
+    private int imported = 0;
+    private int errorCount = 0;
+
+    private void addError(int row, String id, String message) {
+      errorCount++;
+      if (errors.size() < MAX_REPORTED_ERRORS) {
+        errors.add(new ImportRowError(row, id, message));
+      }
+    }
+
+    /** Add the totals of a chunk. Its rows were already counted when the upload was accepted. */
+    private void add(Progress chunk) {
+      imported += chunk.imported;
+      errorCount += chunk.errorCount;
+      for (ImportRowError error : chunk.errors) {
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+          errors.add(error);
+        }
+      }
+    }
+
+    private static Progress readFrom(Entity importEntity) {
+      Progress progress = new Progress();
+      progress.rowsRead = (int) (long) importEntity.getProperty(ROWS_READ_PROPERTY);
+      progress.imported = (int) (long) importEntity.getProperty(IMPORTED_PROPERTY);
+      progress.errorCount = (int) (long) importEntity.getProperty(ERROR_COUNT_PROPERTY);
+      progress.errors =
+          GSON.fromJson(((Text) importEntity.getProperty(ERRORS_PROPERTY)).getValue(), ERRORS_TYPE);
+      return progress;
+    }
+
+    private void writeTo(Entity importEntity) {
+      importEntity.setUnindexedProperty(ROWS_READ_PROPERTY, (long) rowsRead);
+      importEntity.setUnindexedProperty(IMPORTED_PROPERTY, (long) imported);
+      importEntity.setUnindexedProperty(ERROR_COUNT_PROPERTY, (long) errorCount);
+      importEntity.setUnindexedProperty(ERRORS_PROPERTY, new Text(GSON.toJson(errors)));
+    }
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.BusinessSearchUtil.indexBusiness;
+import static com.google.sps.data.ConditionalGetUtil.checkNotModified;
 import static com.google.sps.data.ProfileDatastoreUtil.ABOUT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.CALENDAR_PROPERTY;
@@ -25,28 +27,35 @@ import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.STORY_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.SUPPORT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.ProfileDatastoreUtil.generateBusinessProfile;
+import static com.google.sps.data.ProfileDatastoreUtil.getLastModifiedTime;
+import static com.google.sps.data.ProfileDatastoreUtil.getVersion;
+import static com.google.sps.data.ProfileDatastoreUtil.putChanges;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.search.Document;
-import com.google.appengine.api.search.Field;
-import com.google.appengine.api.search.Index;
-import com.google.appengine.api.search.IndexSpec;
-import com.google.appengine.api.search.PutException;
 import com.google.appengine.api.search.SearchService;
 import com.google.appengine.api.search.SearchServiceFactory;
-import com.google.appengine.api.search.StatusCode;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
 import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileRepository;
 import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -55,10 +64,34 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet responsible for showing a business user profile. */
 @WebServlet("/business/*")
 public class BusinessServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+  private static final String PATCH_METHOD = "PATCH";
+  private static final Type PATCH_FIELDS_TYPE = new TypeToken<Map<String, String>>() {}.getType();
 
-  UserService userService = UserServiceFactory.getUserService();
-  DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-  SearchService searchService = SearchServiceFactory.getSearchService();
+  // Free-text fields of a business profile that its owner can edit.
+  private static final String[] TEXT_PROPERTIES = {
+    NAME_PROPERTY,
+    LOCATION_PROPERTY,
+    BIO_PROPERTY,
+    STORY_PROPERTY,
+    ABOUT_PROPERTY,
+    CALENDAR_PROPERTY,
+    SUPPORT_PROPERTY
+  };
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final SearchService searchService;
+  private final FollowerCounter followerCounter = FollowerCounter.getInstance();
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
+
+  public BusinessServlet() {
+    this(SearchServiceFactory.getSearchService());
+  }
+
+  public BusinessServlet(SearchService searchService) {
+    this.searchService = searchService;
+  }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -67,43 +100,40 @@ public class BusinessServlet extends HttpServlet {
     String businessID = request.getPathInfo().substring(1);
 
     // Retrieve all of the information for a single business to be displayed.
-    Query businessQuery =
-        new Query(PROFILE_TASK_NAME)
-            .setFilter(
-                CompositeFilterOperator.and(
-                    FilterOperator.EQUAL.of(IS_BUSINESS_PROPERTY, "Yes"),
-                    FilterOperator.EQUAL.of(
-                        Entity.KEY_RESERVED_PROPERTY,
-                        KeyFactory.createKey(PROFILE_TASK_NAME, businessID))));
-
-    Entity businessEntity = datastore.prepare(businessQuery).asSingleEntity();
-
-    if (businessEntity == null) {
+    Entity businessEntity;
+    try {
+      businessEntity = profileRepository.getBusiness(businessID);
+    } catch (EntityNotFoundException e) {
       response.sendError(
           HttpServletResponse.SC_NOT_FOUND,
           "The business you were looking was not found in our records!");
       return;
     }
-    String id = businessEntity.getKey().getName();
-    String name = (String) businessEntity.getProperty(NAME_PROPERTY);
-    String email = (String) businessEntity.getProperty(CALENDAR_PROPERTY);
-    String bio = (String) businessEntity.getProperty(BIO_PROPERTY);
-    String location = (String) businessEntity.getProperty(LOCATION_PROPERTY);
-    String story = (String) businessEntity.getProperty(STORY_PROPERTY);
-    String about = (String) businessEntity.getProperty(ABOUT_PROPERTY);
-    String support = (String) businessEntity.getProperty(SUPPORT_PROPERTY);
 
     String userId = "";
     if (userService.getCurrentUser() != null) {
       userId = userService.getCurrentUser().getUserId();
     }
     boolean isCurrentUser = businessID.equals(userId);
-    BusinessProfile business =
-        new BusinessProfile(id, name, location, bio, story, about, email, support, isCurrentUser);
+    long followerCount = followerCounter.getCount(businessID);
+
+    // The page changes with the profile, its follower count, and whether the owner is viewing it.
+    String etag =
+        "\""
+            + getVersion(businessEntity)
+            + "-"
+            + followerCount
+            + (isCurrentUser ? "-owner" : "")
+            + "\"";
+    if (checkNotModified(request, response, etag, getLastModifiedTime(businessEntity))) {
+      return;
+    }
+
+    BusinessProfile business = generateBusinessProfile(businessEntity, isCurrentUser);
+    business.setFollowerCount(followerCount);
 
-    Gson gson = new Gson();
     response.setContentType("application/json");
-    response.getWriter().println(gson.toJson(business));
+    response.getWriter().println(GSON.toJson(business));
   }
 
   @Override
@@ -124,9 +154,6 @@ public class BusinessServlet extends HttpServlet {
 
     String id = userService.getCurrentUser().getUserId();
 
-    // Update properties in datastore.
-    Entity businessEntity = new Entity(PROFILE_TASK_NAME, id);
-
     // If user is a non-business owner, return error.
     if (!Objects.toString(request.getParameter(IS_BUSINESS_PROPERTY), "").equals("Yes")) {
       response.sendError(
@@ -134,61 +161,132 @@ public class BusinessServlet extends HttpServlet {
       return;
     }
 
-    String[] propertyNames = {
-      IS_BUSINESS_PROPERTY,
-      NAME_PROPERTY,
-      LOCATION_PROPERTY,
-      BIO_PROPERTY,
-      STORY_PROPERTY,
-      ABOUT_PROPERTY,
-      CALENDAR_PROPERTY,
-      SUPPORT_PROPERTY
-    };
-
-    setEntityProperties(businessEntity, request, propertyNames);
-
-    businessEntity.setProperty(
+    Map<String, Object> values = new HashMap<>();
+    values.put(IS_BUSINESS_PROPERTY, YES);
+    for (String property : TEXT_PROPERTIES) {
+      values.put(property, Objects.toString(request.getParameter(property), ""));
+    }
+    values.put(
         LAT_PROPERTY,
         doesParamExist(LAT_PROPERTY, request)
             ? Double.parseDouble(request.getParameter(LAT_PROPERTY))
             : null);
-    businessEntity.setProperty(
+    values.put(
         LONG_PROPERTY,
         doesParamExist(LONG_PROPERTY, request)
             ? Double.parseDouble(request.getParameter(LONG_PROPERTY))
             : null);
 
-    // Create a corresponding document for searching through businesses.
-    Index index = searchService.getIndex(IndexSpec.newBuilder().setName("Business"));
-    Document document =
-        Document.newBuilder()
-            .setId(id)
-            .addField(
-                Field.newBuilder()
-                    .setName("name")
-                    .setTokenizedPrefix((String) businessEntity.getProperty(NAME_PROPERTY)))
-            .build();
+    saveChanges(id, values);
 
+    response.sendRedirect("/business.html?id=" + id);
+  }
+
+  /**
+   * Change some fields of the current user's business, given as a JSON object in the request body,
+   * for example {"bio": "..."}. Fields that are left out keep their values.
+   */
+  public void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (userService.getCurrentUser() == null) {
+      response.sendError(
+          HttpServletResponse.SC_UNAUTHORIZED, "You don't have permission to perform this action!");
+      return;
+    }
+
+    String id = userService.getCurrentUser().getUserId();
+    if (request.getPathInfo() == null || !request.getPathInfo().substring(1).equals(id)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    Entity businessEntity;
     try {
-      index.put(document);
-    } catch (PutException e) {
-      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
-        // retry putting the document to the index
-        index.put(document);
+      businessEntity = datastore.get(KeyFactory.createKey(PROFILE_TASK_NAME, id));
+    } catch (EntityNotFoundException e) {
+      businessEntity = null;
+    }
+    if (businessEntity == null || !ProfileRepository.isBusiness(businessEntity)) {
+      response.sendError(
+          HttpServletResponse.SC_NOT_FOUND,
+          "The business you were looking was not found in our records!");
+      return;
+    }
+
+    Map<String, String> fields;
+    try {
+      fields = GSON.fromJson(request.getReader(), PATCH_FIELDS_TYPE);
+    } catch (JsonParseException e) {
+      fields = null;
+    }
+    if (fields == null || fields.isEmpty()) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "The request body must be a JSON object of the fields to change.");
+      return;
+    }
+
+    Map<String, Object> values = new HashMap<>();
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      String property = field.getKey();
+      if (Arrays.asList(TEXT_PROPERTIES).contains(property)) {
+        values.put(property, Objects.toString(field.getValue(), ""));
+      } else if (property.equals(LAT_PROPERTY) || property.equals(LONG_PROPERTY)) {
+        try {
+          values.put(
+              property, field.getValue() == null ? null : Double.parseDouble(field.getValue()));
+        } catch (NumberFormatException e) {
+          response.sendError(
+              HttpServletResponse.SC_BAD_REQUEST, "Field " + property + " must be a number.");
+          return;
+        }
+      } else {
+        response.sendError(
+            HttpServletResponse.SC_BAD_REQUEST, "Field " + property + " can not be changed.");
+        return;
       }
     }
 
-    // Put entity in datastore.
-    datastore.put(businessEntity);
+    if ("".equals(values.get(NAME_PROPERTY))) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Required field: name can not be empty.");
+      return;
+    }
 
-    response.sendRedirect("/business.html?id=" + id);
+    saveChanges(id, values);
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
   }
 
-  private void setEntityProperties(
-      Entity targetEntity, HttpServletRequest request, String[] propertyNames) {
-    for (String property : propertyNames) {
-      targetEntity.setProperty(property, Objects.toString(request.getParameter(property), ""));
+  @Override
+  protected void service(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    // HttpServlet only dispatches the methods it knows, which do not include PATCH.
+    if (request.getMethod().equals(PATCH_METHOD)) {
+      doPatch(request, response);
+    } else {
+      super.service(request, response);
+    }
+  }
+
+  /**
+   * Save the given values on a business, updating only the properties that differ from what is in
+   * datastore. Nothing is written if nothing changed, and the search document is only rewritten
+   * when the name it is built from changed or a user profile became a business.
+   */
+  private void saveChanges(String id, Map<String, Object> values) {
+    // The map reads lat and long straight from the profile's indexed properties, so this write is
+    // all it takes to move the business on the map.
+    Set<String> changedProperties =
+        putChanges(datastore, KeyFactory.createKey(PROFILE_TASK_NAME, id), values);
+    if (changedProperties.isEmpty()) {
+      return;
+    }
+
+    if (changedProperties.contains(NAME_PROPERTY)
+        || changedProperties.contains(IS_BUSINESS_PROPERTY)) {
+      indexBusiness(id, (String) values.get(NAME_PROPERTY), searchService);
     }
+    profileRepository.invalidate(id);
   }
 
   public boolean doesParamExist(String property, HttpServletRequest request) {
@@ -14,6 +14,9 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.JsonStreamUtil.writeJsonArray;
+import static com.google.sps.data.PaginationUtil.CURSOR_PARAMETER;
+import static com.google.sps.data.PaginationUtil.NEXT_CURSOR_HEADER;
 import static com.google.sps.data.ProfileDatastoreUtil.ABOUT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.CALENDAR_PROPERTY;
@@ -25,57 +28,127 @@ import static com.google.sps.data.ProfileDatastoreUtil.STORY_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.SUPPORT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.gson.Gson;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.BusinessSummary;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.Function;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet responsible for listing all business profiles. */
+/**
+ * Servlet responsible for listing business profiles a page at a time. With view=summary only the
+ * id, name, location and the start of the bio are returned, read from the index by a projection
+ * query instead of loading whole profiles.
+ */
 @WebServlet("/businesses")
 public class BusinessesServlet extends HttpServlet {
+  public static final int SUMMARY_BIO_LENGTH = 150;
 
-  DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final String VIEW_PARAMETER = "view";
+  private static final String VIEW_SUMMARY = "summary";
+  private static final String VIEW_FULL = "full";
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 100;
+  private static final String INVALID_LIMIT_MESSAGE =
+      "The limit must be a number between 1 and " + MAX_LIMIT + ".";
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String view = request.getParameter(VIEW_PARAMETER);
+    if (view != null && !view.equals(VIEW_SUMMARY) && !view.equals(VIEW_FULL)) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "The view must be either 'summary' or 'full'.");
+      return;
+    }
+    boolean summary = VIEW_SUMMARY.equals(view);
+
+    int limit = DEFAULT_LIMIT;
+    if (request.getParameter(LIMIT_PARAMETER) != null) {
+      try {
+        limit = Integer.parseInt(request.getParameter(LIMIT_PARAMETER));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+      if (limit < 1 || limit > MAX_LIMIT) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+    }
+
     // Query profile entities from datastore.
     Filter propertyFilter = new FilterPredicate(IS_BUSINESS_PROPERTY, FilterOperator.EQUAL, YES);
     Query query = new Query(PROFILE_TASK_NAME).setFilter(propertyFilter);
+    if (summary) {
+      // Every profile writer sets these, so no business is left out for lacking one.
+      query
+          .addProjection(new PropertyProjection(NAME_PROPERTY, String.class))
+          .addProjection(new PropertyProjection(LOCATION_PROPERTY, String.class))
+          .addProjection(new PropertyProjection(BIO_PROPERTY, String.class));
+    }
+
+    QueryResultList<Entity> results;
+    try {
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+      if (request.getParameter(CURSOR_PARAMETER) != null) {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(request.getParameter(CURSOR_PARAMETER)));
+      }
+      results = datastore.prepare(query).asQueryResultList(fetchOptions);
+    } catch (IllegalArgumentException e) {
+      // Raised when the cursor is malformed, or was not made by this query.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
+
+    // A full page may be followed by more. The body stays a plain array for existing clients.
+    if (results.size() == limit) {
+      response.setHeader(NEXT_CURSOR_HEADER, results.getCursor().toWebSafeString());
+    }
+
+    // Convert entities to Profile objects as they are written.
+    Function<Entity, ?> converter = summary ? this::generateSummary : this::generateProfile;
+    writeJsonArray(response, results, converter);
+  }
+
+  private BusinessProfile generateProfile(Entity entity) {
+    String id = entity.getKey().getName();
+    String name = (String) entity.getProperty(NAME_PROPERTY);
+    String location = (String) entity.getProperty(LOCATION_PROPERTY);
+    String bio = (String) entity.getProperty(BIO_PROPERTY);
+    String story = (String) entity.getProperty(STORY_PROPERTY);
+    String about = (String) entity.getProperty(ABOUT_PROPERTY);
+    String calendarEmail = (String) entity.getProperty(CALENDAR_PROPERTY);
+    String support = (String) entity.getProperty(SUPPORT_PROPERTY);
+
+    return new BusinessProfile(
+        id, name, location, bio, story, about, calendarEmail, support, false);
+  }
 
-    PreparedQuery results = datastore.prepare(query);
-
-    // Convert entities to Profile objects.
-    List<BusinessProfile> profiles = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
-      String id = (String) entity.getKey().getName();
-      String name = (String) entity.getProperty(NAME_PROPERTY);
-      String location = (String) entity.getProperty(LOCATION_PROPERTY);
-      String bio = (String) entity.getProperty(BIO_PROPERTY);
-      String story = (String) entity.getProperty(STORY_PROPERTY);
-      String about = (String) entity.getProperty(ABOUT_PROPERTY);
-      String calendarEmail = (String) entity.getProperty(CALENDAR_PROPERTY);
-      String support = (String) entity.getProperty(SUPPORT_PROPERTY);
-
-      BusinessProfile profile =
-          new BusinessProfile(id, name, location, bio, story, about, calendarEmail, support, false);
-      profiles.add(profile);
+  private BusinessSummary generateSummary(Entity entity) {
+    String id = entity.getKey().getName();
+    String name = (String) entity.getProperty(NAME_PROPERTY);
+    String location = (String) entity.getProperty(LOCATION_PROPERTY);
+    String bio = (String) entity.getProperty(BIO_PROPERTY);
+    if (bio.length() > SUMMARY_BIO_LENGTH) {
+      bio = bio.substring(0, SUMMARY_BIO_LENGTH) + "...";
     }
 
-    response.setContentType("application/json");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(profiles));
+    return new BusinessSummary(id, name, location, bio);
   }
 }
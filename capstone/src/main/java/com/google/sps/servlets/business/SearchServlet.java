@@ -14,25 +14,17 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.BusinessSearchUtil.getBusinessIndex;
 import static com.google.sps.data.ProfileDatastoreUtil.ABOUT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.CALENDAR_PROPERTY;
-import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
-import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.STORY_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.SUPPORT_PROPERTY;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.search.Index;
-import com.google.appengine.api.search.IndexSpec;
 import com.google.appengine.api.search.Results;
 import com.google.appengine.api.search.ScoredDocument;
 import com.google.appengine.api.search.SearchException;
@@ -41,9 +33,11 @@ import com.google.appengine.api.search.SearchService;
 import com.google.appengine.api.search.SearchServiceFactory;
 import com.google.gson.Gson;
 import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.ProfileRepository;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -52,14 +46,16 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet responsible for returning appropriate search results. */
 @WebServlet("/search")
 public class SearchServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String searchItem = request.getParameter("searchItem");
 
     SearchService searchService = SearchServiceFactory.getSearchService();
-    // Gets the search index. If not created, it creates it.
-    Index index = searchService.getIndex(IndexSpec.newBuilder().setName("Business"));
+    Index index = getBusinessIndex(searchService);
 
     Results<ScoredDocument> searchResults;
     try {
@@ -80,24 +76,15 @@ public class SearchServlet extends HttpServlet {
       return;
     }
 
-    List<BusinessProfile> businesses = new ArrayList<>();
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    // Iterate through matching search results.
+    // Retrieve datastore information about the businesses matching the search, in one batch.
+    List<String> businessIds = new ArrayList<>();
     for (ScoredDocument document : searchResults) {
-      String businessId = document.getId();
-      // Retrieve datastore information about the business that corresponding to the index.
-      Query businessQuery =
-          new Query(PROFILE_TASK_NAME)
-              .setFilter(
-                  CompositeFilterOperator.and(
-                      FilterOperator.EQUAL.of(IS_BUSINESS_PROPERTY, "Yes"),
-                      FilterOperator.EQUAL.of(
-                          Entity.KEY_RESERVED_PROPERTY,
-                          KeyFactory.createKey(PROFILE_TASK_NAME, businessId))));
-      Entity businessEntity = datastore.prepare(businessQuery).asSingleEntity();
-      if (businessEntity == null) {
-        continue;
-      }
+      businessIds.add(document.getId());
+    }
+    Map<String, Entity> businessEntities = profileRepository.getBusinesses(businessIds);
+
+    List<BusinessProfile> businesses = new ArrayList<>();
+    for (Entity businessEntity : businessEntities.values()) {
       String id = businessEntity.getKey().getName();
       String name = (String) businessEntity.getProperty(NAME_PROPERTY);
       String email = (String) businessEntity.getProperty(CALENDAR_PROPERTY);
@@ -113,7 +100,6 @@ public class SearchServlet extends HttpServlet {
     }
 
     response.setContentType("application/json");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(businesses));
+    response.getWriter().println(GSON.toJson(businesses));
   }
 }
@@ -0,0 +1,64 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.FollowLeaderboard;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that lists the most followed businesses. */
+@WebServlet("/businesses/top")
+public class TopBusinessesServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final int DEFAULT_LIMIT = 10;
+  private static final int MAX_LIMIT = 50;
+  private static final String INVALID_LIMIT_MESSAGE =
+      "The limit must be a number between 1 and " + MAX_LIMIT + ".";
+
+  private final FollowLeaderboard leaderboard;
+
+  public TopBusinessesServlet() {
+    this(FollowLeaderboard.getInstance());
+  }
+
+  public TopBusinessesServlet(FollowLeaderboard leaderboard) {
+    this.leaderboard = leaderboard;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    int limit = DEFAULT_LIMIT;
+    if (request.getParameter(LIMIT_PARAMETER) != null) {
+      try {
+        limit = Integer.parseInt(request.getParameter(LIMIT_PARAMETER));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+      if (limit < 1 || limit > MAX_LIMIT) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(leaderboard.getTop(limit)));
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.CommentIngestQueue;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes comments waiting in the write-behind ingestion queue to datastore and reports the queue's
+ * depth and visibility delay. Run by push tasks scheduled when comments arrive and by cron.
+ */
+@WebServlet(CommentIngestQueue.DRAIN_URL)
+public class CommentDrainServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final CommentIngestQueue ingestQueue;
+
+  public CommentDrainServlet() {
+    this(CommentIngestQueue.getInstance());
+  }
+
+  public CommentDrainServlet(CommentIngestQueue ingestQueue) {
+    this.ingestQueue = ingestQueue;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    doPost(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    ingestQueue.drain();
+
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(ingestQueue.getStats()));
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
+import static com.google.sps.data.CommentSearchUtil.MAX_INDEX_BATCH_SIZE;
+import static com.google.sps.data.CommentSearchUtil.buildCommentDocument;
+import static com.google.sps.data.CommentSearchUtil.getCommentIndex;
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.StatusCode;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.CommentReindexStats;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes every comment to the search index, for comments posted before search existed or whose
+ * index write failed. A run that is not finished within its time budget continues from its cursor
+ * in a new task. Reindexing a comment replaces its document, so the job is safe to rerun.
+ */
+@WebServlet(CommentReindexServlet.REINDEX_URL)
+public class CommentReindexServlet extends HttpServlet {
+  public static final String REINDEX_URL = "/tasks/comments/reindex";
+
+  private static final String CURSOR_PARAMETER = "cursor";
+  private static final Gson GSON = new Gson();
+  private static final long TIME_BUDGET_MS = 60 * 1000;
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore;
+  private final SearchService searchService;
+  private final Queue taskQueue;
+
+  public CommentReindexServlet() {
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        SearchServiceFactory.getSearchService(),
+        QueueFactory.getDefaultQueue());
+  }
+
+  public CommentReindexServlet(
+      DatastoreService datastore, SearchService searchService, Queue taskQueue) {
+    this.datastore = datastore;
+    this.searchService = searchService;
+    this.taskQueue = taskQueue;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    doPost(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    Cursor cursor = null;
+    if (request.getParameter(CURSOR_PARAMETER) != null) {
+      try {
+        cursor = Cursor.fromWebSafeString(request.getParameter(CURSOR_PARAMETER));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    Index index = getCommentIndex(searchService);
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MS;
+    long commentsIndexed = 0;
+    boolean complete = false;
+
+    while (!complete && System.currentTimeMillis() < deadline) {
+      FetchOptions options = FetchOptions.Builder.withLimit(MAX_INDEX_BATCH_SIZE);
+      if (cursor != null) {
+        options.startCursor(cursor);
+      }
+      QueryResultList<Entity> page =
+          datastore.prepare(new Query(COMMENT_TASK_NAME)).asQueryResultList(options);
+      cursor = page.getCursor();
+      complete = page.size() < MAX_INDEX_BATCH_SIZE;
+
+      List<Document> documents = new ArrayList<>();
+      for (Entity comment : page) {
+        documents.add(buildCommentDocument(comment));
+      }
+      if (!documents.isEmpty()) {
+        putDocuments(index, documents);
+        commentsIndexed += documents.size();
+      }
+    }
+
+    if (!complete) {
+      taskQueue.add(
+          TaskOptions.Builder.withUrl(REINDEX_URL)
+              .param(CURSOR_PARAMETER, cursor.toWebSafeString()));
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(new CommentReindexStats(commentsIndexed, complete)));
+  }
+
+  private static void putDocuments(Index index, List<Document> documents) {
+    try {
+      index.put(documents);
+    } catch (PutException e) {
+      if (!StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
+        // Let the task fail and be retried from its cursor.
+        throw e;
+      }
+      // retry putting the documents to the index
+      index.put(documents);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+import static com.google.sps.data.CommentSearchUtil.searchComments;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.search.SearchException;
+import com.google.appengine.api.search.SearchQueryException;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that searches comment content, ranking matches by relevance and recency. */
+@WebServlet("/comments/search")
+public class CommentSearchServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+
+  private static final String QUERY_PARAMETER = "q";
+
+  private final DatastoreService datastore;
+  private final SearchService searchService;
+
+  public CommentSearchServlet() {
+    this(DatastoreServiceFactory.getDatastoreService(), SearchServiceFactory.getSearchService());
+  }
+
+  public CommentSearchServlet(DatastoreService datastore, SearchService searchService) {
+    this.datastore = datastore;
+    this.searchService = searchService;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String queryString = request.getParameter(QUERY_PARAMETER);
+    if (isNullOrEmpty(queryString) || queryString.trim().isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Must specify a search query.");
+      return;
+    }
+    String businessId = request.getParameter(BUSINESS_ID_PROPERTY);
+
+    List<String> commentIds;
+    try {
+      commentIds =
+          searchComments(queryString, businessId, System.currentTimeMillis(), searchService);
+    } catch (SearchQueryException e) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Enter a valid search term and try again.");
+      return;
+    } catch (SearchException e) {
+      response.sendError(
+          HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          "The server was unable to handle the search request.");
+      return;
+    }
+
+    // Fetch every match in one batch and keep the search order.
+    List<Key> commentKeys =
+        commentIds.stream().map(KeyFactory::stringToKey).collect(Collectors.toList());
+    Map<Key, Entity> commentEntities = datastore.get(commentKeys);
+
+    List<Comment> comments = new ArrayList<>();
+    for (Key commentKey : commentKeys) {
+      Entity commentEntity = commentEntities.get(commentKey);
+      // Comments accepted for a batched write are searchable before they are stored.
+      if (commentEntity != null) {
+        comments.add(generateComment(commentEntity));
+      }
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(comments));
+  }
+}
@@ -15,6 +15,8 @@
 package com.google.sps.servlets;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.sps.data.AsyncDatastoreUtil.await;
+import static com.google.sps.data.AsyncDatastoreUtil.getIfExists;
 import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
 import static com.google.sps.data.CommentDatastoreUtil.CONTENT_PROPERTY;
@@ -22,19 +24,27 @@ import static com.google.sps.data.CommentDatastoreUtil.HAS_REPLIES_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.PARENT_ID_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.TIMESTAMP_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+import static com.google.sps.data.CommentSearchUtil.indexComment;
 
-import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.CommentIngestQueue;
+import com.google.sps.data.CommentStreamHub;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -47,8 +57,24 @@ public class CommentServlet extends HttpServlet {
   private final List<String> REQUIRED_PARAMETERS =
       new ArrayList<>(Arrays.asList(CONTENT_PROPERTY, BUSINESS_ID_PROPERTY));
 
-  private UserService userService = UserServiceFactory.getUserService();
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final AsyncDatastoreService asyncDatastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+  private final SearchService searchService = SearchServiceFactory.getSearchService();
+  private final CommentStreamHub streamHub = CommentStreamHub.getInstance();
+  private final CommentIngestQueue ingestQueue;
+
+  public CommentServlet() {
+    this(CommentIngestQueue.isEnabled() ? CommentIngestQueue.getInstance() : null);
+  }
+
+  /**
+   * @param ingestQueue queue that accepts comments for batched writes, or null to write each
+   *     comment to datastore as it is posted.
+   */
+  public CommentServlet(CommentIngestQueue ingestQueue) {
+    this.ingestQueue = ingestQueue;
+  }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -73,12 +99,36 @@ public class CommentServlet extends HttpServlet {
 
     String parentId = request.getParameter(PARENT_ID_PROPERTY);
 
+    // The parent is read while the comment is built.
+    Future<Entity> parent = null;
     if (!isNullOrEmpty(parentId)) {
       try {
-        Entity parentEntity = datastore.get(KeyFactory.stringToKey(parentId));
-        parentEntity.setProperty(HAS_REPLIES_PROPERTY, true);
-        datastore.put(parentEntity);
-      } catch (EntityNotFoundException e) {
+        parent = getIfExists(asyncDatastore, KeyFactory.stringToKey(parentId));
+      } catch (IllegalArgumentException e) {
+        response.sendError(
+            HttpServletResponse.SC_BAD_REQUEST, "The parentId you specified is invalid");
+        return;
+      }
+    }
+
+    Entity commentEntity = buildCommentEntity(request, currentUser.getUserId());
+
+    // Marking the parent as replied to is written alongside the comment.
+    Future<Key> parentUpdate = null;
+    if (parent != null) {
+      Entity parentEntity = await(parent);
+      if (parentEntity == null && ingestQueue != null) {
+        // The parent may still be waiting in the ingest queue, so the client should try again
+        // once it has been drained rather than be told the comment doesn't exist.
+        response.setHeader(
+            "Retry-After",
+            String.valueOf(TimeUnit.MILLISECONDS.toSeconds(CommentIngestQueue.DRAIN_DELAY_MS) + 1));
+        response.sendError(
+            HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+            "The comment you are replying to is still being saved. Try again in a moment.");
+        return;
+      }
+      if (parentEntity == null) {
         response.sendError(
             HttpServletResponse.SC_BAD_REQUEST,
             "The parentId \'"
@@ -86,20 +136,40 @@ public class CommentServlet extends HttpServlet {
                 + "\' does not exist in the datastore. Cannot post replies to non-existent"
                 + " comments.");
         return;
-      } catch (IllegalArgumentException e) {
-        response.sendError(
-            HttpServletResponse.SC_BAD_REQUEST, "The parentId you specified is invalid");
-        return;
       }
+      parentEntity.setProperty(HAS_REPLIES_PROPERTY, true);
+      parentUpdate = asyncDatastore.put(parentEntity);
     }
 
-    datastore.put(buildCommentEntity(request, currentUser.getUserId()));
+    if (ingestQueue != null) {
+      ingestQueue.enqueue(commentEntity);
+    } else {
+      await(asyncDatastore.put(commentEntity));
+    }
+
+    // Make the comment findable from /comments/search.
+    indexComment(commentEntity, searchService);
+    if (parentUpdate != null) {
+      await(parentUpdate);
+    }
+
+    // Push new top level comments to the business page streams open on this instance.
+    String businessId = request.getParameter(BUSINESS_ID_PROPERTY);
+    if (isNullOrEmpty(parentId) && streamHub.hasSubscribers(businessId)) {
+      streamHub.publish(generateComment(commentEntity));
+    }
 
     response.sendRedirect("/business.html?id=" + request.getParameter(BUSINESS_ID_PROPERTY));
   }
 
   private Entity buildCommentEntity(HttpServletRequest request, String userId) {
-    Entity commentEntity = new Entity(COMMENT_TASK_NAME);
+    Entity commentEntity;
+    if (ingestQueue != null) {
+      // Comments that are written later need their id now, so replies and streams can use it.
+      commentEntity = new Entity(ingestQueue.allocateKey());
+    } else {
+      commentEntity = new Entity(COMMENT_TASK_NAME);
+    }
 
     REQUIRED_PARAMETERS.forEach(
         parameter -> commentEntity.setProperty(parameter, request.getParameter(parameter)));
@@ -0,0 +1,157 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.buildCommentsSinceQuery;
+import static com.google.sps.data.CommentDatastoreUtil.buildTopLevelCommentFilter;
+import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStreamHub;
+import com.google.sps.data.CommentStreamHub.Subscriber;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that streams newly posted top level comments on a business page as Server-Sent Events.
+ * Streams are closed after a while; clients reconnect with the Last-Event-ID header (the timestamp
+ * of the last comment they received) and are caught up from the datastore, which also delivers
+ * comments that were posted through other instances.
+ */
+@WebServlet(value = "/comments/stream", asyncSupported = true)
+public class CommentStreamServlet extends HttpServlet {
+
+  private static final long STREAM_TIMEOUT_MS = 30 * 1000;
+  // Catch-up is read and sent in pages of this size until the stream is current.
+  private static final int CATCH_UP_PAGE_SIZE = 20;
+  private static final int RECONNECT_DELAY_MS = 3000;
+  private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+  private static final String SINCE_PARAMETER = "since";
+
+  private final CommentStreamHub streamHub;
+  private final DatastoreService datastore;
+
+  public CommentStreamServlet() {
+    this(CommentStreamHub.getInstance(), DatastoreServiceFactory.getDatastoreService());
+  }
+
+  public CommentStreamServlet(CommentStreamHub streamHub, DatastoreService datastore) {
+    this.streamHub = streamHub;
+    this.datastore = datastore;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String businessId = request.getParameter(BUSINESS_ID_PROPERTY);
+    if (businessId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Must specify a business ID.");
+      return;
+    }
+
+    // A reconnecting EventSource sends the id of the last event it saw.
+    String since = request.getHeader(LAST_EVENT_ID_HEADER);
+    if (since == null) {
+      since = request.getParameter(SINCE_PARAMETER);
+    }
+
+    Long sinceTimestamp = null;
+    if (since != null) {
+      try {
+        sinceTimestamp = Long.parseLong(since);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid since timestamp.");
+        return;
+      }
+    }
+
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    response.getWriter().print("retry: " + RECONNECT_DELAY_MS + "\n\n");
+    response.getWriter().flush();
+
+    AsyncContext context = request.startAsync();
+    context.setTimeout(STREAM_TIMEOUT_MS);
+
+    // Subscribe before catching up so nothing posted in between is missed.
+    Subscriber subscriber = streamHub.subscribe(businessId, context);
+    context.addListener(new UnsubscribeListener(subscriber));
+
+    if (sinceTimestamp != null) {
+      catchUp(subscriber, businessId, sinceTimestamp);
+    }
+  }
+
+  /** Send every top level comment posted after a timestamp, a page at a time. */
+  private void catchUp(Subscriber subscriber, String businessId, long since) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(CATCH_UP_PAGE_SIZE);
+    QueryResultList<Entity> page;
+    do {
+      page =
+          datastore
+              .prepare(buildCommentsSinceQuery(buildTopLevelCommentFilter(businessId), since))
+              .asQueryResultList(fetchOptions);
+      List<Comment> comments =
+          page.stream().map(entity -> generateComment(entity)).collect(Collectors.toList());
+      if (!comments.isEmpty()) {
+        subscriber.send(comments);
+      }
+      fetchOptions =
+          FetchOptions.Builder.withLimit(CATCH_UP_PAGE_SIZE).startCursor(page.getCursor());
+    } while (page.size() == CATCH_UP_PAGE_SIZE);
+  }
+
+  /** Removes a stream from the hub once the connection is finished for any reason. */
+  private class UnsubscribeListener implements AsyncListener {
+    private final Subscriber subscriber;
+
+    UnsubscribeListener(Subscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      streamHub.unsubscribe(subscriber);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      streamHub.unsubscribe(subscriber);
+      event.getAsyncContext().complete();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      streamHub.unsubscribe(subscriber);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+  }
+}
@@ -19,8 +19,12 @@ import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
 import static com.google.sps.data.CommentDatastoreUtil.PARENT_ID_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.TIMESTAMP_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.buildCommentsSinceQuery;
 import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+import static com.google.sps.data.JsonStreamUtil.writeJsonArray;
+import static com.google.sps.data.PaginationUtil.CURSOR_PARAMETER;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -32,8 +36,10 @@ import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.gson.Gson;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentDelta;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -48,10 +54,13 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet that provides a list of comments */
 @WebServlet("/comments")
 public class CommentsServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
 
   // TODO (bergmoney@) make limit variable when supporting pagination
   private static final int COMMENT_LIMIT = 20;
 
+  private static final String SINCE_PARAMETER = "since";
+
   private final String INVALID_ARGUMENT_MESSAGE =
       "Requests must have exactly one of the following parameters: "
           + USER_ID_PROPERTY
@@ -64,7 +73,7 @@ public class CommentsServlet extends HttpServlet {
       Stream.of(USER_ID_PROPERTY, BUSINESS_ID_PROPERTY, PARENT_ID_PROPERTY)
           .collect(Collectors.toSet());
 
-  DatastoreService datastore;
+  private final DatastoreService datastore;
 
   public CommentsServlet() {
     this(DatastoreServiceFactory.getDatastoreService());
@@ -89,20 +98,72 @@ public class CommentsServlet extends HttpServlet {
     }
     String filterProperty = filterParameters.get(0);
 
-    List<Entity> entities = runCommentsQuery(filterProperty, request.getParameter(filterProperty));
+    if (request.getParameter(SINCE_PARAMETER) != null) {
+      long since;
+      try {
+        since = Long.parseLong(request.getParameter(SINCE_PARAMETER));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid since timestamp.");
+        return;
+      }
+      sendCommentsSince(
+          filterProperty,
+          request.getParameter(filterProperty),
+          since,
+          request.getParameter(CURSOR_PARAMETER),
+          response);
+      return;
+    }
 
-    List<Comment> comments =
-        entities.stream()
-            .map(entity -> generateComment(entity, datastore))
-            .collect(Collectors.toList());
+    Iterable<Entity> entities =
+        runCommentsQuery(filterProperty, request.getParameter(filterProperty));
+    writeJsonArray(response, entities, entity -> generateComment(entity));
+  }
+
+  /**
+   * Respond with only the comments posted after a timestamp, oldest first, so that polling costs
+   * scale with the number of new comments rather than the page size. Nothing new is a 204.
+   *
+   * <p>Clients keep the "since" of their first poll and resume from the returned cursor, so
+   * comments posted in the same millisecond are not skipped when a page ends between them.
+   */
+  private void sendCommentsSince(
+      String filterProperty,
+      String filterValue,
+      long since,
+      String cursor,
+      HttpServletResponse response)
+      throws IOException {
+    QueryResultList<Entity> entities;
+    try {
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(COMMENT_LIMIT);
+      if (cursor != null) {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+      }
+      entities =
+          datastore
+              .prepare(buildCommentsSinceQuery(buildFilter(filterProperty, filterValue), since))
+              .asQueryResultList(fetchOptions);
+    } catch (IllegalArgumentException e) {
+      // Raised when the cursor is malformed, or was not made by this query.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
 
-    String jsonComments = new Gson().toJson(comments);
+    if (entities.isEmpty()) {
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
 
+    List<Comment> comments =
+        entities.stream().map(entity -> generateComment(entity)).collect(Collectors.toList());
     response.setContentType("application/json;");
-    response.getWriter().println(jsonComments);
+    response
+        .getWriter()
+        .println(GSON.toJson(new CommentDelta(comments, entities.getCursor().toWebSafeString())));
   }
 
-  private List<Entity> runCommentsQuery(String filterProperty, String filterValue)
+  private Iterable<Entity> runCommentsQuery(String filterProperty, String filterValue)
       throws IllegalArgumentException {
     SortDirection sortDirection;
     if (filterProperty.equals(PARENT_ID_PROPERTY)) {
@@ -116,7 +177,7 @@ public class CommentsServlet extends HttpServlet {
         new Query(COMMENT_TASK_NAME)
             .setFilter(buildFilter(filterProperty, filterValue))
             .addSort(TIMESTAMP_PROPERTY, sortDirection);
-    return datastore.prepare(query).asList(FetchOptions.Builder.withLimit(COMMENT_LIMIT));
+    return datastore.prepare(query).asIterable(FetchOptions.Builder.withLimit(COMMENT_LIMIT));
   }
 
   /**
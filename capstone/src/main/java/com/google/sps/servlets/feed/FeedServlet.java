@@ -0,0 +1,213 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
+import static com.google.sps.data.CommentDatastoreUtil.TIMESTAMP_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.buildTopLevelCommentFilter;
+import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.JsonStreamUtil.writeJsonArray;
+import static com.google.sps.data.PaginationUtil.CURSOR_PARAMETER;
+import static com.google.sps.data.PaginationUtil.NEXT_CURSOR_HEADER;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns the newest top level comments across every business the current user
+ * follows. Each followed business is queried concurrently for at most a page of comments and the
+ * results are merged by timestamp. The cursor records how far each business has been read, so the
+ * next page resumes every business where it left off. Like the other paginated endpoints, the body
+ * is an array and the cursor is sent in a header.
+ */
+@WebServlet("/feed")
+public class FeedServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+
+  private static final int PAGE_SIZE = 20;
+  private static final int MAX_FOLLOWED_BUSINESSES = 200;
+  // Marks a business whose comments have all been returned.
+  private static final String EXHAUSTED = "";
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore;
+  private final AsyncDatastoreService asyncDatastore;
+
+  public FeedServlet() {
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        DatastoreServiceFactory.getAsyncDatastoreService());
+  }
+
+  public FeedServlet(DatastoreService datastore, AsyncDatastoreService asyncDatastore) {
+    this.datastore = datastore;
+    this.asyncDatastore = asyncDatastore;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    User currentUser = userService.getCurrentUser();
+    if (currentUser == null) {
+      response.sendError(
+          HttpServletResponse.SC_UNAUTHORIZED, "User must be logged in to view their feed.");
+      return;
+    }
+
+    Map<String, String> businessCursors = new HashMap<>();
+    if (request.getParameter(CURSOR_PARAMETER) != null) {
+      try {
+        businessCursors = decodeCursor(request.getParameter(CURSOR_PARAMETER));
+      } catch (IllegalArgumentException | JsonParseException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    // Start every business' query before reading any of them so they run concurrently.
+    PriorityQueue<BusinessStream> streams =
+        new PriorityQueue<>(Comparator.comparingLong(BusinessStream::headTimestamp).reversed());
+    List<BusinessStream> pendingStreams = new ArrayList<>();
+    for (String businessId : getFollowedBusinessIds(currentUser.getUserId())) {
+      String cursor = businessCursors.get(businessId);
+      if (!EXHAUSTED.equals(cursor)) {
+        pendingStreams.add(new BusinessStream(businessId, cursor));
+      }
+    }
+    for (BusinessStream stream : pendingStreams) {
+      if (stream.advance()) {
+        streams.add(stream);
+      } else {
+        businessCursors.put(stream.businessId, EXHAUSTED);
+      }
+    }
+
+    List<Comment> comments = new ArrayList<>();
+    while (comments.size() < PAGE_SIZE && !streams.isEmpty()) {
+      BusinessStream stream = streams.poll();
+      comments.add(generateComment(stream.head));
+      businessCursors.put(stream.businessId, stream.results.getCursor().toWebSafeString());
+      if (stream.advance()) {
+        streams.add(stream);
+      } else {
+        businessCursors.put(stream.businessId, EXHAUSTED);
+      }
+    }
+
+    if (!streams.isEmpty()) {
+      response.setHeader(NEXT_CURSOR_HEADER, encodeCursor(businessCursors));
+    }
+
+    writeJsonArray(response, comments);
+  }
+
+  private List<String> getFollowedBusinessIds(String userId) {
+    Query followQuery =
+        new Query(FOLLOW_TASK_NAME).setFilter(FilterOperator.EQUAL.of(USER_ID_PROPERTY, userId));
+
+    List<String> businessIds = new ArrayList<>();
+    for (Entity follow :
+        datastore
+            .prepare(followQuery)
+            .asIterable(FetchOptions.Builder.withLimit(MAX_FOLLOWED_BUSINESSES))) {
+      businessIds.add((String) follow.getProperty(BUSINESS_ID_PROPERTY));
+    }
+    return businessIds;
+  }
+
+  private static String encodeCursor(Map<String, String> businessCursors) {
+    String json = GSON.toJson(businessCursors);
+    return Base64.getUrlEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Map<String, String> decodeCursor(String cursor) {
+    String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    Map<String, String> businessCursors =
+        GSON.fromJson(json, new TypeToken<Map<String, String>>() {}.getType());
+    if (businessCursors == null) {
+      throw new IllegalArgumentException("Empty cursor.");
+    }
+    for (String businessCursor : businessCursors.values()) {
+      if (!EXHAUSTED.equals(businessCursor)) {
+        // Throws IllegalArgumentException if the business' cursor is malformed.
+        Cursor.fromWebSafeString(businessCursor);
+      }
+    }
+    return businessCursors;
+  }
+
+  /** The comments of one business, newest first, with the next one not yet returned at the head. */
+  private class BusinessStream {
+    private final String businessId;
+    private final QueryResultIterator<Entity> results;
+    private Entity head;
+
+    BusinessStream(String businessId, String cursor) {
+      this.businessId = businessId;
+
+      FetchOptions options = FetchOptions.Builder.withChunkSize(PAGE_SIZE).prefetchSize(PAGE_SIZE);
+      if (cursor != null) {
+        options.startCursor(Cursor.fromWebSafeString(cursor));
+      }
+      Query commentQuery =
+          new Query(COMMENT_TASK_NAME)
+              .setFilter(buildTopLevelCommentFilter(businessId))
+              .addSort(TIMESTAMP_PROPERTY, SortDirection.DESCENDING);
+      this.results = asyncDatastore.prepare(commentQuery).asQueryResultIterator(options);
+    }
+
+    /**
+     * @return false if the business has no more comments.
+     */
+    boolean advance() {
+      head = results.hasNext() ? results.next() : null;
+      return head != null;
+    }
+
+    long headTimestamp() {
+      return (long) head.getProperty(TIMESTAMP_PROPERTY);
+    }
+  }
+}
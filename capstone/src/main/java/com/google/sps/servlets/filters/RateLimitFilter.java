@@ -0,0 +1,105 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.TokenBucketRateLimiter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Limits how quickly a single user or IP address can post comments and follow or unfollow
+ * businesses. Every such write costs datastore writes and index updates, so a client that exceeds
+ * its allowance is answered with 429 and told when to retry.
+ */
+@WebFilter(urlPatterns = {"/comment/*", "/follow"})
+public class RateLimitFilter implements Filter {
+  public static final int SC_TOO_MANY_REQUESTS = 429;
+
+  private static final List<String> LIMITED_METHODS = Arrays.asList("POST", "DELETE");
+
+  // A user may make a burst of 10 writes, then one every 2 seconds.
+  private static final int USER_BURST = 10;
+  private static final double USER_WRITES_PER_SECOND = 0.5;
+
+  // Addresses are shared by everyone behind the same NAT, so they get a larger allowance.
+  private static final int IP_BURST = 30;
+  private static final double IP_WRITES_PER_SECOND = 2;
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final TokenBucketRateLimiter userLimiter;
+  private final TokenBucketRateLimiter ipLimiter;
+
+  public RateLimitFilter() {
+    this(
+        new TokenBucketRateLimiter(
+            "user",
+            USER_BURST,
+            USER_WRITES_PER_SECOND,
+            MemcacheServiceFactory.getMemcacheService()),
+        new TokenBucketRateLimiter(
+            "ip", IP_BURST, IP_WRITES_PER_SECOND, MemcacheServiceFactory.getMemcacheService()));
+  }
+
+  public RateLimitFilter(TokenBucketRateLimiter userLimiter, TokenBucketRateLimiter ipLimiter) {
+    this.userLimiter = userLimiter;
+    this.ipLimiter = ipLimiter;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    if (!LIMITED_METHODS.contains(httpRequest.getMethod())) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    long retryAfterSeconds = ipLimiter.tryAcquire(httpRequest.getRemoteAddr());
+    User currentUser = userService.getCurrentUser();
+    if (retryAfterSeconds == 0 && currentUser != null) {
+      retryAfterSeconds = userLimiter.tryAcquire(currentUser.getUserId());
+    }
+
+    if (retryAfterSeconds > 0) {
+      HttpServletResponse httpResponse = (HttpServletResponse) response;
+      httpResponse.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+      httpResponse.sendError(
+          SC_TOO_MANY_REQUESTS, "You are doing that too often. Please try again later.");
+      return;
+    }
+
+    chain.doFilter(request, response);
+  }
+
+  @Override
+  public void destroy() {}
+}
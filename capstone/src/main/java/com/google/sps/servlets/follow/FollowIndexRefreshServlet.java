@@ -0,0 +1,77 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.FollowGraph;
+import com.google.sps.data.FollowScan;
+import com.google.sps.data.FollowSnapshot;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Scans the follows into a {@link FollowSnapshot} that every instance loads its follow graph from,
+ * and rebuilds the follow graph of the instance that serves it. Run by cron, so user requests never
+ * wait on the scan.
+ */
+@WebServlet(FollowIndexRefreshServlet.REFRESH_URL)
+public class FollowIndexRefreshServlet extends HttpServlet {
+  public static final String REFRESH_URL = "/tasks/follows/refresh-indexes";
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore;
+  private final FollowSnapshot followSnapshot;
+  private final FollowGraph followGraph;
+
+  public FollowIndexRefreshServlet() {
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        new FollowSnapshot(
+            DatastoreServiceFactory.getDatastoreService(), System::currentTimeMillis),
+        FollowGraph.getInstance());
+  }
+
+  public FollowIndexRefreshServlet(
+      DatastoreService datastore, FollowSnapshot followSnapshot, FollowGraph followGraph) {
+    this.datastore = datastore;
+    this.followSnapshot = followSnapshot;
+    this.followGraph = followGraph;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    doPost(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    // The snapshot starts first, so this instance's graph is at least as new and isn't reloaded.
+    FollowScan.rebuild(datastore, followSnapshot, followGraph);
+  }
+}
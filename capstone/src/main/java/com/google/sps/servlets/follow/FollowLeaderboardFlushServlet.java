@@ -0,0 +1,60 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.FollowLeaderboard;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Merges the follower counts of businesses followed or unfollowed since the last run into the
+ * follow leaderboard. Run by cron, so that no user request waits on the merge.
+ */
+@WebServlet(FollowLeaderboard.FLUSH_URL)
+public class FollowLeaderboardFlushServlet extends HttpServlet {
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final FollowLeaderboard leaderboard;
+
+  public FollowLeaderboardFlushServlet() {
+    this(FollowLeaderboard.getInstance());
+  }
+
+  public FollowLeaderboardFlushServlet(FollowLeaderboard leaderboard) {
+    this.leaderboard = leaderboard;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    doPost(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    leaderboard.flush();
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.FollowDatastoreUtil.MIGRATION_COMPLETE_KEY;
+import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.buildFollowEntity;
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.FollowMigrationStats;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Rewrites follows saved with automatic ids under their user and business key, merging duplicates,
+ * and deletes the originals. Each page's writes run while the next page is fetched. A run that is
+ * not finished within its time budget continues from its cursor in a new task. Until a run
+ * completes, follow lookups by key also query for follows that still have automatic ids.
+ */
+@WebServlet(FollowMigrationServlet.MIGRATION_URL)
+public class FollowMigrationServlet extends HttpServlet {
+  public static final String MIGRATION_URL = "/tasks/follows/migrate";
+
+  private static final String CURSOR_PARAMETER = "cursor";
+  private static final Gson GSON = new Gson();
+  private static final int PAGE_SIZE = 500;
+  private static final long TIME_BUDGET_MS = 60 * 1000;
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final AsyncDatastoreService datastore;
+  private final Queue taskQueue;
+
+  public FollowMigrationServlet() {
+    this(DatastoreServiceFactory.getAsyncDatastoreService(), QueueFactory.getDefaultQueue());
+  }
+
+  public FollowMigrationServlet(AsyncDatastoreService datastore, Queue taskQueue) {
+    this.datastore = datastore;
+    this.taskQueue = taskQueue;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    doPost(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    Cursor cursor = null;
+    if (request.getParameter(CURSOR_PARAMETER) != null) {
+      try {
+        cursor = Cursor.fromWebSafeString(request.getParameter(CURSOR_PARAMETER));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MS;
+    long legacyFollows = 0;
+    long keyedFollowsWritten = 0;
+    boolean complete = false;
+    PendingPage previousPage = null;
+    List<Future<Void>> pendingDeletes = new ArrayList<>();
+
+    while (!complete && System.currentTimeMillis() < deadline) {
+      FetchOptions options = FetchOptions.Builder.withLimit(PAGE_SIZE);
+      if (cursor != null) {
+        options.startCursor(cursor);
+      }
+      QueryResultList<Entity> page =
+          datastore.prepare(new Query(FOLLOW_TASK_NAME)).asQueryResultList(options);
+      cursor = page.getCursor();
+      complete = page.size() < PAGE_SIZE;
+
+      // Entities with the same user and business collapse into one keyed follow.
+      Map<Key, Entity> keyedFollows = new HashMap<>();
+      List<Key> legacyKeys = new ArrayList<>();
+      for (Entity follow : page) {
+        if (follow.getKey().getName() != null) {
+          continue;
+        }
+        legacyKeys.add(follow.getKey());
+        Entity keyedFollow =
+            buildFollowEntity(
+                (String) follow.getProperty(USER_ID_PROPERTY),
+                (String) follow.getProperty(BUSINESS_ID_PROPERTY));
+        keyedFollows.put(keyedFollow.getKey(), keyedFollow);
+      }
+
+      if (previousPage != null) {
+        pendingDeletes.add(previousPage.deleteOnceWritten());
+        previousPage = null;
+      }
+      if (!legacyKeys.isEmpty()) {
+        previousPage = new PendingPage(datastore.put(keyedFollows.values()), legacyKeys);
+        legacyFollows += legacyKeys.size();
+        keyedFollowsWritten += keyedFollows.size();
+      }
+    }
+
+    if (previousPage != null) {
+      pendingDeletes.add(previousPage.deleteOnceWritten());
+    }
+    for (Future<Void> pendingDelete : pendingDeletes) {
+      waitFor(pendingDelete);
+    }
+
+    if (complete) {
+      // Lookups by key stop falling back to the legacy query once this is written.
+      waitFor(datastore.put(new Entity(MIGRATION_COMPLETE_KEY)));
+    } else {
+      taskQueue.add(
+          TaskOptions.Builder.withUrl(MIGRATION_URL)
+              .param(CURSOR_PARAMETER, cursor.toWebSafeString()));
+    }
+
+    response.setContentType("application/json;");
+    response
+        .getWriter()
+        .println(
+            GSON.toJson(new FollowMigrationStats(legacyFollows, keyedFollowsWritten, complete)));
+  }
+
+  private static <T> T waitFor(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      // The job is safe to rerun, so let the task fail and be retried.
+      throw new DatastoreFailureException("Follow migration write failed.", e);
+    }
+  }
+
+  /** The keyed follows of a page being written. Originals are only deleted once that succeeds. */
+  private class PendingPage {
+    private final Future<List<Key>> write;
+    private final List<Key> legacyKeys;
+
+    PendingPage(Future<List<Key>> write, List<Key> legacyKeys) {
+      this.write = write;
+      this.legacyKeys = legacyKeys;
+    }
+
+    Future<Void> deleteOnceWritten() {
+      waitFor(write);
+      return datastore.delete(legacyKeys);
+    }
+  }
+}
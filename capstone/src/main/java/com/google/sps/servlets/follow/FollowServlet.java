@@ -14,33 +14,37 @@
 
 package com.google.sps.servlets;
 
-import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static com.google.sps.data.AsyncDatastoreUtil.await;
+import static com.google.sps.data.AsyncDatastoreUtil.exists;
 import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
-import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
-import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
 import static com.google.sps.data.FollowDatastoreUtil.buildFollowEntity;
-import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
-import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
-import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.FollowDatastoreUtil.createFollowKey;
+import static com.google.sps.data.FollowDatastoreUtil.getLegacyFollowKeys;
+import static com.google.sps.data.FollowDatastoreUtil.getLegacyFollowedBusinessIds;
 
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.sps.data.FollowGraph;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileRepository;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -49,10 +53,21 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet for adding and removing 'follows', that is instances of a User following a business. */
 @WebServlet("/follow")
 public class FollowServlet extends HttpServlet {
-  private final int ENTITY_COUNTING_LIMIT = 1;
+  private static final Gson GSON = new Gson();
+  private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+  private static final int MAX_BATCH_BUSINESS_IDS = 100;
+  private static final String BUSINESS_IDS_PARAMETER = "businessIds";
+  private static final String CONTENTION_MESSAGE =
+      "This business is receiving too many follow requests. Please try again.";
 
-  private UserService userService = UserServiceFactory.getUserService();
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final AsyncDatastoreService asyncDatastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+  private final FollowerCounter followerCounter = FollowerCounter.getInstance();
+  private final FollowGraph followGraph = FollowGraph.getInstance();
+  private final FollowLeaderboard leaderboard = FollowLeaderboard.getInstance();
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -73,56 +88,117 @@ public class FollowServlet extends HttpServlet {
           "Please specify the ID of the business you would like to follow.");
       return;
     }
+
+    // Look for an existing follow while the business is checked.
+    String userId = currentUser.getUserId();
+    Future<Boolean> followExists = exists(asyncDatastore, createFollowKey(userId, businessId));
+
     if (!doesBusinessExist(businessId)) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "Business not found.");
       return;
     }
-
-    String userId = currentUser.getUserId();
-    if (followExistsInDatastore(userId, businessId)) {
+    if (userId.equals(businessId)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "You cannot follow yourself.");
+      return;
+    }
+    if (await(followExists)) {
       response.sendError(
           HttpServletResponse.SC_BAD_REQUEST, "Cannot follow the same business twice.");
       return;
     }
-    if (userId.equals(businessId)) {
-      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "You cannot follow yourself.");
+
+    // The transaction checks again, in case the business was followed in the meantime.
+    boolean followed;
+    try {
+      followed = setFollowing(userId, businessId, true);
+    } catch (ConcurrentModificationException e) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, CONTENTION_MESSAGE);
+      return;
+    }
+    if (!followed) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Cannot follow the same business twice.");
       return;
     }
-
-    datastore.put(buildFollowEntity(userId, businessId));
 
     response.sendRedirect("/business.html?id=" + businessId);
   }
 
   private boolean doesBusinessExist(String businessId) {
-    Key key = KeyFactory.createKey(PROFILE_TASK_NAME, businessId);
-
     try {
-      Entity businessEntity = datastore.get(key);
-      return businessEntity.getProperty(IS_BUSINESS_PROPERTY).equals(YES);
+      profileRepository.getBusiness(businessId);
+      return true;
     } catch (EntityNotFoundException e) {
       return false;
     }
   }
 
-  private boolean followExistsInDatastore(String userId, String businessId) {
-    int numberOfMatches = prepareFollowQuery(userId, businessId).countEntities(withDefaults());
+  /**
+   * Follow or unfollow a business in a transaction that also updates its follower count and records
+   * the change for the leaderboard. Follows are keyed by user and business, so concurrent requests
+   * can't create duplicates. Follows not yet migrated from automatic ids count as following, and
+   * are deleted along with the keyed follow on unfollow.
+   *
+   * @return false if the user was already in the requested state.
+   * @throws ConcurrentModificationException if every attempt collided with other writes.
+   */
+  private boolean setFollowing(String userId, String businessId, boolean following) {
+    long delta = following ? 1 : -1;
+    List<Key> legacyKeys = getLegacyFollowKeys(asyncDatastore, userId, businessId);
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction(FollowerCounter.transactionOptions());
+      try {
+        boolean followed =
+            followExistsInDatastore(transaction, userId, businessId) || !legacyKeys.isEmpty();
+        if (followed == following) {
+          return false;
+        }
+        if (following) {
+          datastore.put(transaction, buildFollowEntity(userId, businessId));
+        } else {
+          datastore.delete(transaction, createFollowKey(userId, businessId));
+          datastore.delete(transaction, legacyKeys);
+        }
+        followerCounter.increment(transaction, businessId, delta);
+        leaderboard.recordChange(transaction, businessId);
+        transaction.commit();
+        followerCounter.recordCommitted(businessId, delta);
+        if (following) {
+          followGraph.addFollow(userId, businessId);
+        } else {
+          followGraph.removeFollow(userId, businessId);
+        }
+        return true;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
 
-    return numberOfMatches > 0;
+  /** Check whether a follow exists, including one with an automatic id not yet migrated. */
+  private boolean followExists(String userId, String businessId) {
+    try {
+      datastore.get(createFollowKey(userId, businessId));
+      return true;
+    } catch (EntityNotFoundException e) {
+      return !getLegacyFollowKeys(asyncDatastore, userId, businessId).isEmpty();
+    }
   }
 
-  private PreparedQuery prepareFollowQuery(String userId, String businessId) {
-    Query followQuery =
-        new Query(FOLLOW_TASK_NAME)
-            .setFilter(
-                new CompositeFilter(
-                    CompositeFilterOperator.AND,
-                    Arrays.asList(
-                        new FilterPredicate(USER_ID_PROPERTY, FilterOperator.EQUAL, userId),
-                        new FilterPredicate(
-                            BUSINESS_ID_PROPERTY, FilterOperator.EQUAL, businessId))));
-
-    return datastore.prepare(followQuery);
+  private boolean followExistsInDatastore(
+      Transaction transaction, String userId, String businessId) {
+    try {
+      datastore.get(transaction, createFollowKey(userId, businessId));
+      return true;
+    } catch (EntityNotFoundException e) {
+      return false;
+    }
   }
 
   @Override
@@ -144,17 +220,20 @@ public class FollowServlet extends HttpServlet {
     }
 
     String userId = currentUser.getUserId();
-    if (!followExistsInDatastore(userId, businessId)) {
+    boolean unfollowed;
+    try {
+      unfollowed = setFollowing(userId, businessId, false);
+    } catch (ConcurrentModificationException e) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, CONTENTION_MESSAGE);
+      return;
+    }
+    if (!unfollowed) {
       response.sendError(
           HttpServletResponse.SC_NOT_FOUND,
           "In order to unfollow a business you must be following it.");
       return;
     }
 
-    Entity followToDelete = prepareFollowQuery(userId, businessId).asList(withDefaults()).get(0);
-
-    datastore.delete(followToDelete.getKey());
-
     response.sendRedirect("/business.html?id=" + businessId);
   }
 
@@ -167,6 +246,12 @@ public class FollowServlet extends HttpServlet {
       return;
     }
 
+    String businessIds = request.getParameter(BUSINESS_IDS_PARAMETER);
+    if (businessIds != null) {
+      sendFollowStatuses(currentUser.getUserId(), businessIds, response);
+      return;
+    }
+
     String businessId = request.getParameter(BUSINESS_ID_PROPERTY);
     if (businessId == null) {
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Must specify a business ID.");
@@ -174,8 +259,42 @@ public class FollowServlet extends HttpServlet {
     }
 
     response.setContentType("application/json;");
-    response
-        .getWriter()
-        .println(new Gson().toJson(followExistsInDatastore(currentUser.getUserId(), businessId)));
+    response.getWriter().println(GSON.toJson(followExists(currentUser.getUserId(), businessId)));
+  }
+
+  /**
+   * Respond with whether the user follows each of a comma separated list of businesses, as a map
+   * from business ID to boolean, read with a single batch lookup.
+   */
+  private void sendFollowStatuses(String userId, String businessIds, HttpServletResponse response)
+      throws IOException {
+    Map<String, Key> followKeys = new LinkedHashMap<>();
+    for (String businessId : businessIds.split(",")) {
+      if (!businessId.trim().isEmpty()) {
+        followKeys.put(businessId.trim(), createFollowKey(userId, businessId.trim()));
+      }
+    }
+    if (followKeys.size() > MAX_BATCH_BUSINESS_IDS) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "Cannot request more than " + MAX_BATCH_BUSINESS_IDS + " businesses at once.");
+      return;
+    }
+
+    Map<Key, Entity> follows = datastore.get(followKeys.values());
+    Set<String> legacyBusinessIds =
+        follows.size() < followKeys.size()
+            ? getLegacyFollowedBusinessIds(asyncDatastore, userId)
+            : Collections.emptySet();
+
+    Map<String, Boolean> followStatuses = new LinkedHashMap<>();
+    followKeys.forEach(
+        (businessId, followKey) ->
+            followStatuses.put(
+                businessId,
+                follows.containsKey(followKey) || legacyBusinessIds.contains(businessId)));
+
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(followStatuses));
   }
 }
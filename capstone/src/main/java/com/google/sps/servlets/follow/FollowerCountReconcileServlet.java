@@ -0,0 +1,205 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.TaskRequestUtil.isTaskRequest;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowerCounter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Recounts each business' follows, corrects its sharded follower count and records it for the next
+ * follow leaderboard flush. A business whose follows change while they are counted is skipped until
+ * the next run. Run daily by cron; a run that is not finished within its time budget continues from
+ * its cursor in a new task.
+ *
+ * <p>Follows are counted with an eventually consistent query, which can miss follows committed just
+ * before the count. So a count that disagrees with the stored one is only applied if a recount a
+ * little later, in a separate task, gets the same result and the stored count hasn't changed.
+ */
+@WebServlet(FollowerCountReconcileServlet.RECONCILE_URL)
+public class FollowerCountReconcileServlet extends HttpServlet {
+  public static final String RECONCILE_URL = "/tasks/follows/reconcile-counts";
+
+  private static final String CURSOR_PARAMETER = "cursor";
+  // Each value is a business with a disagreeing count, as "businessId:storedCount:followCount".
+  private static final String MISMATCH_PARAMETER = "mismatch";
+  private static final String MISMATCH_SEPARATOR = ":";
+  private static final long RECOUNT_DELAY_MS = 60 * 1000;
+  private static final int PAGE_SIZE = 100;
+  private static final long TIME_BUDGET_MS = 60 * 1000;
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore;
+  private final FollowerCounter followerCounter;
+  private final FollowLeaderboard leaderboard;
+  private final Queue taskQueue;
+
+  public FollowerCountReconcileServlet() {
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        FollowerCounter.getInstance(),
+        FollowLeaderboard.getInstance(),
+        QueueFactory.getDefaultQueue());
+  }
+
+  public FollowerCountReconcileServlet(
+      DatastoreService datastore,
+      FollowerCounter followerCounter,
+      FollowLeaderboard leaderboard,
+      Queue taskQueue) {
+    this.datastore = datastore;
+    this.followerCounter = followerCounter;
+    this.leaderboard = leaderboard;
+    this.taskQueue = taskQueue;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    doPost(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isTaskRequest(request, userService)) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    String[] mismatches = request.getParameterValues(MISMATCH_PARAMETER);
+    if (mismatches != null) {
+      try {
+        recount(mismatches);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid mismatch.");
+      }
+      return;
+    }
+
+    Cursor cursor = null;
+    if (request.getParameter(CURSOR_PARAMETER) != null) {
+      try {
+        cursor = Cursor.fromWebSafeString(request.getParameter(CURSOR_PARAMETER));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    Query businessQuery =
+        new Query(PROFILE_TASK_NAME)
+            .setFilter(FilterOperator.EQUAL.of(IS_BUSINESS_PROPERTY, YES))
+            .setKeysOnly();
+
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MS;
+    boolean complete = false;
+    while (!complete && System.currentTimeMillis() < deadline) {
+      FetchOptions options = FetchOptions.Builder.withLimit(PAGE_SIZE);
+      if (cursor != null) {
+        options.startCursor(cursor);
+      }
+      QueryResultList<Entity> businesses =
+          datastore.prepare(businessQuery).asQueryResultList(options);
+      cursor = businesses.getCursor();
+      complete = businesses.size() < PAGE_SIZE;
+
+      // At most PAGE_SIZE businesses, which fits in a single add to the leaderboard's queue.
+      List<String> reconciledIds = new ArrayList<>();
+      TaskOptions recount = null;
+      for (Entity business : businesses) {
+        String businessId = business.getKey().getName();
+        long storedCount = followerCounter.getStoredCount(businessId);
+        int followCount = countFollows(businessId);
+        if (storedCount != followCount) {
+          if (recount == null) {
+            recount = TaskOptions.Builder.withUrl(RECONCILE_URL).countdownMillis(RECOUNT_DELAY_MS);
+          }
+          recount.param(
+              MISMATCH_PARAMETER,
+              businessId + MISMATCH_SEPARATOR + storedCount + MISMATCH_SEPARATOR + followCount);
+        } else if (followerCounter.reconcile(businessId, storedCount, followCount)) {
+          reconciledIds.add(businessId);
+        }
+      }
+      leaderboard.recordChanges(reconciledIds);
+      if (recount != null) {
+        taskQueue.add(recount);
+      }
+    }
+
+    if (!complete) {
+      taskQueue.add(
+          TaskOptions.Builder.withUrl(RECONCILE_URL)
+              .param(CURSOR_PARAMETER, cursor.toWebSafeString()));
+    }
+  }
+
+  /**
+   * Count the follows of businesses whose count disagreed in an earlier run, and correct those that
+   * still disagree the same way.
+   */
+  private void recount(String[] mismatches) {
+    List<String> reconciledIds = new ArrayList<>();
+    for (String mismatch : mismatches) {
+      String[] parts = mismatch.split(MISMATCH_SEPARATOR);
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Invalid mismatch " + mismatch);
+      }
+      String businessId = parts[0];
+      long storedCount = Long.parseLong(parts[1]);
+      int followCount = Integer.parseInt(parts[2]);
+      if (countFollows(businessId) == followCount
+          && followerCounter.reconcile(businessId, storedCount, followCount)) {
+        reconciledIds.add(businessId);
+      }
+    }
+    leaderboard.recordChanges(reconciledIds);
+  }
+
+  private int countFollows(String businessId) {
+    Query followQuery =
+        new Query(FOLLOW_TASK_NAME)
+            .setFilter(FilterOperator.EQUAL.of(BUSINESS_ID_PROPERTY, businessId))
+            .setKeysOnly();
+    return datastore.prepare(followQuery).countEntities(withDefaults());
+  }
+}
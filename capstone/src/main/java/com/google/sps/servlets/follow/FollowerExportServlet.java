@@ -0,0 +1,153 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CsvUtil.toCsvField;
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.Follow;
+import com.google.sps.data.ProfileRepository;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that lets a business owner download everyone following their business, as newline
+ * delimited JSON or CSV. Follows are read a page at a time and each page is written and flushed
+ * before the next is fetched, so memory use does not grow with the number of followers.
+ */
+@WebServlet("/follows/export")
+public class FollowerExportServlet extends HttpServlet {
+  public static final int PAGE_SIZE = 500;
+
+  private static final String FORMAT_PARAMETER = "format";
+  private static final Gson GSON = new Gson();
+  private static final String NDJSON_FORMAT = "ndjson";
+  private static final String CSV_FORMAT = "csv";
+  private static final String CSV_HEADER = "userId,name,location";
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    User currentUser = userService.getCurrentUser();
+    if (currentUser == null) {
+      response.sendError(
+          HttpServletResponse.SC_UNAUTHORIZED, "User must be logged in to export followers.");
+      return;
+    }
+
+    // Owners export their own business' followers; admins may export any business'.
+    String businessId = request.getParameter(BUSINESS_ID_PROPERTY);
+    if (businessId == null) {
+      businessId = currentUser.getUserId();
+    } else if (!businessId.equals(currentUser.getUserId()) && !userService.isUserAdmin()) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "You don't have permission to perform this action!");
+      return;
+    }
+
+    String format = request.getParameter(FORMAT_PARAMETER);
+    if (format == null) {
+      format = NDJSON_FORMAT;
+    }
+    if (format.equals(NDJSON_FORMAT)) {
+      response.setContentType("application/x-ndjson;");
+    } else if (format.equals(CSV_FORMAT)) {
+      response.setContentType("text/csv;");
+      response.setHeader("Content-Disposition", "attachment; filename=\"followers.csv\"");
+    } else {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "The format must be either 'ndjson' or 'csv'.");
+      return;
+    }
+
+    PrintWriter writer = response.getWriter();
+    if (format.equals(CSV_FORMAT)) {
+      writer.println(CSV_HEADER);
+    }
+
+    Query query =
+        new Query(FOLLOW_TASK_NAME)
+            .setFilter(FilterOperator.EQUAL.of(BUSINESS_ID_PROPERTY, businessId));
+    Cursor cursor = null;
+    boolean complete = false;
+    while (!complete) {
+      FetchOptions options = FetchOptions.Builder.withLimit(PAGE_SIZE);
+      if (cursor != null) {
+        options.startCursor(cursor);
+      }
+      QueryResultList<Entity> follows = datastore.prepare(query).asQueryResultList(options);
+      cursor = follows.getCursor();
+      complete = follows.size() < PAGE_SIZE;
+
+      writePage(follows, businessId, format, writer);
+      // Send the page to the client now rather than buffering the whole export.
+      writer.flush();
+      if (writer.checkError()) {
+        // The client went away, so there is no one to send the rest to.
+        return;
+      }
+    }
+  }
+
+  /** Write one page of follows along with their followers' profiles, fetched in one batch. */
+  private void writePage(
+      List<Entity> followEntities, String businessId, String format, PrintWriter writer) {
+    List<String> userIds = new ArrayList<>();
+    for (Entity followEntity : followEntities) {
+      userIds.add((String) followEntity.getProperty(USER_ID_PROPERTY));
+    }
+    Map<String, Entity> profiles = profileRepository.getProfiles(userIds);
+
+    for (String userId : userIds) {
+      Entity profile = profiles.get(userId);
+      String name = profile == null ? null : (String) profile.getProperty(NAME_PROPERTY);
+      String location = profile == null ? null : (String) profile.getProperty(LOCATION_PROPERTY);
+
+      if (format.equals(CSV_FORMAT)) {
+        writer.println(toCsvField(userId) + "," + toCsvField(name) + "," + toCsvField(location));
+      } else {
+        Follow follow = new Follow(userId, businessId);
+        follow.setProfile(name, location);
+        writer.println(GSON.toJson(follow));
+      }
+    }
+  }
+}
@@ -14,24 +14,32 @@
 
 package com.google.sps.servlets;
 
-import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
 import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
 import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
 import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.JsonStreamUtil.writeJsonArray;
+import static com.google.sps.data.PaginationUtil.CURSOR_PARAMETER;
+import static com.google.sps.data.PaginationUtil.NEXT_CURSOR_HEADER;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.sps.data.Follow;
+import com.google.sps.data.ProfileRepository;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -41,11 +49,20 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet for listing 'follows', that is instances of a User following a business. */
 @WebServlet("/follows")
 public class FollowsServlet extends HttpServlet {
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final String EXPAND_PARAMETER = "expand";
+  private static final String EXPAND_PROFILE = "profile";
+  private static final int DEFAULT_LIMIT = 100;
+  private static final int MAX_LIMIT = 500;
+  private static final String INVALID_LIMIT_MESSAGE =
+      "The limit must be a number between 1 and " + MAX_LIMIT + ".";
+
   private final String[] POSSIBLE_FILTER_PARAMETERS =
       new String[] {BUSINESS_ID_PROPERTY, USER_ID_PROPERTY};
 
-  private UserService userService = UserServiceFactory.getUserService();
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -61,6 +78,27 @@ public class FollowsServlet extends HttpServlet {
       return;
     }
 
+    String expand = request.getParameter(EXPAND_PARAMETER);
+    if (expand != null && !expand.equals(EXPAND_PROFILE)) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "The only supported expansion is 'profile'.");
+      return;
+    }
+
+    int limit = DEFAULT_LIMIT;
+    if (request.getParameter(LIMIT_PARAMETER) != null) {
+      try {
+        limit = Integer.parseInt(request.getParameter(LIMIT_PARAMETER));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+      if (limit < 1 || limit > MAX_LIMIT) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+    }
+
     String filterParameter = requestFilters.get(0);
     Query query =
         new Query(FOLLOW_TASK_NAME)
@@ -68,14 +106,56 @@ public class FollowsServlet extends HttpServlet {
                 new FilterPredicate(
                     filterParameter, FilterOperator.EQUAL, request.getParameter(filterParameter)));
 
-    List<Entity> followEntities = datastore.prepare(query).asList(withDefaults());
+    QueryResultList<Entity> followEntities;
+    try {
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+      if (request.getParameter(CURSOR_PARAMETER) != null) {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(request.getParameter(CURSOR_PARAMETER)));
+      }
+      followEntities = datastore.prepare(query).asQueryResultList(fetchOptions);
+    } catch (IllegalArgumentException e) {
+      // Raised when the cursor is malformed, or was not made by this query.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
     List<Follow> follows =
         followEntities.stream()
             .map(followEntity -> generateFollow(followEntity))
             .collect(Collectors.toList());
 
-    response.setContentType("application/json;");
-    response.getWriter().println(new Gson().toJson(follows));
+    if (EXPAND_PROFILE.equals(expand)) {
+      // Listing a user's follows shows the businesses, and listing a business' shows the users.
+      String profileProperty =
+          filterParameter.equals(USER_ID_PROPERTY) ? BUSINESS_ID_PROPERTY : USER_ID_PROPERTY;
+      addProfiles(followEntities, follows, profileProperty);
+    }
+
+    // A full page may be followed by more. The body stays a plain array for existing clients.
+    if (followEntities.size() == limit) {
+      response.setHeader(NEXT_CURSOR_HEADER, followEntities.getCursor().toWebSafeString());
+    }
+
+    writeJsonArray(response, follows);
+  }
+
+  /** Inline the name and location of the profile each follow refers to, from one batch get. */
+  private void addProfiles(List<Entity> followEntities, List<Follow> follows, String idProperty) {
+    List<String> profileIds =
+        followEntities.stream()
+            .map(followEntity -> (String) followEntity.getProperty(idProperty))
+            .collect(Collectors.toList());
+    Map<String, Entity> profiles = profileRepository.getProfiles(profileIds);
+
+    for (int i = 0; i < follows.size(); i++) {
+      Entity profile = profiles.get(profileIds.get(i));
+      if (profile != null) {
+        follows
+            .get(i)
+            .setProfile(
+                (String) profile.getProperty(NAME_PROPERTY),
+                (String) profile.getProperty(LOCATION_PROPERTY));
+      }
+    }
   }
 
   private Follow generateFollow(Entity followEntity) {
@@ -0,0 +1,74 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+
+import com.google.gson.Gson;
+import com.google.sps.data.FollowGraph;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that recommends the businesses most often followed by the followers of a business. */
+@WebServlet("/recommendations")
+public class RecommendationsServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final int DEFAULT_LIMIT = 5;
+  private static final int MAX_LIMIT = 20;
+  private static final String INVALID_LIMIT_MESSAGE =
+      "The limit must be a number between 1 and " + MAX_LIMIT + ".";
+
+  private final FollowGraph followGraph;
+
+  public RecommendationsServlet() {
+    this(FollowGraph.getInstance());
+  }
+
+  public RecommendationsServlet(FollowGraph followGraph) {
+    this.followGraph = followGraph;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String businessId = request.getParameter(BUSINESS_ID_PROPERTY);
+    if (businessId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Must specify a business ID.");
+      return;
+    }
+
+    int limit = DEFAULT_LIMIT;
+    if (request.getParameter(LIMIT_PARAMETER) != null) {
+      try {
+        limit = Integer.parseInt(request.getParameter(LIMIT_PARAMETER));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+      if (limit < 1 || limit > MAX_LIMIT) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, INVALID_LIMIT_MESSAGE);
+        return;
+      }
+    }
+
+    response.setContentType("application/json;");
+    response
+        .getWriter()
+        .println(GSON.toJson(followGraph.getCoFollowedBusinesses(businessId, limit)));
+  }
+}
@@ -0,0 +1,262 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.AsyncDatastoreUtil.await;
+import static com.google.sps.data.AsyncDatastoreUtil.getIfExists;
+import static com.google.sps.data.CommentDatastoreUtil.buildNewestCommentsQuery;
+import static com.google.sps.data.CommentDatastoreUtil.buildTopLevelCommentFilter;
+import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+import static com.google.sps.data.ConditionalGetUtil.checkNotModified;
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.createFollowKey;
+import static com.google.sps.data.FollowDatastoreUtil.getLegacyFollowKeys;
+import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.generateBusinessProfile;
+import static com.google.sps.data.ProfileDatastoreUtil.getLastModifiedTime;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.sps.data.BusinessPage;
+import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.Comment;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfilePage;
+import com.google.sps.data.ProfileRepository;
+import com.google.sps.data.User;
+import com.google.sps.data.UserProfile;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that gathers everything business.html or profile.html shows into one response, from
+ * /page/business/{id} or /page/profile/{id}. The datastore queries a page needs are started
+ * together and run while its profiles are read, mostly from cache, so a page costs one round trip
+ * and about as long as its slowest read. A profile page holds the first FOLLOW_LIMIT follows and a
+ * cursor that continues them through /follows.
+ */
+@WebServlet(urlPatterns = "/page/*", loadOnStartup = 1)
+public class PageServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+  private static final String BUSINESS_PAGE = "business";
+  private static final String PROFILE_PAGE = "profile";
+  private static final int COMMENT_LIMIT = 20;
+  public static final int FOLLOW_LIMIT = 100;
+  private static final String BUSINESS_NOT_FOUND_MESSAGE =
+      "The business you were looking was not found in our records!";
+  private static final String PROFILE_NOT_FOUND_MESSAGE =
+      "The profile you were looking for was not found in our records!";
+
+  private final UserService userService = UserServiceFactory.getUserService();
+  private final AsyncDatastoreService asyncDatastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
+  private final FollowerCounter followerCounter = FollowerCounter.getInstance();
+
+  private final String LOGIN_URL = userService.createLoginURL("/check_new_user");
+  private final String LOGOUT_URL = userService.createLogoutURL("/index.html");
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // request.getPathInfo() returns "/{page}/{id}".
+    String[] pathSegments = Objects.toString(request.getPathInfo(), "").split("/");
+    if (pathSegments.length != 3 || pathSegments[2].isEmpty()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no such page.");
+      return;
+    }
+
+    String viewerId =
+        userService.getCurrentUser() == null ? null : userService.getCurrentUser().getUserId();
+    if (pathSegments[1].equals(BUSINESS_PAGE)) {
+      sendBusinessPage(pathSegments[2], viewerId, request, response);
+    } else if (pathSegments[1].equals(PROFILE_PAGE)) {
+      sendProfilePage(pathSegments[2], viewerId, response);
+    } else {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no such page.");
+    }
+  }
+
+  /**
+   * Send a business page, or 304 Not Modified if the client already holds it. The page mixes the
+   * profile, its follower count, the viewer and the newest comments, so its entity tag is a digest
+   * of the whole response rather than a version number.
+   */
+  private void sendBusinessPage(
+      String businessId, String viewerId, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    List<Entity> commentEntities =
+        asyncDatastore
+            .prepare(buildNewestCommentsQuery(buildTopLevelCommentFilter(businessId)))
+            .asList(FetchOptions.Builder.withLimit(COMMENT_LIMIT));
+    Future<Entity> followEntity = null;
+    if (viewerId != null) {
+      followEntity = getIfExists(asyncDatastore, createFollowKey(viewerId, businessId));
+    }
+
+    Map<String, Entity> profiles = profileRepository.getProfiles(idsOf(businessId, viewerId));
+    Entity businessEntity = profiles.get(businessId);
+    if (businessEntity == null || !ProfileRepository.isBusiness(businessEntity)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, BUSINESS_NOT_FOUND_MESSAGE);
+      return;
+    }
+    BusinessProfile business = generateBusinessProfile(businessEntity, businessId.equals(viewerId));
+    business.setFollowerCount(followerCounter.getCount(businessId));
+
+    boolean isFollowing = false;
+    if (followEntity != null) {
+      isFollowing =
+          await(followEntity) != null
+              || !getLegacyFollowKeys(asyncDatastore, viewerId, businessId).isEmpty();
+    }
+
+    BusinessPage page =
+        new BusinessPage(
+            buildUser(viewerId, profiles),
+            business,
+            isFollowing,
+            generateComments(commentEntities));
+    String json = GSON.toJson(page);
+    String etag = "\"" + Hashing.md5().hashString(json, StandardCharsets.UTF_8) + "\"";
+    if (checkNotModified(request, response, etag, getLastModifiedTime(businessEntity))) {
+      return;
+    }
+    response.setContentType("application/json;");
+    response.getWriter().println(json);
+  }
+
+  private void sendProfilePage(String profileId, String viewerId, HttpServletResponse response)
+      throws IOException {
+    // The same query as /follows?userId={id}, so its cursor continues there.
+    QueryResultList<Entity> followEntities =
+        asyncDatastore
+            .prepare(
+                new Query(FOLLOW_TASK_NAME)
+                    .setFilter(FilterOperator.EQUAL.of(USER_ID_PROPERTY, profileId)))
+            .asQueryResultList(FetchOptions.Builder.withLimit(FOLLOW_LIMIT));
+    List<Entity> commentEntities =
+        asyncDatastore
+            .prepare(buildNewestCommentsQuery(FilterOperator.EQUAL.of(USER_ID_PROPERTY, profileId)))
+            .asList(FetchOptions.Builder.withLimit(COMMENT_LIMIT));
+
+    Map<String, Entity> profiles = profileRepository.getProfiles(idsOf(profileId, viewerId));
+    Entity profileEntity = profiles.get(profileId);
+    if (profileEntity == null || ProfileRepository.isBusiness(profileEntity)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, PROFILE_NOT_FOUND_MESSAGE);
+      return;
+    }
+    UserProfile profile =
+        new UserProfile(
+            profileId,
+            Objects.toString(profileEntity.getProperty(NAME_PROPERTY), "Anonymous"),
+            Objects.toString(profileEntity.getProperty(LOCATION_PROPERTY), ""),
+            Objects.toString(profileEntity.getProperty(BIO_PROPERTY), ""),
+            profileId.equals(viewerId));
+
+    // The followed businesses and those commented on are read in one batch.
+    List<Comment> comments = generateComments(commentEntities);
+    Set<String> businessIds = new LinkedHashSet<>();
+    for (Entity followEntity : followEntities) {
+      businessIds.add((String) followEntity.getProperty(BUSINESS_ID_PROPERTY));
+    }
+    for (Comment comment : comments) {
+      businessIds.add(comment.getBusinessId());
+    }
+    Map<String, Entity> businesses = profileRepository.getBusinesses(businessIds);
+
+    List<BusinessProfile> followedBusinesses = new ArrayList<>();
+    for (Entity followEntity : followEntities) {
+      Entity businessEntity = businesses.get(followEntity.getProperty(BUSINESS_ID_PROPERTY));
+      if (businessEntity != null) {
+        followedBusinesses.add(generateBusinessProfile(businessEntity, false));
+      }
+    }
+    Map<String, String> businessNames = new HashMap<>();
+    for (Comment comment : comments) {
+      Entity businessEntity = businesses.get(comment.getBusinessId());
+      if (businessEntity != null) {
+        businessNames.put(
+            comment.getBusinessId(), (String) businessEntity.getProperty(NAME_PROPERTY));
+      }
+    }
+
+    String followsCursor =
+        followEntities.size() == FOLLOW_LIMIT ? followEntities.getCursor().toWebSafeString() : null;
+
+    ProfilePage page =
+        new ProfilePage(
+            buildUser(viewerId, profiles),
+            profile,
+            followedBusinesses,
+            followsCursor,
+            comments,
+            businessNames);
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(page));
+  }
+
+  /** The same login data /login returns, from a profile that was read along with the page's. */
+  private User buildUser(String viewerId, Map<String, Entity> profiles) {
+    if (viewerId == null) {
+      return new User(false, LOGIN_URL, null, null);
+    }
+    Entity viewerProfile = profiles.get(viewerId);
+    String isBusiness =
+        viewerProfile == null ? null : (String) viewerProfile.getProperty(IS_BUSINESS_PROPERTY);
+    return new User(true, LOGOUT_URL, viewerId, isBusiness);
+  }
+
+  private static List<String> idsOf(String pageId, String viewerId) {
+    List<String> ids = new ArrayList<>();
+    ids.add(pageId);
+    if (viewerId != null && !viewerId.equals(pageId)) {
+      ids.add(viewerId);
+    }
+    return ids;
+  }
+
+  private static List<Comment> generateComments(List<Entity> commentEntities) {
+    List<Comment> comments = new ArrayList<>();
+    for (Entity commentEntity : commentEntities) {
+      comments.add(generateComment(commentEntity));
+    }
+    return comments;
+  }
+}
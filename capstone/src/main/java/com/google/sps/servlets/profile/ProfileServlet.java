@@ -14,6 +14,7 @@
 
 package com.google.sps.servlets.profile;
 
+import static com.google.sps.data.ConditionalGetUtil.checkNotModified;
 import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.LAT_PROPERTY;
@@ -22,18 +23,22 @@ import static com.google.sps.data.ProfileDatastoreUtil.LONG_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.ProfileDatastoreUtil.getLastModifiedTime;
+import static com.google.sps.data.ProfileDatastoreUtil.getVersion;
+import static com.google.sps.data.ProfileDatastoreUtil.putNewVersion;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
+import com.google.sps.data.ProfileRepository;
 import com.google.sps.data.UserProfile;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -43,10 +48,13 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet responsible for showing a non-business user profile. */
 @WebServlet("/profile/*")
 public class ProfileServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
 
-  UserService userService = UserServiceFactory.getUserService();
+  private final UserService userService = UserServiceFactory.getUserService();
 
-  DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private final ProfileRepository profileRepository = ProfileRepository.getInstance();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -61,14 +69,12 @@ public class ProfileServlet extends HttpServlet {
 
     String urlId = pathSegments[1];
 
-    String keyString = KeyFactory.createKeyString(PROFILE_TASK_NAME, urlId);
-    Key userKey = KeyFactory.stringToKey(keyString);
     Entity entity;
 
     try {
-      entity = datastore.get(userKey);
+      entity = profileRepository.getProfile(urlId);
     } catch (EntityNotFoundException e) {
-      System.err.println("Could not find key: " + userKey);
+      System.err.println("Could not find profile: " + urlId);
       response.sendError(
           HttpServletResponse.SC_NOT_FOUND,
           "The profile you were looking for was not found in our records!");
@@ -92,13 +98,23 @@ public class ProfileServlet extends HttpServlet {
     String bio = Objects.toString(entity.getProperty(BIO_PROPERTY), "");
     boolean isCurrentUser = userId.equals(urlId);
 
+    // The response includes the viewer's ID, so each viewer has their own version of it.
+    String etag =
+        "\""
+            + getVersion(entity)
+            + "-"
+            + Hashing.md5().hashString(userId, StandardCharsets.UTF_8)
+            + "\"";
+    if (checkNotModified(request, response, etag, getLastModifiedTime(entity))) {
+      return;
+    }
+
     // Create a profile object that contains the properties.
     UserProfile profile = new UserProfile(userId, name, location, bio, isCurrentUser);
 
     // Send it back to client side as a JSON file.
     response.setContentType("application/json;");
-    Gson gson = new Gson();
-    response.getWriter().println(gson.toJson(profile));
+    response.getWriter().println(GSON.toJson(profile));
   }
 
   @Override
@@ -146,7 +162,8 @@ public class ProfileServlet extends HttpServlet {
             : null);
 
     // Put entity in datastore.
-    datastore.put(profileEntity);
+    putNewVersion(profileEntity, datastore);
+    profileRepository.invalidate(id);
     response.sendRedirect("/profile.html?id=" + id);
   }
 
@@ -0,0 +1,129 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers for starting independent datastore reads together and waiting for them later, so a
+ * request spends about as long as its slowest read instead of the sum of them all. Results are
+ * futures; waiting for one with {@link #await(Future)} rethrows the exception the read failed with.
+ */
+public final class AsyncDatastoreUtil {
+
+  private AsyncDatastoreUtil() {}
+
+  /** Start reading an entity that may not exist. The future's result is null if it doesn't. */
+  public static Future<Entity> getIfExists(AsyncDatastoreService datastore, Key key) {
+    return new MissingAsNullFuture(datastore.get(key));
+  }
+
+  /** Start checking whether an entity exists. */
+  public static Future<Boolean> exists(AsyncDatastoreService datastore, Key key) {
+    return transform(getIfExists(datastore, key), entity -> entity != null);
+  }
+
+  /** A future whose result is the function applied to another's, once that is waited for. */
+  public static <T, R> Future<R> transform(
+      Future<T> future, Function<? super T, ? extends R> function) {
+    return Futures.lazyTransform(future, function);
+  }
+
+  /**
+   * Start running a query. Its first batch of results is fetched in the background, while the
+   * caller does other work, and the rest as the iterator reaches them.
+   */
+  public static Iterator<Entity> startQuery(AsyncDatastoreService datastore, Query query) {
+    PreparedQuery preparedQuery = datastore.prepare(query);
+    return preparedQuery.asIterator();
+  }
+
+  /** Wait for a background read and return its result. */
+  public static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new DatastoreFailureException("Could not read from datastore.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatastoreFailureException("Interrupted while reading from datastore.", e);
+    }
+  }
+
+  /** Future of an entity read, whose result is null rather than an error if it was not found. */
+  private static final class MissingAsNullFuture implements Future<Entity> {
+    private final Future<Entity> entity;
+
+    private MissingAsNullFuture(Future<Entity> entity) {
+      this.entity = entity;
+    }
+
+    @Override
+    public Entity get() throws InterruptedException, ExecutionException {
+      try {
+        return entity.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof EntityNotFoundException) {
+          return null;
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    public Entity get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      try {
+        return entity.get(timeout, unit);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof EntityNotFoundException) {
+          return null;
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return entity.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return entity.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return entity.isDone();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.StatusCode;
+
+/** Keeps the "Business" search index, used to find businesses by name, in step with profiles. */
+public final class BusinessSearchUtil {
+  public static final String BUSINESS_INDEX_NAME = "Business";
+  public static final String NAME_FIELD = "name";
+
+  /** The most documents the search service accepts in one put. */
+  public static final int MAX_INDEX_BATCH_SIZE = 200;
+
+  public static Index getBusinessIndex(SearchService searchService) {
+    // Gets the search index. If not created, it creates it.
+    return searchService.getIndex(IndexSpec.newBuilder().setName(BUSINESS_INDEX_NAME));
+  }
+
+  public static Document buildBusinessDocument(String id, String name) {
+    return Document.newBuilder()
+        .setId(id)
+        .addField(Field.newBuilder().setName(NAME_FIELD).setTokenizedPrefix(name))
+        .build();
+  }
+
+  /** Create or replace a business' document. */
+  public static void indexBusiness(String id, String name, SearchService searchService) {
+    Index index = getBusinessIndex(searchService);
+    Document document = buildBusinessDocument(id, name);
+
+    try {
+      index.put(document);
+    } catch (PutException e) {
+      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
+        // retry putting the document to the index
+        index.put(document);
+      }
+    }
+  }
+}
@@ -16,9 +16,13 @@ package com.google.sps.data;
 
 import static com.google.sps.data.ProfileDatastoreUtil.getProfileName;
 
-import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.SortDirection;
 
 public final class CommentDatastoreUtil {
   public static final String COMMENT_TASK_NAME = "Comment";
@@ -32,7 +36,7 @@ public final class CommentDatastoreUtil {
 
   public static final String NULL_ID = "";
 
-  public static Comment generateComment(Entity commentEntity, DatastoreService datastore) {
+  public static Comment generateComment(Entity commentEntity) {
     String id;
     if (commentEntity.getKey().getName() != null) {
       id = commentEntity.getKey().getName();
@@ -42,11 +46,37 @@ public final class CommentDatastoreUtil {
     String content = (String) commentEntity.getProperty(CONTENT_PROPERTY);
     long timestamp = (long) commentEntity.getProperty(TIMESTAMP_PROPERTY);
     String userId = (String) commentEntity.getProperty(USER_ID_PROPERTY);
-    String name = getProfileName(userId, datastore);
+    String name = getProfileName(userId);
     String businessId = (String) commentEntity.getProperty(BUSINESS_ID_PROPERTY);
     String parentId = (String) commentEntity.getProperty(PARENT_ID_PROPERTY);
     boolean hasReplies = (boolean) commentEntity.getProperty(HAS_REPLIES_PROPERTY);
 
     return new Comment(id, content, timestamp, userId, name, businessId, parentId, hasReplies);
   }
+
+  /**
+   * Build a query for the comments matching a filter that were posted strictly after a given
+   * timestamp, oldest first. Used to catch clients up on comments they have not seen yet.
+   */
+  public static Query buildCommentsSinceQuery(Filter filter, long since) {
+    return new Query(COMMENT_TASK_NAME)
+        .setFilter(
+            CompositeFilterOperator.and(
+                filter, FilterOperator.GREATER_THAN.of(TIMESTAMP_PROPERTY, since)))
+        .addSort(TIMESTAMP_PROPERTY, SortDirection.ASCENDING);
+  }
+
+  /** Build a query for the comments matching a filter, newest first. */
+  public static Query buildNewestCommentsQuery(Filter filter) {
+    return new Query(COMMENT_TASK_NAME)
+        .setFilter(filter)
+        .addSort(TIMESTAMP_PROPERTY, SortDirection.DESCENDING);
+  }
+
+  /** Filter matching the top level comments posted on a business page. */
+  public static Filter buildTopLevelCommentFilter(String businessId) {
+    return CompositeFilterOperator.and(
+        FilterOperator.EQUAL.of(BUSINESS_ID_PROPERTY, businessId),
+        FilterOperator.EQUAL.of(PARENT_ID_PROPERTY, NULL_ID));
+  }
 }
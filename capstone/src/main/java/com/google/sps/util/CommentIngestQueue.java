@@ -0,0 +1,169 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
+import static com.google.sps.data.CommentDatastoreUtil.TIMESTAMP_PROPERTY;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind ingestion for comments. Comments get their ids up front, are accepted into a durable
+ * pull queue and are written to datastore later in batched puts, so that posting a comment does not
+ * wait on a datastore write. Enabled with the bloom.comments.writeBehind system property.
+ *
+ * <p>A queued comment can't be read until it is drained, about {@link #DRAIN_DELAY_MS} after it was
+ * posted. Until then, replies to it are turned away with a 503 and asked to retry.
+ */
+public final class CommentIngestQueue {
+  public static final String WRITE_BEHIND_PROPERTY = "bloom.comments.writeBehind";
+  public static final String INGEST_QUEUE_NAME = "comment-ingest";
+  public static final String DRAIN_URL = "/tasks/comments/drain";
+
+  // Datastore accepts at most 500 entities in a single put.
+  public static final int MAX_BATCH_SIZE = 500;
+
+  private static final long LEASE_SECONDS = 60;
+  public static final long DRAIN_DELAY_MS = 1000;
+
+  private static final Logger logger = Logger.getLogger(CommentIngestQueue.class.getName());
+  private static final CommentIngestQueue INSTANCE =
+      new CommentIngestQueue(
+          DatastoreServiceFactory.getDatastoreService(),
+          QueueFactory.getQueue(INGEST_QUEUE_NAME),
+          QueueFactory.getDefaultQueue());
+
+  private final DatastoreService datastore;
+  private final Queue ingestQueue;
+  private final Queue drainQueue;
+
+  private final AtomicLong drainedComments = new AtomicLong();
+  private final AtomicLong totalVisibilityDelayMs = new AtomicLong();
+  private final AtomicLong maxVisibilityDelayMs = new AtomicLong();
+
+  /**
+   * @param datastore where drained comments are written.
+   * @param ingestQueue the pull queue comments wait in.
+   * @param drainQueue the push queue that schedules drains shortly after comments arrive.
+   */
+  public CommentIngestQueue(DatastoreService datastore, Queue ingestQueue, Queue drainQueue) {
+    this.datastore = datastore;
+    this.ingestQueue = ingestQueue;
+    this.drainQueue = drainQueue;
+  }
+
+  public static CommentIngestQueue getInstance() {
+    return INSTANCE;
+  }
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(WRITE_BEHIND_PROPERTY);
+  }
+
+  /** Reserve the key for a new comment without writing it. */
+  public Key allocateKey() {
+    return datastore.allocateIds(COMMENT_TASK_NAME, 1).getStart();
+  }
+
+  /** Accept a comment, whose key must already be allocated, for a later batched write. */
+  public void enqueue(Entity commentEntity) {
+    ingestQueue.add(
+        TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+            .payload(EntityTranslator.convertToPb(commentEntity).toByteArray()));
+    scheduleDrain();
+  }
+
+  /**
+   * Ask for a drain a moment from now. Tasks are named after the second they run in, so a burst of
+   * comments schedules a single drain rather than one per comment.
+   */
+  private void scheduleDrain() {
+    long drainTime = System.currentTimeMillis() + DRAIN_DELAY_MS;
+    try {
+      drainQueue.add(
+          TaskOptions.Builder.withUrl(DRAIN_URL)
+              .taskName("comment-drain-" + TimeUnit.MILLISECONDS.toSeconds(drainTime))
+              .etaMillis(drainTime));
+    } catch (TaskAlreadyExistsException e) {
+      // Another comment already scheduled this drain.
+    }
+  }
+
+  /**
+   * Write every queued comment to datastore in batches of up to MAX_BATCH_SIZE. Comments are only
+   * removed from the queue once written; if a put fails their leases expire and a later drain
+   * retries them. Writes are idempotent because every comment already has its key.
+   *
+   * @return the number of comments written.
+   */
+  public int drain() {
+    int drained = 0;
+    List<TaskHandle> tasks;
+    do {
+      tasks = ingestQueue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, MAX_BATCH_SIZE);
+      if (tasks.isEmpty()) {
+        break;
+      }
+
+      List<Entity> comments =
+          tasks.stream()
+              .map(task -> EntityTranslator.createFromPbBytes(task.getPayload()))
+              .collect(Collectors.toList());
+      datastore.put(comments);
+      ingestQueue.deleteTask(tasks);
+
+      recordVisibilityDelays(comments);
+      drained += comments.size();
+    } while (tasks.size() == MAX_BATCH_SIZE);
+
+    if (drained > 0) {
+      logger.info("Wrote " + drained + " queued comments to datastore.");
+    }
+    return drained;
+  }
+
+  private void recordVisibilityDelays(List<Entity> comments) {
+    long now = System.currentTimeMillis();
+    for (Entity comment : comments) {
+      long delay = now - (long) comment.getProperty(TIMESTAMP_PROPERTY);
+      totalVisibilityDelayMs.addAndGet(delay);
+      maxVisibilityDelayMs.accumulateAndGet(delay, Math::max);
+    }
+    drainedComments.addAndGet(comments.size());
+  }
+
+  public CommentIngestStats getStats() {
+    long drained = drainedComments.get();
+    return new CommentIngestStats(
+        ingestQueue.fetchStatistics().getNumTasks(),
+        drained,
+        drained == 0 ? 0 : totalVisibilityDelayMs.get() / drained,
+        maxVisibilityDelayMs.get());
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.CONTENT_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.TIMESTAMP_PROPERTY;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.FieldExpression;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.MatchScorer;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.Query;
+import com.google.appengine.api.search.QueryOptions;
+import com.google.appengine.api.search.ScoredDocument;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SortOptions;
+import com.google.appengine.api.search.StatusCode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the "Comment" search index in step with posted comments and ranks matches by relevance and
+ * recency. Documents are keyed by the comment id so a result maps straight back to its entity.
+ */
+public final class CommentSearchUtil {
+  public static final String COMMENT_INDEX_NAME = "Comment";
+  public static final int SEARCH_RESULT_LIMIT = 20;
+
+  // The Search API accepts at most 200 documents in a single put.
+  public static final int MAX_INDEX_BATCH_SIZE = 200;
+
+  // The best matches by relevance are re-ranked by recency before the top results are returned.
+  private static final int SEARCH_CANDIDATE_LIMIT = 100;
+  private static final long RECENCY_HALF_LIFE_SECONDS = TimeUnit.DAYS.toSeconds(30);
+  private static final String SCORE_EXPRESSION = "score";
+
+  private static final Logger logger = Logger.getLogger(CommentSearchUtil.class.getName());
+
+  public static Index getCommentIndex(SearchService searchService) {
+    return searchService.getIndex(IndexSpec.newBuilder().setName(COMMENT_INDEX_NAME));
+  }
+
+  /** Add a comment to the index. The entity must already have a complete key. */
+  public static void indexComment(Entity commentEntity, SearchService searchService) {
+    Document document = buildCommentDocument(commentEntity);
+
+    Index index = getCommentIndex(searchService);
+    try {
+      index.put(document);
+    } catch (PutException e) {
+      PutException failure = e;
+      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
+        // retry putting the document to the index
+        try {
+          index.put(document);
+          return;
+        } catch (PutException retryFailure) {
+          failure = retryFailure;
+        }
+      }
+      // The comment is saved either way; it is picked up again by the next reindex.
+      logger.log(Level.WARNING, "Could not index comment " + document.getId(), failure);
+    }
+  }
+
+  /** The search document for a comment. The entity must already have a complete key. */
+  public static Document buildCommentDocument(Entity commentEntity) {
+    return Document.newBuilder()
+        .setId(KeyFactory.keyToString(commentEntity.getKey()))
+        .addField(
+            Field.newBuilder()
+                .setName(CONTENT_PROPERTY)
+                .setText((String) commentEntity.getProperty(CONTENT_PROPERTY)))
+        .addField(
+            Field.newBuilder()
+                .setName(BUSINESS_ID_PROPERTY)
+                .setAtom((String) commentEntity.getProperty(BUSINESS_ID_PROPERTY)))
+        .addField(
+            Field.newBuilder()
+                .setName(TIMESTAMP_PROPERTY)
+                // Number fields are limited to 32 bit values, so store seconds.
+                .setNumber(
+                    TimeUnit.MILLISECONDS.toSeconds(
+                        (long) commentEntity.getProperty(TIMESTAMP_PROPERTY))))
+        .build();
+  }
+
+  /**
+   * Search comment content, optionally within a single business page. Every word of the query must
+   * appear in a match. The words are quoted, so query syntax in the text is searched for literally
+   * and cannot widen the search beyond the business.
+   *
+   * @return ids of the matching comments, best first.
+   */
+  public static List<String> searchComments(
+      String queryString, String businessId, long now, SearchService searchService) {
+    List<String> terms = new ArrayList<>();
+    for (String word : queryString.split("\\s+")) {
+      String term = quote(word);
+      if (term != null) {
+        terms.add(term);
+      }
+    }
+    if (terms.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    String filteredQuery = CONTENT_PROPERTY + ":(" + String.join(" ", terms) + ")";
+    if (businessId != null) {
+      filteredQuery += " AND " + BUSINESS_ID_PROPERTY + ":" + quote(businessId);
+    }
+
+    Query query =
+        Query.newBuilder()
+            .setOptions(
+                QueryOptions.newBuilder()
+                    .setLimit(SEARCH_CANDIDATE_LIMIT)
+                    .setFieldsToReturn(TIMESTAMP_PROPERTY)
+                    .addExpressionToReturn(
+                        FieldExpression.newBuilder()
+                            .setName(SCORE_EXPRESSION)
+                            .setExpression("_score"))
+                    .setSortOptions(
+                        SortOptions.newBuilder()
+                            .setMatchScorer(MatchScorer.newBuilder())
+                            .setLimit(SEARCH_CANDIDATE_LIMIT)))
+            .build(filteredQuery);
+
+    List<ScoredDocument> candidates = new ArrayList<>();
+    getCommentIndex(searchService).search(query).forEach(candidates::add);
+
+    return candidates.stream()
+        .sorted(
+            Comparator.comparingDouble((ScoredDocument document) -> rank(document, now))
+                .reversed()
+                .thenComparing(
+                    Comparator.comparingDouble(CommentSearchUtil::getTimestamp).reversed()))
+        .limit(SEARCH_RESULT_LIMIT)
+        .map(ScoredDocument::getId)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * A word as a quoted phrase, without the quote and escape characters the tokenizer would drop
+   * anyway. Returns null if nothing searchable is left.
+   */
+  private static String quote(String word) {
+    String stripped = word.replaceAll("[\"\\\\]", "");
+    return stripped.isEmpty() ? null : "\"" + stripped + "\"";
+  }
+
+  /** Relevance boosted by up to 2x for new comments, halving the boost every half-life. */
+  private static double rank(ScoredDocument document, long now) {
+    double relevance = 0;
+    for (Field expression : document.getExpressions()) {
+      if (SCORE_EXPRESSION.equals(expression.getName())) {
+        relevance = expression.getNumber();
+      }
+    }
+    double ageSeconds = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(now) - getTimestamp(document));
+    return relevance * (1 + Math.pow(0.5, ageSeconds / RECENCY_HALF_LIFE_SECONDS));
+  }
+
+  private static double getTimestamp(ScoredDocument document) {
+    return document.getOnlyField(TIMESTAMP_PROPERTY).getNumber();
+  }
+}
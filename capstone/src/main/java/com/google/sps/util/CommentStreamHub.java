@@ -0,0 +1,137 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.AsyncContext;
+
+/**
+ * In-process fan-out of newly posted comments to the Server-Sent Events streams open on this
+ * instance. Each subscriber has a bounded buffer; a subscriber that falls too far behind is
+ * disconnected and catches up from the datastore when its client reconnects.
+ */
+public final class CommentStreamHub {
+  public static final int SUBSCRIBER_BUFFER_SIZE = 64;
+  public static final String COMMENT_EVENT_NAME = "comment";
+
+  private static final Gson GSON = new Gson();
+  private static final CommentStreamHub INSTANCE = new CommentStreamHub();
+
+  private final ConcurrentMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+  public static CommentStreamHub getInstance() {
+    return INSTANCE;
+  }
+
+  /** Register a stream that wants to receive the comments posted on a business page. */
+  public Subscriber subscribe(String businessId, AsyncContext context) {
+    Subscriber subscriber = new Subscriber(businessId, context);
+    subscribers.computeIfAbsent(businessId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    return subscriber;
+  }
+
+  public void unsubscribe(Subscriber subscriber) {
+    subscribers.computeIfPresent(
+        subscriber.businessId,
+        (id, businessSubscribers) -> {
+          businessSubscribers.remove(subscriber);
+          return businessSubscribers.isEmpty() ? null : businessSubscribers;
+        });
+  }
+
+  public boolean hasSubscribers(String businessId) {
+    return subscribers.containsKey(businessId);
+  }
+
+  /** Queue a comment for every stream watching its business page. */
+  public void publish(Comment comment) {
+    Set<Subscriber> businessSubscribers = subscribers.get(comment.getBusinessId());
+    if (businessSubscribers == null) {
+      return;
+    }
+
+    for (Subscriber subscriber : businessSubscribers) {
+      if (subscriber.buffer.offer(comment)) {
+        try {
+          // Write on a container thread so a slow client never holds up the poster's request.
+          subscriber.context.start(subscriber::drain);
+        } catch (IllegalStateException e) {
+          // The stream already completed or timed out; the poster's request must not fail for it.
+          unsubscribe(subscriber);
+        }
+      } else {
+        // The client is not keeping up. Drop it; it resumes from its Last-Event-ID on reconnect.
+        unsubscribe(subscriber);
+        subscriber.close();
+      }
+    }
+  }
+
+  /** A single open event stream. */
+  public final class Subscriber {
+    private final String businessId;
+    private final AsyncContext context;
+    private final BlockingQueue<Comment> buffer = new ArrayBlockingQueue<>(SUBSCRIBER_BUFFER_SIZE);
+
+    private Subscriber(String businessId, AsyncContext context) {
+      this.businessId = businessId;
+      this.context = context;
+    }
+
+    /** Write comments straight to the stream, bypassing the buffer. Used for catch-up. */
+    public synchronized void send(List<Comment> comments) {
+      try {
+        PrintWriter writer = context.getResponse().getWriter();
+        for (Comment comment : comments) {
+          writer.print("id: " + comment.getTimestamp() + "\n");
+          writer.print("event: " + COMMENT_EVENT_NAME + "\n");
+          writer.print("data: " + GSON.toJson(comment) + "\n\n");
+        }
+        writer.flush();
+        if (writer.checkError()) {
+          throw new IOException("Client disconnected from comment stream.");
+        }
+      } catch (IOException | IllegalStateException e) {
+        unsubscribe(this);
+        close();
+      }
+    }
+
+    private void drain() {
+      List<Comment> pending = new ArrayList<>();
+      buffer.drainTo(pending);
+      if (!pending.isEmpty()) {
+        send(pending);
+      }
+    }
+
+    private void close() {
+      try {
+        context.complete();
+      } catch (IllegalStateException e) {
+        // The stream was already completed by a timeout or a disconnect.
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Validation of cached responses with entity tags. */
+public final class ConditionalGetUtil {
+  public static final String ETAG_HEADER = "ETag";
+  public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+  public static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+  /**
+   * Set the validators of a response, and answer 304 Not Modified if the client already holds this
+   * version. Clients are told to revalidate every time, since responses depend on who is asking.
+   *
+   * <p>Only If-None-Match is honored. Last-Modified is informational: the responses also include
+   * data, like follower counts, that changes without the profile being modified.
+   *
+   * @param lastModified milliseconds since the epoch, or null if not known.
+   * @return true if a 304 was sent and the body must not be written.
+   */
+  public static boolean checkNotModified(
+      HttpServletRequest request, HttpServletResponse response, String etag, Long lastModified) {
+    response.setHeader(ETAG_HEADER, etag);
+    if (lastModified != null) {
+      response.setDateHeader(LAST_MODIFIED_HEADER, lastModified);
+    }
+    response.setHeader("Cache-Control", "private, no-cache");
+
+    String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+    if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+      return false;
+    }
+    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    return true;
+  }
+
+  /** Compare a list of entity tags from If-None-Match against ours, weakly as the spec requires. */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || stripWeakPrefix(candidate).equals(stripWeakPrefix(etag))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeakPrefix(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+}
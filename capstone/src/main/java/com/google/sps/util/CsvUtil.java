@@ -0,0 +1,90 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reading and writing of comma separated values, as spreadsheets export them. */
+public final class CsvUtil {
+  // Spreadsheets evaluate a field starting with any of these as a formula.
+  private static final String FORMULA_PREFIXES = "=+-@\t\r";
+
+  /**
+   * Quote a CSV field if it contains a delimiter, quote or line break. A field that a spreadsheet
+   * would evaluate as a formula is prefixed with an apostrophe so it is shown as text.
+   */
+  public static String toCsvField(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (!value.isEmpty() && FORMULA_PREFIXES.indexOf(value.charAt(0)) >= 0) {
+      value = "'" + value;
+    }
+    if (value.contains(",")
+        || value.contains("\"")
+        || value.contains("\n")
+        || value.contains("\r")) {
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+    return value;
+  }
+
+  /**
+   * Read the next record. Quoted fields may contain delimiters, doubled quotes and line breaks.
+   *
+   * @return the record's fields, or null at the end of the input.
+   */
+  public static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+    int next = reader.read();
+    if (next == -1) {
+      return null;
+    }
+
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    while (next != -1) {
+      char c = (char) next;
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else {
+          reader.mark(1);
+          if (reader.read() == '"') {
+            field.append('"');
+          } else {
+            reader.reset();
+            quoted = false;
+          }
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n') {
+        break;
+      } else if (c != '\r') {
+        field.append(c);
+      }
+      next = reader.read();
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+}
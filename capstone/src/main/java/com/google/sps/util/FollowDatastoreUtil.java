@@ -14,15 +14,102 @@
 
 package com.google.sps.data;
 
+import static com.google.sps.data.AsyncDatastoreUtil.await;
+import static com.google.sps.data.AsyncDatastoreUtil.exists;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public final class FollowDatastoreUtil {
   public static final String FOLLOW_TASK_NAME = "Follow";
   public static final String BUSINESS_ID_PROPERTY = "businessId";
   public static final String USER_ID_PROPERTY = "userId";
 
+  /** Written by the follow migration once no follow is left with an automatic id. */
+  public static final Key MIGRATION_COMPLETE_KEY =
+      KeyFactory.createKey("FollowMigration", "complete");
+
+  private static final String KEY_SEPARATOR = "|";
+
+  // Once the migration is complete it stays complete, so only that answer is kept.
+  private static volatile boolean migrationComplete = false;
+
+  /**
+   * A follow is keyed by the user and the business, so there is at most one per pair and it can be
+   * looked up without a query.
+   */
+  public static Key createFollowKey(String userId, String businessId) {
+    return KeyFactory.createKey(FOLLOW_TASK_NAME, userId + KEY_SEPARATOR + businessId);
+  }
+
+  /** Whether every follow is keyed by its user and business, so lookups by key find them all. */
+  public static boolean isMigrationComplete(AsyncDatastoreService datastore) {
+    if (!migrationComplete) {
+      migrationComplete = await(exists(datastore, MIGRATION_COMPLETE_KEY));
+    }
+    return migrationComplete;
+  }
+
+  /** Forget that the migration was seen to be complete. Used by tests. */
+  public static void clearMigrationStatus() {
+    migrationComplete = false;
+  }
+
+  /**
+   * The keys of a user's follows of a business that were saved with automatic ids and not yet
+   * migrated. Lookups by {@link #createFollowKey} miss them, so until the migration is complete
+   * they are found with a query.
+   */
+  public static List<Key> getLegacyFollowKeys(
+      AsyncDatastoreService datastore, String userId, String businessId) {
+    if (isMigrationComplete(datastore)) {
+      return Collections.emptyList();
+    }
+    Query query =
+        new Query(FOLLOW_TASK_NAME)
+            .setFilter(
+                CompositeFilterOperator.and(
+                    FilterOperator.EQUAL.of(USER_ID_PROPERTY, userId),
+                    FilterOperator.EQUAL.of(BUSINESS_ID_PROPERTY, businessId)))
+            .setKeysOnly();
+    List<Key> legacyKeys = new ArrayList<>();
+    for (Entity follow : datastore.prepare(query).asIterable()) {
+      if (follow.getKey().getName() == null) {
+        legacyKeys.add(follow.getKey());
+      }
+    }
+    return legacyKeys;
+  }
+
+  /** The businesses a user follows through follows that are not yet migrated. */
+  public static Set<String> getLegacyFollowedBusinessIds(
+      AsyncDatastoreService datastore, String userId) {
+    if (isMigrationComplete(datastore)) {
+      return Collections.emptySet();
+    }
+    Set<String> businessIds = new HashSet<>();
+    Query query =
+        new Query(FOLLOW_TASK_NAME).setFilter(FilterOperator.EQUAL.of(USER_ID_PROPERTY, userId));
+    for (Entity follow : datastore.prepare(query).asIterable()) {
+      if (follow.getKey().getName() == null) {
+        businessIds.add((String) follow.getProperty(BUSINESS_ID_PROPERTY));
+      }
+    }
+    return businessIds;
+  }
+
   public static Entity buildFollowEntity(String userId, String businessId) {
-    Entity followEntity = new Entity(FOLLOW_TASK_NAME);
+    Entity followEntity = new Entity(createFollowKey(userId, businessId));
 
     followEntity.setProperty(USER_ID_PROPERTY, userId);
     followEntity.setProperty(BUSINESS_ID_PROPERTY, businessId);
@@ -0,0 +1,329 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+
+/**
+ * This instance's copy of who follows which business, held as sorted arrays of dense integer ids so
+ * that businesses followed by the same people can be found without querying datastore. The copy is
+ * built by {@link FollowScan} during warmup and replaced by the {@link FollowSnapshot} the refresh
+ * cron job stores, which every instance checks for at most once a minute. Follows made through this
+ * instance are patched in straight away and replayed onto newer copies until a copy includes them.
+ * Requests never scan the follows themselves; until a copy exists they get no recommendations.
+ */
+public final class FollowGraph implements FollowIndex {
+  private static final long SNAPSHOT_CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+  // Patches older than this are dropped even if no copy has included them, to bound memory.
+  private static final long PATCH_RETENTION_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final FollowGraph INSTANCE =
+      new FollowGraph(DatastoreServiceFactory.getDatastoreService(), System::currentTimeMillis);
+
+  private final DatastoreService datastore;
+  private final LongSupplier clock;
+  private final ReadWriteLock graphLock = new ReentrantReadWriteLock();
+  private final ReentrantLock rebuildLock = new ReentrantLock();
+
+  // Guarded by graphLock.
+  private Graph graph;
+  // When the follows the graph was built from were read, or Long.MIN_VALUE if there is no graph.
+  private long builtAtMillis = Long.MIN_VALUE;
+  // Follows made through this instance, oldest first, kept to replay onto newer copies.
+  private final Deque<Patch> recentPatches = new ArrayDeque<>();
+
+  // Guarded by rebuildLock.
+  private long rebuildStartedAtMillis;
+
+  private volatile long snapshotCheckedAtMillis = -SNAPSHOT_CHECK_INTERVAL_MS;
+
+  public FollowGraph(DatastoreService datastore, LongSupplier clock) {
+    this.datastore = datastore;
+    this.clock = clock;
+  }
+
+  public static FollowGraph getInstance() {
+    return INSTANCE;
+  }
+
+  public void addFollow(String userId, String businessId) {
+    patch(new Patch(clock.getAsLong(), userId, businessId, true));
+  }
+
+  public void removeFollow(String userId, String businessId) {
+    patch(new Patch(clock.getAsLong(), userId, businessId, false));
+  }
+
+  /**
+   * Find the businesses most often followed by the followers of a business.
+   *
+   * @return at most limit businesses, most shared followers first.
+   */
+  public List<BusinessRecommendation> getCoFollowedBusinesses(String businessId, int limit) {
+    loadNewerSnapshot();
+
+    graphLock.readLock().lock();
+    try {
+      if (graph == null) {
+        return new ArrayList<>();
+      }
+      return graph.getCoFollowedBusinesses(businessId, limit);
+    } finally {
+      graphLock.readLock().unlock();
+    }
+  }
+
+  /** Drop the graph so it is loaded again from the next snapshot. */
+  public void clear() {
+    graphLock.writeLock().lock();
+    try {
+      graph = null;
+      builtAtMillis = Long.MIN_VALUE;
+      recentPatches.clear();
+      snapshotCheckedAtMillis = -SNAPSHOT_CHECK_INTERVAL_MS;
+    } finally {
+      graphLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void beginRebuild() {
+    rebuildLock.lock();
+    rebuildStartedAtMillis = clock.getAsLong();
+  }
+
+  @Override
+  public void finishRebuild(List<String> userIds, List<String> businessIds) {
+    try {
+      if (userIds != null) {
+        replace(rebuildStartedAtMillis, userIds, businessIds);
+      }
+    } finally {
+      rebuildLock.unlock();
+    }
+  }
+
+  /**
+   * Replace the graph with a stored snapshot newer than it, if the last check was long enough ago.
+   * Requests that find another request already checking use the graph they have.
+   */
+  private void loadNewerSnapshot() {
+    long now = clock.getAsLong();
+    if (now - snapshotCheckedAtMillis < SNAPSHOT_CHECK_INTERVAL_MS || !rebuildLock.tryLock()) {
+      return;
+    }
+    try {
+      snapshotCheckedAtMillis = now;
+      FollowSnapshot.Contents snapshot = FollowSnapshot.read(datastore, getBuiltAtMillis());
+      if (snapshot != null) {
+        replace(snapshot.getTakenAtMillis(), snapshot.getUserIds(), snapshot.getBusinessIds());
+      }
+    } finally {
+      rebuildLock.unlock();
+    }
+  }
+
+  /** Build a graph from follows read at the given time, with later patches replayed onto it. */
+  private void replace(long readAtMillis, List<String> userIds, List<String> businessIds) {
+    Graph newGraph = new Graph();
+    for (int i = 0; i < userIds.size(); i++) {
+      newGraph.add(userIds.get(i), businessIds.get(i));
+    }
+
+    graphLock.writeLock().lock();
+    try {
+      while (!recentPatches.isEmpty() && recentPatches.peekFirst().madeAtMillis < readAtMillis) {
+        recentPatches.removeFirst();
+      }
+      for (Patch patch : recentPatches) {
+        patch.applyTo(newGraph);
+      }
+      graph = newGraph;
+      builtAtMillis = readAtMillis;
+    } finally {
+      graphLock.writeLock().unlock();
+    }
+  }
+
+  private void patch(Patch patch) {
+    graphLock.writeLock().lock();
+    try {
+      if (graph != null) {
+        patch.applyTo(graph);
+      }
+      while (!recentPatches.isEmpty()
+          && recentPatches.peekFirst().madeAtMillis < patch.madeAtMillis - PATCH_RETENTION_MS) {
+        recentPatches.removeFirst();
+      }
+      recentPatches.addLast(patch);
+    } finally {
+      graphLock.writeLock().unlock();
+    }
+  }
+
+  private long getBuiltAtMillis() {
+    graphLock.readLock().lock();
+    try {
+      return builtAtMillis;
+    } finally {
+      graphLock.readLock().unlock();
+    }
+  }
+
+  private static final class Patch {
+    private final long madeAtMillis;
+    private final String userId;
+    private final String businessId;
+    private final boolean isFollow;
+
+    private Patch(long madeAtMillis, String userId, String businessId, boolean isFollow) {
+      this.madeAtMillis = madeAtMillis;
+      this.userId = userId;
+      this.businessId = businessId;
+      this.isFollow = isFollow;
+    }
+
+    private void applyTo(Graph graph) {
+      if (isFollow) {
+        graph.add(userId, businessId);
+      } else {
+        graph.remove(userId, businessId);
+      }
+    }
+  }
+
+  /** Users and businesses are numbered in the order they are first seen. */
+  private static final class Graph {
+    private final Map<String, Integer> userIndices = new HashMap<>();
+    private final Map<String, Integer> businessIndices = new HashMap<>();
+    private final List<String> businessIds = new ArrayList<>();
+    private final List<SortedIntSet> followersByBusiness = new ArrayList<>();
+    private final List<SortedIntSet> businessesByUser = new ArrayList<>();
+
+    private void add(String userId, String businessId) {
+      Integer userIndex = userIndices.get(userId);
+      if (userIndex == null) {
+        userIndex = businessesByUser.size();
+        userIndices.put(userId, userIndex);
+        businessesByUser.add(new SortedIntSet());
+      }
+      Integer businessIndex = businessIndices.get(businessId);
+      if (businessIndex == null) {
+        businessIndex = businessIds.size();
+        businessIndices.put(businessId, businessIndex);
+        businessIds.add(businessId);
+        followersByBusiness.add(new SortedIntSet());
+      }
+      followersByBusiness.get(businessIndex).add(userIndex);
+      businessesByUser.get(userIndex).add(businessIndex);
+    }
+
+    private void remove(String userId, String businessId) {
+      Integer userIndex = userIndices.get(userId);
+      Integer businessIndex = businessIndices.get(businessId);
+      if (userIndex == null || businessIndex == null) {
+        return;
+      }
+      followersByBusiness.get(businessIndex).remove(userIndex);
+      businessesByUser.get(userIndex).remove(businessIndex);
+    }
+
+    private List<BusinessRecommendation> getCoFollowedBusinesses(String businessId, int limit) {
+      Integer businessIndex = businessIndices.get(businessId);
+      if (businessIndex == null || limit <= 0) {
+        return new ArrayList<>();
+      }
+
+      // Count how many of the business' followers follow each other business.
+      int[] sharedFollowers = new int[businessIds.size()];
+      SortedIntSet followers = followersByBusiness.get(businessIndex);
+      for (int i = 0; i < followers.size; i++) {
+        SortedIntSet followed = businessesByUser.get(followers.values[i]);
+        for (int j = 0; j < followed.size; j++) {
+          sharedFollowers[followed.values[j]]++;
+        }
+      }
+      sharedFollowers[businessIndex] = 0;
+
+      // Keep the best few in a min-heap; ties go to the business seen first.
+      PriorityQueue<Integer> best =
+          new PriorityQueue<>(
+              limit + 1,
+              (a, b) ->
+                  sharedFollowers[a] != sharedFollowers[b]
+                      ? Integer.compare(sharedFollowers[a], sharedFollowers[b])
+                      : Integer.compare(b, a));
+      for (int candidate = 0; candidate < sharedFollowers.length; candidate++) {
+        if (sharedFollowers[candidate] > 0) {
+          best.add(candidate);
+          if (best.size() > limit) {
+            best.poll();
+          }
+        }
+      }
+
+      BusinessRecommendation[] recommendations = new BusinessRecommendation[best.size()];
+      for (int i = recommendations.length - 1; i >= 0; i--) {
+        int candidate = best.poll();
+        recommendations[i] =
+            new BusinessRecommendation(businessIds.get(candidate), sharedFollowers[candidate]);
+      }
+      return Arrays.asList(recommendations);
+    }
+  }
+
+  /** A growable sorted array of distinct ints. */
+  private static final class SortedIntSet {
+    private int[] values = new int[4];
+    private int size;
+
+    private void add(int value) {
+      int position = Arrays.binarySearch(values, 0, size, value);
+      if (position >= 0) {
+        return;
+      }
+      position = -position - 1;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      System.arraycopy(values, position, values, position + 1, size - position);
+      values[position] = value;
+      size++;
+    }
+
+    private void remove(int value) {
+      int position = Arrays.binarySearch(values, 0, size, value);
+      if (position < 0) {
+        return;
+      }
+      System.arraycopy(values, position + 1, values, position, size - position - 1);
+      size--;
+    }
+  }
+}
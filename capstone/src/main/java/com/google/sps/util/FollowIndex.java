@@ -0,0 +1,34 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/** A copy of the follows, rebuilt by {@link FollowScan}. */
+public interface FollowIndex {
+  /**
+   * Start recording follows made through this instance, to be replayed onto the rebuilt copy. Waits
+   * for any rebuild already running. Must be followed by {@link #finishRebuild} on the same thread.
+   */
+  void beginRebuild();
+
+  /**
+   * Replace the copy with the scanned follows, or keep the old copy if the scan failed.
+   *
+   * @param userIds the user of each follow, or null if the scan failed.
+   * @param businessIds the business of each follow, in the same order.
+   */
+  void finishRebuild(List<String> userIds, List<String> businessIds);
+}
@@ -0,0 +1,301 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The most followed businesses, kept in a single datastore entity so that listing them never scans
+ * the follows. Every committed follow or unfollow leaves a task naming its business in a pull
+ * queue, added in the same transaction. A cron task flushes the queue: it reads the current
+ * follower counts of the named businesses, merges them into the stored leaderboard, keeping only
+ * the top entries, and only then removes the tasks. The stored leaderboard is cached on each
+ * instance for a short time.
+ *
+ * <p>The leaderboard holds more entries than are ever served, so a business whose count drops is
+ * usually replaced by one that is already on it. The daily follower count reconcile records every
+ * business it checks, which repairs anything the incremental updates missed.
+ */
+public final class FollowLeaderboard {
+  public static final String LEADERBOARD_TASK_NAME = "Leaderboard";
+  public static final String MOST_FOLLOWED_KEY_NAME = "mostFollowed";
+  public static final String BUSINESS_IDS_PROPERTY = "businessIds";
+  public static final String NAMES_PROPERTY = "names";
+  public static final String FOLLOWER_COUNTS_PROPERTY = "followerCounts";
+  public static final String CHANGE_QUEUE_NAME = "follow-leaderboard";
+  public static final String FLUSH_URL = "/tasks/follows/flush-leaderboard";
+  public static final int CAPACITY = 100;
+
+  // Tasks leased per merge; a queue accepts at most 100 tasks in one add.
+  public static final int MAX_BATCH_SIZE = 100;
+
+  private static final long LEASE_SECONDS = 60;
+  private static final long CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(1);
+  private static final Logger logger = Logger.getLogger(FollowLeaderboard.class.getName());
+
+  private static final FollowLeaderboard INSTANCE =
+      new FollowLeaderboard(
+          DatastoreServiceFactory.getDatastoreService(),
+          ProfileRepository.getInstance(),
+          FollowerCounter.getInstance(),
+          QueueFactory.getQueue(CHANGE_QUEUE_NAME),
+          System::currentTimeMillis);
+
+  private final DatastoreService datastore;
+  private final ProfileRepository profileRepository;
+  private final FollowerCounter followerCounter;
+  private final Queue changeQueue;
+  private final LongSupplier clock;
+  private final Key leaderboardKey =
+      KeyFactory.createKey(LEADERBOARD_TASK_NAME, MOST_FOLLOWED_KEY_NAME);
+
+  // Guarded by this.
+  private List<LeaderboardEntry> cachedEntries;
+  private long cacheExpiresAt;
+
+  /**
+   * @param changeQueue the pull queue that holds businesses whose follower count changed.
+   * @param clock the time used to expire the cached leaderboard.
+   */
+  public FollowLeaderboard(
+      DatastoreService datastore,
+      ProfileRepository profileRepository,
+      FollowerCounter followerCounter,
+      Queue changeQueue,
+      LongSupplier clock) {
+    this.datastore = datastore;
+    this.profileRepository = profileRepository;
+    this.followerCounter = followerCounter;
+    this.changeQueue = changeQueue;
+    this.clock = clock;
+  }
+
+  public static FollowLeaderboard getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Note, within the transaction that changes its follower count, that a business must be merged in
+   * on the next flush. The note is only kept if the transaction commits.
+   */
+  public void recordChange(Transaction transaction, String businessId) {
+    changeQueue.add(transaction, buildChangeTask(businessId));
+  }
+
+  /** Note that at most MAX_BATCH_SIZE businesses must be merged in on the next flush. */
+  public void recordChanges(Collection<String> businessIds) {
+    List<TaskOptions> tasks = new ArrayList<>();
+    for (String businessId : businessIds) {
+      tasks.add(buildChangeTask(businessId));
+    }
+    if (!tasks.isEmpty()) {
+      changeQueue.add(tasks);
+    }
+  }
+
+  /**
+   * @return at most limit businesses, most followed first.
+   */
+  public List<LeaderboardEntry> getTop(int limit) {
+    List<LeaderboardEntry> entries;
+    synchronized (this) {
+      entries = cachedEntries;
+      if (entries == null || clock.getAsLong() >= cacheExpiresAt) {
+        entries = null;
+      }
+    }
+    if (entries == null) {
+      entries = readEntries(getLeaderboardEntity(null));
+      cache(entries);
+    }
+    return new ArrayList<>(entries.subList(0, Math.min(limit, entries.size())));
+  }
+
+  /**
+   * Merge the current follower counts of every recorded business into the stored leaderboard. Tasks
+   * are only removed once their merge commits. If the leaderboard is updated concurrently or
+   * datastore fails, the flush stops and the leases expire, so a later flush retries them.
+   *
+   * @return the number of businesses merged.
+   */
+  public int flush() {
+    int merged = 0;
+    List<TaskHandle> tasks;
+    do {
+      tasks = changeQueue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, MAX_BATCH_SIZE);
+      if (tasks.isEmpty()) {
+        break;
+      }
+
+      Set<String> businessIds = new LinkedHashSet<>();
+      for (TaskHandle task : tasks) {
+        businessIds.add(new String(task.getPayload(), StandardCharsets.UTF_8));
+      }
+      try {
+        cache(merge(businessIds));
+      } catch (ConcurrentModificationException | DatastoreFailureException e) {
+        logger.log(Level.WARNING, "Leaderboard merge failed, retrying on next flush.", e);
+        break;
+      }
+      changeQueue.deleteTask(tasks);
+      merged += businessIds.size();
+    } while (tasks.size() == MAX_BATCH_SIZE);
+    return merged;
+  }
+
+  /** Forget the cached leaderboard. */
+  public synchronized void clear() {
+    cachedEntries = null;
+  }
+
+  private static TaskOptions buildChangeTask(String businessId) {
+    return TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+        .payload(businessId.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Replace the given businesses' entries with their current follower counts. The leaderboard is
+   * read before the counts, so a flush that commits in between makes this transaction fail rather
+   * than be overwritten with older counts.
+   */
+  private List<LeaderboardEntry> merge(Collection<String> businessIds) {
+    Map<String, String> names = getBusinessNames(businessIds);
+
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Map<String, LeaderboardEntry> merged = new HashMap<>();
+      for (LeaderboardEntry entry : readEntries(getLeaderboardEntity(transaction))) {
+        merged.put(entry.getBusinessId(), entry);
+      }
+      for (Map.Entry<String, Long> count :
+          followerCounter.getStoredCounts(businessIds).entrySet()) {
+        merged.put(
+            count.getKey(),
+            new LeaderboardEntry(count.getKey(), names.get(count.getKey()), count.getValue()));
+      }
+
+      // Keep the top entries in a min-heap; ties go to the lower business id.
+      PriorityQueue<LeaderboardEntry> top =
+          new PriorityQueue<>(
+              CAPACITY + 1,
+              (a, b) ->
+                  a.getFollowerCount() != b.getFollowerCount()
+                      ? Long.compare(a.getFollowerCount(), b.getFollowerCount())
+                      : b.getBusinessId().compareTo(a.getBusinessId()));
+      for (LeaderboardEntry entry : merged.values()) {
+        if (entry.getFollowerCount() > 0) {
+          top.add(entry);
+          if (top.size() > CAPACITY) {
+            top.poll();
+          }
+        }
+      }
+      LeaderboardEntry[] entries = new LeaderboardEntry[top.size()];
+      for (int i = entries.length - 1; i >= 0; i--) {
+        entries[i] = top.poll();
+      }
+
+      List<String> entryIds = new ArrayList<>();
+      List<String> entryNames = new ArrayList<>();
+      List<Long> followerCounts = new ArrayList<>();
+      for (LeaderboardEntry entry : entries) {
+        entryIds.add(entry.getBusinessId());
+        entryNames.add(entry.getName());
+        followerCounts.add(entry.getFollowerCount());
+      }
+      Entity leaderboard = new Entity(leaderboardKey);
+      leaderboard.setUnindexedProperty(BUSINESS_IDS_PROPERTY, entryIds);
+      leaderboard.setUnindexedProperty(NAMES_PROPERTY, entryNames);
+      leaderboard.setUnindexedProperty(FOLLOWER_COUNTS_PROPERTY, followerCounts);
+      datastore.put(transaction, leaderboard);
+      transaction.commit();
+
+      List<LeaderboardEntry> result = new ArrayList<>();
+      for (LeaderboardEntry entry : entries) {
+        result.add(entry);
+      }
+      return result;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  private Map<String, String> getBusinessNames(Collection<String> businessIds) {
+    Map<String, String> names = new HashMap<>();
+    for (Map.Entry<String, Entity> profile :
+        profileRepository.getProfiles(businessIds).entrySet()) {
+      names.put(profile.getKey(), (String) profile.getValue().getProperty(NAME_PROPERTY));
+    }
+    return names;
+  }
+
+  private Entity getLeaderboardEntity(Transaction transaction) {
+    try {
+      return datastore.get(transaction, leaderboardKey);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<LeaderboardEntry> readEntries(Entity leaderboard) {
+    List<LeaderboardEntry> entries = new ArrayList<>();
+    if (leaderboard == null || leaderboard.getProperty(BUSINESS_IDS_PROPERTY) == null) {
+      // Datastore stores an empty list as no property at all.
+      return entries;
+    }
+    List<String> businessIds = (List<String>) leaderboard.getProperty(BUSINESS_IDS_PROPERTY);
+    List<String> names = (List<String>) leaderboard.getProperty(NAMES_PROPERTY);
+    List<Long> followerCounts = (List<Long>) leaderboard.getProperty(FOLLOWER_COUNTS_PROPERTY);
+    for (int i = 0; i < businessIds.size(); i++) {
+      entries.add(new LeaderboardEntry(businessIds.get(i), names.get(i), followerCounts.get(i)));
+    }
+    return entries;
+  }
+
+  private synchronized void cache(List<LeaderboardEntry> entries) {
+    cachedEntries = entries;
+    cacheExpiresAt = clock.getAsLong() + CACHE_TTL_MS;
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds copies of the follows from a single scan of datastore. Run by warmup and the refresh
+ * cron job, so requests don't wait on the scan.
+ */
+public final class FollowScan {
+  private static final int SCAN_CHUNK_SIZE = 1000;
+
+  private FollowScan() {}
+
+  public static void rebuild(DatastoreService datastore, FollowIndex... indexes) {
+    int begun = 0;
+    List<String> userIds = null;
+    List<String> businessIds = null;
+    try {
+      for (FollowIndex index : indexes) {
+        index.beginRebuild();
+        begun++;
+      }
+
+      List<String> scannedUserIds = new ArrayList<>();
+      List<String> scannedBusinessIds = new ArrayList<>();
+      for (Entity follow :
+          datastore
+              .prepare(new Query(FOLLOW_TASK_NAME))
+              .asIterable(FetchOptions.Builder.withChunkSize(SCAN_CHUNK_SIZE))) {
+        scannedUserIds.add((String) follow.getProperty(USER_ID_PROPERTY));
+        scannedBusinessIds.add((String) follow.getProperty(BUSINESS_ID_PROPERTY));
+      }
+      userIds = scannedUserIds;
+      businessIds = scannedBusinessIds;
+    } finally {
+      // Every begun index must finish, even if storing an earlier one failed.
+      RuntimeException failure = null;
+      for (int i = 0; i < begun; i++) {
+        try {
+          indexes[i].finishRebuild(userIds, businessIds);
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * The follows as last scanned by the refresh cron job, stored in datastore so that every instance
+ * can pick up the scan with a couple of gets rather than scanning the follows itself. The follows
+ * are split over chunk entities, which are written before the head entity that points at them, so a
+ * reader never sees half a snapshot.
+ */
+public final class FollowSnapshot implements FollowIndex {
+  public static final String SNAPSHOT_TASK_NAME = "FollowSnapshot";
+  public static final String CHUNK_TASK_NAME = "FollowSnapshotChunk";
+
+  private static final Key HEAD_KEY = KeyFactory.createKey(SNAPSHOT_TASK_NAME, "current");
+  private static final String TAKEN_AT_PROPERTY = "takenAt";
+  private static final String CHUNK_COUNT_PROPERTY = "chunkCount";
+  private static final String USER_IDS_PROPERTY = "userIds";
+  private static final String BUSINESS_IDS_PROPERTY = "businessIds";
+  private static final String KEY_SEPARATOR = "|";
+  private static final int FOLLOWS_PER_CHUNK = 5000;
+  private static final int MAX_KEYS_PER_GET = 1000;
+
+  private final DatastoreService datastore;
+  private final LongSupplier clock;
+
+  // When the scan being stored started, set by beginRebuild.
+  private long takenAtMillis;
+
+  public FollowSnapshot(DatastoreService datastore, LongSupplier clock) {
+    this.datastore = datastore;
+    this.clock = clock;
+  }
+
+  @Override
+  public void beginRebuild() {
+    takenAtMillis = clock.getAsLong();
+  }
+
+  /** Store the scanned follows in place of the last snapshot, or keep it if the scan failed. */
+  @Override
+  public void finishRebuild(List<String> userIds, List<String> businessIds) {
+    if (userIds == null) {
+      return;
+    }
+
+    Entity oldHead = getHead(datastore);
+    List<Entity> chunks = new ArrayList<>();
+    List<List<String>> userIdChunks = Lists.partition(userIds, FOLLOWS_PER_CHUNK);
+    List<List<String>> businessIdChunks = Lists.partition(businessIds, FOLLOWS_PER_CHUNK);
+    for (int i = 0; i < userIdChunks.size(); i++) {
+      Entity chunk = new Entity(createChunkKey(takenAtMillis, i));
+      chunk.setUnindexedProperty(USER_IDS_PROPERTY, new ArrayList<>(userIdChunks.get(i)));
+      chunk.setUnindexedProperty(BUSINESS_IDS_PROPERTY, new ArrayList<>(businessIdChunks.get(i)));
+      chunks.add(chunk);
+    }
+    datastore.put(chunks);
+
+    Entity head = new Entity(HEAD_KEY);
+    head.setUnindexedProperty(TAKEN_AT_PROPERTY, takenAtMillis);
+    head.setUnindexedProperty(CHUNK_COUNT_PROPERTY, (long) chunks.size());
+    datastore.put(head);
+
+    // Instances still reading the old chunks find them missing and try again later.
+    if (oldHead != null) {
+      datastore.delete(createChunkKeys(oldHead));
+    }
+  }
+
+  /**
+   * Read the stored snapshot if it was taken after the given time.
+   *
+   * @return the snapshot, or null if there is none newer or it was replaced while being read.
+   */
+  public static Contents read(DatastoreService datastore, long newerThanMillis) {
+    Entity head = getHead(datastore);
+    if (head == null || (long) head.getProperty(TAKEN_AT_PROPERTY) <= newerThanMillis) {
+      return null;
+    }
+
+    List<Key> chunkKeys = createChunkKeys(head);
+    List<String> userIds = new ArrayList<>();
+    List<String> businessIds = new ArrayList<>();
+    for (List<Key> batch : Lists.partition(chunkKeys, MAX_KEYS_PER_GET)) {
+      Map<Key, Entity> chunks = datastore.get(null, batch);
+      for (Key chunkKey : batch) {
+        Entity chunk = chunks.get(chunkKey);
+        if (chunk == null) {
+          return null;
+        }
+        userIds.addAll((List<String>) chunk.getProperty(USER_IDS_PROPERTY));
+        businessIds.addAll((List<String>) chunk.getProperty(BUSINESS_IDS_PROPERTY));
+      }
+    }
+    return new Contents((long) head.getProperty(TAKEN_AT_PROPERTY), userIds, businessIds);
+  }
+
+  private static Entity getHead(DatastoreService datastore) {
+    try {
+      return datastore.get(HEAD_KEY);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static List<Key> createChunkKeys(Entity head) {
+    long takenAt = (long) head.getProperty(TAKEN_AT_PROPERTY);
+    long chunkCount = (long) head.getProperty(CHUNK_COUNT_PROPERTY);
+    List<Key> chunkKeys = new ArrayList<>();
+    for (int i = 0; i < chunkCount; i++) {
+      chunkKeys.add(createChunkKey(takenAt, i));
+    }
+    return chunkKeys;
+  }
+
+  private static Key createChunkKey(long takenAtMillis, int index) {
+    return KeyFactory.createKey(CHUNK_TASK_NAME, takenAtMillis + KEY_SEPARATOR + index);
+  }
+
+  /** The follows of a stored snapshot, as parallel lists. */
+  public static final class Contents {
+    private final long takenAtMillis;
+    private final List<String> userIds;
+    private final List<String> businessIds;
+
+    private Contents(long takenAtMillis, List<String> userIds, List<String> businessIds) {
+      this.takenAtMillis = takenAtMillis;
+      this.userIds = userIds;
+      this.businessIds = businessIds;
+    }
+
+    public long getTakenAtMillis() {
+      return takenAtMillis;
+    }
+
+    public List<String> getUserIds() {
+      return userIds;
+    }
+
+    public List<String> getBusinessIds() {
+      return businessIds;
+    }
+  }
+}
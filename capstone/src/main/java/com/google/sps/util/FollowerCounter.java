@@ -0,0 +1,204 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Follower count of each business, split over several shard entities so that concurrent follows of
+ * a popular business rarely write to the same entity group. Each change goes to a random shard in
+ * the caller's transaction; reads sum every shard and are cached on this instance for a short time.
+ */
+public final class FollowerCounter {
+  public static final String SHARD_TASK_NAME = "FollowerCountShard";
+  public static final String BUSINESS_ID_PROPERTY = "businessId";
+  public static final String COUNT_PROPERTY = "count";
+  public static final int SHARD_COUNT = 20;
+
+  private static final String KEY_SEPARATOR = "|";
+  private static final int MAX_KEYS_PER_GET = 1000;
+  private static final long CACHE_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final FollowerCounter INSTANCE =
+      new FollowerCounter(DatastoreServiceFactory.getDatastoreService(), System::currentTimeMillis);
+
+  private final DatastoreService datastore;
+  private final LongSupplier clock;
+  private final ConcurrentMap<String, CachedCount> cachedCounts = new ConcurrentHashMap<>();
+
+  public FollowerCounter(DatastoreService datastore, LongSupplier clock) {
+    this.datastore = datastore;
+    this.clock = clock;
+  }
+
+  public static FollowerCounter getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Options for a transaction that changes a follow and its business' count. Follows and shards are
+   * in different entity groups, so the transaction must be cross-group.
+   */
+  public static TransactionOptions transactionOptions() {
+    return TransactionOptions.Builder.withXG(true);
+  }
+
+  /** Add to a business' count within a transaction started with {@link #transactionOptions()}. */
+  public void increment(Transaction transaction, String businessId, long delta) {
+    Key shardKey = createShardKey(businessId, ThreadLocalRandom.current().nextInt(SHARD_COUNT));
+    Entity shard;
+    try {
+      shard = datastore.get(transaction, shardKey);
+    } catch (EntityNotFoundException e) {
+      shard = new Entity(shardKey);
+      shard.setProperty(BUSINESS_ID_PROPERTY, businessId);
+      shard.setProperty(COUNT_PROPERTY, 0L);
+    }
+    shard.setProperty(COUNT_PROPERTY, (long) shard.getProperty(COUNT_PROPERTY) + delta);
+    datastore.put(transaction, shard);
+  }
+
+  /**
+   * Reflect a committed change in this instance's cached total, so a user sees their own follow.
+   * Other instances pick it up when their cached total expires.
+   */
+  public void recordCommitted(String businessId, long delta) {
+    cachedCounts.computeIfPresent(
+        businessId, (id, cached) -> new CachedCount(cached.count + delta, cached.expiresAt));
+  }
+
+  public long getCount(String businessId) {
+    long now = clock.getAsLong();
+    CachedCount cached = cachedCounts.get(businessId);
+    if (cached != null && cached.expiresAt > now) {
+      return cached.count;
+    }
+
+    long count = sumShards(datastore.get(createShardKeys(businessId)));
+    cachedCounts.put(businessId, new CachedCount(count, now + CACHE_TTL_MS));
+    return count;
+  }
+
+  /** The sum of a business' shards, read from Datastore rather than the cache. */
+  public long getStoredCount(String businessId) {
+    return sumShards(datastore.get(createShardKeys(businessId)));
+  }
+
+  /**
+   * The sums of several businesses' shards, read from Datastore rather than the cache in batches
+   * that stay under the 1000 key limit of a get.
+   *
+   * @return each business' count, including businesses without any shards.
+   */
+  public Map<String, Long> getStoredCounts(Collection<String> businessIds) {
+    Map<String, Long> counts = new HashMap<>();
+    List<Key> shardKeys = new ArrayList<>();
+    for (String businessId : businessIds) {
+      counts.put(businessId, 0L);
+      shardKeys.addAll(createShardKeys(businessId));
+    }
+    for (List<Key> batch : Lists.partition(shardKeys, MAX_KEYS_PER_GET)) {
+      for (Entity shard : datastore.get(null, batch).values()) {
+        counts.merge(
+            (String) shard.getProperty(BUSINESS_ID_PROPERTY),
+            (long) shard.getProperty(COUNT_PROPERTY),
+            Long::sum);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Correct a business' count to match the number of follows, which may have drifted if a write was
+   * lost. Follows are counted outside any transaction, so the correction is only applied if the
+   * stored count is still the one read before counting; otherwise a follow changed meanwhile and
+   * the count is left for the next run. The difference is applied to one shard so concurrent
+   * increments are not overwritten.
+   *
+   * @param storedCountBeforeCounting the result of {@link #getStoredCount} taken before counting.
+   * @param actualCount the number of follows counted.
+   * @return whether the count is now correct.
+   */
+  public boolean reconcile(String businessId, long storedCountBeforeCounting, long actualCount) {
+    Transaction transaction = datastore.beginTransaction(transactionOptions());
+    try {
+      long storedCount = sumShards(datastore.get(transaction, createShardKeys(businessId)));
+      if (storedCount != storedCountBeforeCounting) {
+        return false;
+      }
+      if (storedCount != actualCount) {
+        increment(transaction, businessId, actualCount - storedCount);
+      }
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+    cachedCounts.remove(businessId);
+    return true;
+  }
+
+  /** Forget every cached total. */
+  public void clearCache() {
+    cachedCounts.clear();
+  }
+
+  private static Key createShardKey(String businessId, int shardIndex) {
+    return KeyFactory.createKey(SHARD_TASK_NAME, businessId + KEY_SEPARATOR + shardIndex);
+  }
+
+  private static List<Key> createShardKeys(String businessId) {
+    List<Key> shardKeys = new ArrayList<>(SHARD_COUNT);
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      shardKeys.add(createShardKey(businessId, i));
+    }
+    return shardKeys;
+  }
+
+  private static long sumShards(Map<Key, Entity> shards) {
+    return shards.values().stream()
+        .mapToLong(shard -> (long) shard.getProperty(COUNT_PROPERTY))
+        .sum();
+  }
+
+  private static final class CachedCount {
+    private final long count;
+    private final long expiresAt;
+
+    private CachedCount(long count, long expiresAt) {
+      this.count = count;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.function.Function;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes JSON array responses one element at a time, so listings are never held in memory as a
+ * whole, either as objects or as one large string, and the first elements reach the client while
+ * the rest are still being read.
+ */
+public final class JsonStreamUtil {
+  /** How many elements are written between flushes to the client. */
+  public static final int FLUSH_INTERVAL = 100;
+
+  private static final Gson GSON = new Gson();
+
+  /** Write every item as an element of a JSON array. */
+  public static void writeJsonArray(HttpServletResponse response, Iterable<?> items)
+      throws IOException {
+    writeJsonArray(response, items, Function.identity());
+  }
+
+  /**
+   * Write a JSON array of the converted items. Items are converted only as they are written, so a
+   * lazy iterable, like a datastore query's, is read no faster than the client receives it.
+   * Response headers must be set beforehand, since the response is committed at the first flush.
+   */
+  public static <T> void writeJsonArray(
+      HttpServletResponse response, Iterable<T> items, Function<? super T, ?> converter)
+      throws IOException {
+    response.setContentType("application/json;");
+    PrintWriter writer = response.getWriter();
+    JsonWriter jsonWriter = new JsonWriter(writer);
+
+    jsonWriter.beginArray();
+    int written = 0;
+    for (T item : items) {
+      Object element = converter.apply(item);
+      if (element == null) {
+        jsonWriter.nullValue();
+      } else {
+        GSON.toJson(element, element.getClass(), jsonWriter);
+      }
+
+      written++;
+      if (written % FLUSH_INTERVAL == 0) {
+        jsonWriter.flush();
+        if (writer.checkError()) {
+          // The client went away, so there is no one to send the rest to.
+          return;
+        }
+      }
+    }
+    jsonWriter.endArray();
+    jsonWriter.flush();
+    writer.println();
+  }
+}
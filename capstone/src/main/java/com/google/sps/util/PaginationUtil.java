@@ -0,0 +1,24 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Paginated endpoints respond with a plain JSON array and, when more results may follow, send the
+ * cursor for the next page in a header. The client passes it back as the cursor parameter.
+ */
+public final class PaginationUtil {
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  public static final String CURSOR_PARAMETER = "cursor";
+}
@@ -0,0 +1,257 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.CasValues;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-through cache of UserProfile entities. Each instance keeps recently used profiles for a few
+ * seconds in a bounded least recently used map, in front of memcache, which holds them for a few
+ * minutes for every instance.
+ *
+ * <p>To keep a popular profile's expiry from sending every request to datastore at once, each read
+ * of a memcache entry may refresh it early, with a probability that rises as it nears expiry and
+ * with how long it took to load (probabilistic early expiration). Writes must call {@link
+ * #invalidate}; other instances may serve their local copy until it expires.
+ */
+public final class ProfileCache {
+  public static final int LOCAL_CAPACITY = 1000;
+  public static final long LOCAL_TTL_MS = TimeUnit.SECONDS.toMillis(10);
+  public static final long SHARED_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+  // Larger values refresh earlier; 1 is the usual choice.
+  private static final double EARLY_REFRESH_BETA = 1.0;
+  private static final String SHARED_KEY_PREFIX = "profile:";
+  // How long after an invalidation a read that started before it may not fill memcache.
+  private static final long INVALIDATION_HOLD_MS = TimeUnit.SECONDS.toMillis(2);
+
+  private static final ProfileCache INSTANCE =
+      new ProfileCache(
+          DatastoreServiceFactory.getDatastoreService(),
+          MemcacheServiceFactory.getMemcacheService(),
+          System::currentTimeMillis,
+          () -> 1 - ThreadLocalRandom.current().nextDouble());
+
+  private final DatastoreService datastore;
+  private final MemcacheService memcache;
+  private final LongSupplier clock;
+  private final DoubleSupplier random;
+  // Guarded by itself.
+  private final Map<String, LocalEntry> localProfiles =
+      new LinkedHashMap<String, LocalEntry>(16, 0.75f, /*accessOrder*/ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+          return size() > LOCAL_CAPACITY;
+        }
+      };
+
+  /**
+   * @param random source of uniformly distributed numbers in (0, 1].
+   */
+  public ProfileCache(
+      DatastoreService datastore,
+      MemcacheService memcache,
+      LongSupplier clock,
+      DoubleSupplier random) {
+    this.datastore = datastore;
+    this.memcache = memcache;
+    this.clock = clock;
+    this.random = random;
+  }
+
+  public static ProfileCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get a user's profile. The returned entity is a copy and may be modified.
+   *
+   * @throws EntityNotFoundException if the user has no profile. Missing profiles aren't cached.
+   */
+  public Entity get(String userId) throws EntityNotFoundException {
+    List<String> userIds = new ArrayList<>();
+    userIds.add(userId);
+    Entity profile = getAll(userIds).get(userId);
+    if (profile == null) {
+      throw new EntityNotFoundException(KeyFactory.createKey(PROFILE_TASK_NAME, userId));
+    }
+    return profile;
+  }
+
+  /**
+   * Get several users' profiles, with one memcache and at most one datastore batch call for those
+   * not cached on this instance. The returned entities are copies and may be modified.
+   *
+   * @return the profiles that exist, by user ID, in the order requested.
+   */
+  public Map<String, Entity> getAll(Collection<String> userIds) {
+    long now = clock.getAsLong();
+    Map<String, Entity> profiles = new HashMap<>();
+    List<String> sharedKeys = new ArrayList<>();
+    synchronized (localProfiles) {
+      for (String userId : new LinkedHashSet<>(userIds)) {
+        LocalEntry local = localProfiles.get(userId);
+        if (local != null && now < local.expiresAt) {
+          profiles.put(userId, local.profile);
+        } else {
+          sharedKeys.add(SHARED_KEY_PREFIX + userId);
+        }
+      }
+    }
+
+    if (!sharedKeys.isEmpty()) {
+      Map<String, IdentifiableValue> cached = memcache.getIdentifiables(sharedKeys);
+      List<Key> profileKeys = new ArrayList<>();
+      for (String sharedKey : sharedKeys) {
+        String userId = sharedKey.substring(SHARED_KEY_PREFIX.length());
+        IdentifiableValue value = cached.get(sharedKey);
+        SharedEntry shared = value == null ? null : (SharedEntry) value.getValue();
+        if (shared != null && !shouldRefreshEarly(shared, now)) {
+          cacheLocally(userId, shared.profile, Math.min(now + LOCAL_TTL_MS, shared.expiresAt));
+          profiles.put(userId, shared.profile);
+        } else {
+          profileKeys.add(KeyFactory.createKey(PROFILE_TASK_NAME, userId));
+        }
+      }
+      if (!profileKeys.isEmpty()) {
+        load(profileKeys, cached, now, profiles);
+      }
+    }
+
+    Map<String, Entity> orderedProfiles = new LinkedHashMap<>();
+    for (String userId : userIds) {
+      Entity profile = profiles.get(userId);
+      if (profile != null) {
+        orderedProfiles.put(userId, profile.clone());
+      }
+    }
+    return orderedProfiles;
+  }
+
+  /** Drop a profile that was just written, so the next read sees the change. */
+  public void invalidate(String userId) {
+    synchronized (localProfiles) {
+      localProfiles.remove(userId);
+    }
+    memcache.delete(SHARED_KEY_PREFIX + userId, INVALIDATION_HOLD_MS);
+  }
+
+  /** Forget every profile cached on this instance. */
+  public void clear() {
+    synchronized (localProfiles) {
+      localProfiles.clear();
+    }
+  }
+
+  /**
+   * Decide whether this read should reload an entry before it expires. The chance grows as expiry
+   * approaches and with how long the entry took to load, so usually a single reader refreshes it.
+   */
+  private boolean shouldRefreshEarly(SharedEntry shared, long now) {
+    return now - shared.loadMillis * EARLY_REFRESH_BETA * Math.log(random.getAsDouble())
+        >= shared.expiresAt;
+  }
+
+  /** Read profiles from datastore and store them in both tiers. */
+  private void load(
+      List<Key> profileKeys,
+      Map<String, IdentifiableValue> cached,
+      long now,
+      Map<String, Entity> profiles) {
+    Map<Key, Entity> loaded = datastore.get(profileKeys);
+    long loadedAt = clock.getAsLong();
+    Expiration expiration = Expiration.byDeltaMillis((int) SHARED_TTL_MS);
+
+    Map<String, SharedEntry> added = new HashMap<>();
+    Map<String, CasValues> refreshed = new HashMap<>();
+    for (Entity profile : loaded.values()) {
+      String userId = profile.getKey().getName();
+      String sharedKey = SHARED_KEY_PREFIX + userId;
+      SharedEntry fresh = new SharedEntry(profile, loadedAt - now, loadedAt + SHARED_TTL_MS);
+      if (cached.containsKey(sharedKey)) {
+        // Refused if the entry was invalidated or refreshed since it was read.
+        refreshed.put(sharedKey, new CasValues(cached.get(sharedKey), fresh, expiration));
+      } else {
+        added.put(sharedKey, fresh);
+      }
+      cacheLocally(userId, profile, loadedAt + LOCAL_TTL_MS);
+      profiles.put(userId, profile);
+    }
+
+    if (!added.isEmpty()) {
+      // Refused if the profile was invalidated moments ago, since this read may predate the write.
+      memcache.putAll(added, expiration, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+    if (!refreshed.isEmpty()) {
+      memcache.putIfUntouched(refreshed);
+    }
+  }
+
+  private void cacheLocally(String userId, Entity profile, long expiresAt) {
+    synchronized (localProfiles) {
+      localProfiles.put(userId, new LocalEntry(profile, expiresAt));
+    }
+  }
+
+  private static final class LocalEntry {
+    private final Entity profile;
+    private final long expiresAt;
+
+    private LocalEntry(Entity profile, long expiresAt) {
+      this.profile = profile;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** What memcache holds for a profile: the entity and when and how quickly it was loaded. */
+  private static final class SharedEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Entity profile;
+    private final long loadMillis;
+    private final long expiresAt;
+
+    private SharedEntry(Entity profile, long loadMillis, long expiresAt) {
+      this.profile = profile;
+      this.loadMillis = loadMillis;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -18,7 +18,12 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 public final class ProfileDatastoreUtil {
   public static final String PROFILE_TASK_NAME = "UserProfile";
@@ -37,19 +42,20 @@ public final class ProfileDatastoreUtil {
   public static final String NE_LNG_PROPERTY = "NE_Lng";
   public static final String ABOUT_PROPERTY = "about";
   public static final String SUPPORT_PROPERTY = "support";
+  public static final String VERSION_PROPERTY = "version";
+  public static final String LAST_MODIFIED_PROPERTY = "lastModified";
   public static final String ANONYMOUS_NAME = "Anonymous";
   public static final String NULL_STRING = "";
   public static final String NO = "No";
   public static final String YES = "Yes";
 
-  /** Get the username associated with a given Id */
-  public static String getProfileName(String userId, DatastoreService datastore)
-      throws IllegalArgumentException {
-    Key userKey = KeyFactory.createKey(PROFILE_TASK_NAME, userId);
+  private static final int MAX_TRANSACTION_ATTEMPTS = 3;
 
+  /** Get the username associated with a given Id */
+  public static String getProfileName(String userId) throws IllegalArgumentException {
     Entity userProfile;
     try {
-      userProfile = datastore.get(userKey);
+      userProfile = ProfileRepository.getInstance().getProfile(userId);
     } catch (EntityNotFoundException e) {
       throw new IllegalArgumentException(
           "Database does not contain an entity with the userId " + userId);
@@ -57,4 +63,126 @@ public final class ProfileDatastoreUtil {
 
     return (String) userProfile.getProperty(NAME_PROPERTY);
   }
+
+  public static BusinessProfile generateBusinessProfile(
+      Entity businessEntity, boolean isCurrentUser) {
+    String id = businessEntity.getKey().getName();
+    String name = (String) businessEntity.getProperty(NAME_PROPERTY);
+    String email = (String) businessEntity.getProperty(CALENDAR_PROPERTY);
+    String bio = (String) businessEntity.getProperty(BIO_PROPERTY);
+    String location = (String) businessEntity.getProperty(LOCATION_PROPERTY);
+    String story = (String) businessEntity.getProperty(STORY_PROPERTY);
+    String about = (String) businessEntity.getProperty(ABOUT_PROPERTY);
+    String support = (String) businessEntity.getProperty(SUPPORT_PROPERTY);
+
+    return new BusinessProfile(
+        id, name, location, bio, story, about, email, support, isCurrentUser);
+  }
+
+  /**
+   * Set the given values on a profile, leaving alone those it already holds.
+   *
+   * @return the names of the properties that changed, or were not set before.
+   */
+  public static Set<String> applyChanges(Entity profile, Map<String, Object> values) {
+    Set<String> changed = new HashSet<>();
+    for (Map.Entry<String, Object> value : values.entrySet()) {
+      String property = value.getKey();
+      if (!profile.hasProperty(property)
+          || !Objects.equals(profile.getProperty(property), value.getValue())) {
+        profile.setProperty(property, value.getValue());
+        changed.add(property);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Set the given values on the stored profile with this key, or on a new profile if there is none,
+   * and save it as its next version. The profile is read and written in one transaction, so an edit
+   * made meanwhile is never overwritten with values read before it; on a collision the values are
+   * applied again to the newer profile.
+   *
+   * @return the names of the properties that changed. Nothing is written if none did.
+   * @throws ConcurrentModificationException if every attempt collided with other writes.
+   */
+  public static Set<String> putChanges(
+      DatastoreService datastore, Key key, Map<String, Object> values) {
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity profile;
+        long version = 0;
+        try {
+          profile = datastore.get(transaction, key);
+          version = getVersion(profile);
+        } catch (EntityNotFoundException e) {
+          profile = new Entity(key);
+        }
+
+        Set<String> changed = applyChanges(profile, values);
+        if (!changed.isEmpty()) {
+          setVersion(profile, version + 1);
+          datastore.put(transaction, profile);
+          transaction.commit();
+        }
+        return changed;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Save a profile as the next version of the one it replaces, stamped with when it was written, so
+   * clients holding an older copy can tell that it changed.
+   */
+  public static void putNewVersion(Entity profile, DatastoreService datastore) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      long version = 0;
+      try {
+        version = getVersion(datastore.get(transaction, profile.getKey()));
+      } catch (EntityNotFoundException e) {
+        // This is the first version.
+      }
+      setVersion(profile, version + 1);
+      datastore.put(transaction, profile);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Mark a profile that is about to be written as the given version, modified now. Callers that
+   * write many new profiles at once use this directly, since each is known to be the first version.
+   */
+  public static void setVersion(Entity profile, long version) {
+    profile.setUnindexedProperty(VERSION_PROPERTY, version);
+    profile.setUnindexedProperty(LAST_MODIFIED_PROPERTY, System.currentTimeMillis());
+  }
+
+  /**
+   * @return the profile's version, or 0 for profiles saved before versions were kept.
+   */
+  public static long getVersion(Entity profile) {
+    Long version = (Long) profile.getProperty(VERSION_PROPERTY);
+    return version == null ? 0 : version;
+  }
+
+  /**
+   * @return when the profile was last written, or null if that was before it was recorded.
+   */
+  public static Long getLastModifiedTime(Entity profile) {
+    return (Long) profile.getProperty(LAST_MODIFIED_PROPERTY);
+  }
 }
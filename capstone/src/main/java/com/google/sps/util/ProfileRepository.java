@@ -0,0 +1,93 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Where every read of a single profile, or a known set of profiles, goes. Profiles are looked up by
+ * key through the profile cache, never by query, so reads are strongly consistent when they reach
+ * datastore and several profiles cost one batch call. Whether a profile is a business is checked on
+ * the fetched entity.
+ */
+public final class ProfileRepository {
+  private static final ProfileRepository INSTANCE =
+      new ProfileRepository(ProfileCache.getInstance());
+
+  private final ProfileCache profileCache;
+
+  public ProfileRepository(ProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  public static ProfileRepository getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @throws EntityNotFoundException if the user has no profile.
+   */
+  public Entity getProfile(String userId) throws EntityNotFoundException {
+    return profileCache.get(userId);
+  }
+
+  /**
+   * @return the profiles that exist, by user ID, in the order requested.
+   */
+  public Map<String, Entity> getProfiles(Collection<String> userIds) {
+    return profileCache.getAll(userIds);
+  }
+
+  /**
+   * @throws EntityNotFoundException if there is no profile, or it is not a business'.
+   */
+  public Entity getBusiness(String businessId) throws EntityNotFoundException {
+    Entity profile = profileCache.get(businessId);
+    if (!isBusiness(profile)) {
+      throw new EntityNotFoundException(profile.getKey());
+    }
+    return profile;
+  }
+
+  /**
+   * @return the businesses that exist, by business ID, in the order requested.
+   */
+  public Map<String, Entity> getBusinesses(Collection<String> businessIds) {
+    Map<String, Entity> profiles = profileCache.getAll(businessIds);
+    Iterator<Entity> iterator = profiles.values().iterator();
+    while (iterator.hasNext()) {
+      if (!isBusiness(iterator.next())) {
+        iterator.remove();
+      }
+    }
+    return profiles;
+  }
+
+  /** Drop a profile that was just written from the cache, so the next read sees the change. */
+  public void invalidate(String userId) {
+    profileCache.invalidate(userId);
+  }
+
+  public static boolean isBusiness(Entity profile) {
+    return YES.equals(profile.getProperty(IS_BUSINESS_PROPERTY));
+  }
+}
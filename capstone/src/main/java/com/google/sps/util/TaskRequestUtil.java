@@ -0,0 +1,34 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.users.UserService;
+import javax.servlet.http.HttpServletRequest;
+
+public final class TaskRequestUtil {
+  public static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  public static final String CRON_HEADER = "X-Appengine-Cron";
+
+  /**
+   * Whether a request may run a background job. App Engine strips the task queue and cron headers
+   * from outside requests, so their presence means the request came from App Engine itself.
+   * Logged-in admins may also run jobs by hand.
+   */
+  public static boolean isTaskRequest(HttpServletRequest request, UserService userService) {
+    return request.getHeader(QUEUE_NAME_HEADER) != null
+        || request.getHeader(CRON_HEADER) != null
+        || (userService.isUserLoggedIn() && userService.isUserAdmin());
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-key token buckets held in a lock-striped in-memory table. Each key hashes to one of a fixed
+ * number of stripes, so callers only contend with others whose keys share a stripe, and each stripe
+ * forgets its least recently used buckets once it is full.
+ *
+ * <p>Buckets are per instance. An optional memcache store additionally caps each key across all
+ * instances with a fixed-window counter; it is only consulted when the local bucket allows the
+ * request, and the limiter lets requests through if memcache is unavailable.
+ */
+public final class TokenBucketRateLimiter {
+  private static final int STRIPE_COUNT = 64;
+  private static final int MAX_BUCKETS_PER_STRIPE = 1024;
+  private static final String SHARED_KEY_PREFIX = "rate-limit:";
+
+  private final String name;
+  private final double capacity;
+  private final double tokensPerNano;
+  private final long windowNanos;
+  private final MemcacheService sharedStore;
+  private final LongSupplier nanoClock;
+  private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+  /**
+   * @param name distinguishes this limiter's keys in the shared store.
+   * @param capacity the largest burst of requests a key may make.
+   * @param tokensPerSecond how quickly a key's allowance refills.
+   * @param sharedStore memcache used to apply the limit across instances, or null.
+   * @param nanoClock source of the current time in nanoseconds.
+   */
+  public TokenBucketRateLimiter(
+      String name,
+      int capacity,
+      double tokensPerSecond,
+      MemcacheService sharedStore,
+      LongSupplier nanoClock) {
+    this.name = name;
+    this.capacity = capacity;
+    this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+    // A full bucket refills in one window, so a key gets at most capacity requests per window.
+    this.windowNanos = (long) (capacity / tokensPerNano);
+    this.sharedStore = sharedStore;
+    this.nanoClock = nanoClock;
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  public TokenBucketRateLimiter(
+      String name, int capacity, double tokensPerSecond, MemcacheService sharedStore) {
+    this(name, capacity, tokensPerSecond, sharedStore, System::nanoTime);
+  }
+
+  /**
+   * Take a token for a key if one is available.
+   *
+   * @return 0 if the request may go ahead, otherwise how many seconds to wait before retrying.
+   */
+  public long tryAcquire(String key) {
+    long now = nanoClock.getAsLong();
+    long waitNanos;
+
+    Stripe stripe = stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPE_COUNT];
+    synchronized (stripe) {
+      Bucket bucket = stripe.buckets.get(key);
+      if (bucket == null) {
+        bucket = new Bucket(capacity, now);
+        stripe.buckets.put(key, bucket);
+      }
+      waitNanos = bucket.tryTake(now);
+    }
+
+    if (waitNanos == 0 && sharedStore != null) {
+      waitNanos = checkSharedWindow(key, now);
+    }
+    // Round up so clients never retry before a token is actually available.
+    return TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+  }
+
+  private long checkSharedWindow(String key, long now) {
+    long window = now / windowNanos;
+    Long count = sharedStore.increment(SHARED_KEY_PREFIX + name + ":" + key + ":" + window, 1L, 0L);
+    if (count == null || count <= capacity) {
+      return 0;
+    }
+    return (window + 1) * windowNanos - now;
+  }
+
+  /** One stripe of the table: a bounded map of buckets in least recently used order. */
+  private static final class Stripe {
+    private final Map<String, Bucket> buckets =
+        new LinkedHashMap<String, Bucket>(16, 0.75f, /*accessOrder*/ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_BUCKETS_PER_STRIPE;
+          }
+        };
+  }
+
+  /** Tokens are refilled lazily from the time elapsed since the bucket was last used. */
+  private final class Bucket {
+    private double tokens;
+    private long lastRefillNanos;
+
+    private Bucket(double tokens, long now) {
+      this.tokens = tokens;
+      this.lastRefillNanos = now;
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise nanoseconds until one will be available.
+     */
+    private long tryTake(long now) {
+      tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+      lastRefillNanos = now;
+      if (tokens >= 1) {
+        tokens -= 1;
+        return 0;
+      }
+      return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+  }
+}
@@ -15,8 +15,6 @@
 import { buildCommentForm, loadCommentList } from '/js/comments.js';
 import { 
   buildButton,
-  checkUserLoggedIn,
-  getJsonObject,
   makeRequest
   } from '/js/util.js';
 
@@ -31,14 +29,24 @@ window.addEventListener('DOMContentLoaded', (event) =>  {
   // window.location.search returns the search string of the URL.
   // In this case, window.location.search = ?id={businessID}
   const businessId = getBusinessId();
-  constructBusinessProfile(businessId);
 
-  const commentSection = document.getElementById('comment-section');
-  checkUserLoggedIn().then(userIsLoggedIn => {
-    commentSection.appendChild(buildCommentForm(userIsLoggedIn, businessId));
-    commentSection.appendChild(loadCommentList('businessId', businessId));
-    initFollowButton();
-  })
+  // Everything the page shows comes back from one request.
+  fetch('/page/business/' + businessId)
+      .then(response => {
+          if (!response.ok) {
+            // Redirect to BusinessServlet, which displays the appropriate error.
+            window.location.href = '/business/' + businessId;
+          }
+          return response.json();
+      }).then(page => {
+        constructBusinessProfile(page.business);
+
+        const commentSection = document.getElementById('comment-section');
+        const userIsLoggedIn = page.user.isLoggedin;
+        commentSection.appendChild(buildCommentForm(userIsLoggedIn, businessId));
+        commentSection.appendChild(loadCommentList(userIsLoggedIn, businessId, page.comments));
+        initFollowButton(page.isFollowing);
+      });
 })
 
 // If user answered the first question: whether they are a business user or not,
@@ -105,66 +113,54 @@ function geocoderPromise(request) {
 }
 
 // Set the correct values for both view and edit sections.
-function constructBusinessProfile(id) {
-  const profileInfo = document.getElementById('view-business-section');
+function constructBusinessProfile(info) {
   const profileButton = document.getElementById('profile-button');
 
-  fetch('/business/' + id)
-      .then(response => {
-          if (!response.ok) {
-            // Redirect to BusinessServlet, which displays the appropriate error.
-            window.location.href = '/business/' + id;
-          }
-          return response.json();
-      }).then(info => {
-        if (info.isCurrentUser) {
-          document.getElementById('edit-button').style.display = 'block';
-          document.getElementById('getStarted-button').style.display = 'block';
-          profileButton.classList.add('active');
-        } else {
-          document.getElementById('edit-button').style.display = 'none';
-          document.getElementById('getStarted-button').style.display = 'none';
-          profileButton.classList.remove('active');
-        }
-        
-        const calendarDiv = document.getElementById('business-calendar');
-        if (info.calendarEmail != '') {
-          calendarDiv.style.display = 'block';
-          let calendar = document.createElement('iframe');
-          calendar.src = calendarBaseURL + info.calendarEmail;
-          calendar.height = '900px';
-          calendar.width = '1110px';
-          calendarDiv.appendChild(calendar);
-          
-          document.getElementById('edit-calendar').value = info.calendarEmail;
-          const previewCalendar = document.getElementById('edit-calendar-preview');
-          previewCalendar.style.display = 'block';
-          previewCalendar.src = calendarBaseURL + info.calendarEmail;
-          previewCalendar.height = '900px';
-          previewCalendar.width = '1110px';
-          document.getElementById('calendar-warning').style.display = 'block';
-        }
-
-        createProfileMap(info['location']);
-
-        ['name', 'location', 'story', 'bio', 'about', 'support'].forEach(property => {
-          document.getElementById('business-' + property).innerText = info[property];
-          document.getElementById('edit-' + property).value = info[property];
-        })
-      })
+  if (info.isCurrentUser) {
+    document.getElementById('edit-button').style.display = 'block';
+    document.getElementById('getStarted-button').style.display = 'block';
+    profileButton.classList.add('active');
+  } else {
+    document.getElementById('edit-button').style.display = 'none';
+    document.getElementById('getStarted-button').style.display = 'none';
+    profileButton.classList.remove('active');
+  }
+  
+  const calendarDiv = document.getElementById('business-calendar');
+  if (info.calendarEmail != '') {
+    calendarDiv.style.display = 'block';
+    let calendar = document.createElement('iframe');
+    calendar.src = calendarBaseURL + info.calendarEmail;
+    calendar.height = '900px';
+    calendar.width = '1110px';
+    calendarDiv.appendChild(calendar);
+    
+    document.getElementById('edit-calendar').value = info.calendarEmail;
+    const previewCalendar = document.getElementById('edit-calendar-preview');
+    previewCalendar.style.display = 'block';
+    previewCalendar.src = calendarBaseURL + info.calendarEmail;
+    previewCalendar.height = '900px';
+    previewCalendar.width = '1110px';
+    document.getElementById('calendar-warning').style.display = 'block';
+  }
+
+  createProfileMap(info['location']);
+
+  ['name', 'location', 'story', 'bio', 'about', 'support'].forEach(property => {
+    document.getElementById('business-' + property).innerText = info[property];
+    document.getElementById('edit-' + property).value = info[property];
+  })
 }
 
-function initFollowButton() {
-  getJsonObject('/follow', {'businessId' : getBusinessId()}).then(isFollowingBusiness => {
-    if (!isFollowingBusiness) {
-      // Change follow button to unfollow button
-      setFollowButtonToFollow();
+function initFollowButton(isFollowingBusiness) {
+  if (!isFollowingBusiness) {
+    // Change follow button to unfollow button
+    setFollowButtonToFollow();
 
-    } else {
-      // Keep it as the follow button and add the eventlistener
-      setFollowButtonToUnfollow();
-    }
-  });
+  } else {
+    // Keep it as the follow button and add the eventlistener
+    setFollowButtonToUnfollow();
+  }
 }
 
 function setFollowButtonToFollow() {
@@ -17,9 +17,12 @@ import {
   buildButton,
   buildLinkElement,
   getJsonObject, 
+  makeGetRequest,
   removeAllChildNodes,
   } from '/js/util.js';
 
+const COMMENT_POLL_INTERVAL_MS = 10000;
+
 /** Build form for submitting comments. */
 export function buildCommentForm(userIsLoggedIn, businessId, parentId=null) {
   const form = document.createElement('form');
@@ -94,13 +97,20 @@ function buildHiddenStaticFormField(name, value) {
   return field;
 }
 
-/** Load a list of comments that the user posted */
-export function loadUserPageCommentList(userId) {
+/** 
+* Load a list of comments that the user posted. Pages that already loaded the comments, and the 
+* names of the businesses they were posted on, pass them in, saving requests.
+*/
+export function loadUserPageCommentList(userId, initialComments, businessNames = {}) {
   const commentContainer = document.createElement('div');
 
-  getJsonObject('/comments', {'userId': userId})
+  const commentsPromise = initialComments
+      ? Promise.resolve(initialComments)
+      : getJsonObject('/comments', {'userId': userId});
+  commentsPromise
       .then(comments => comments.forEach(comment => 
-          commentContainer.appendChild(buildUserPageComment(comment))
+          commentContainer.appendChild(
+              buildUserPageComment(comment, businessNames[comment.businessId]))
       ));
 
   return commentContainer;
@@ -110,13 +120,16 @@ export function loadUserPageCommentList(userId) {
 * Given a comment object build a comment element on the web page. 
 * This function is meant for comments appearing on a list of comments the user posted.
 */
-function buildUserPageComment(comment) {
+function buildUserPageComment(comment, businessName) {
   const commentElement = buildCommentElement(comment);
   const commentBody = commentElement.querySelector('.card-body');
 
-  getJsonObject('/business/' + comment.businessId).then(business => {
+  const namePromise = businessName
+      ? Promise.resolve(businessName)
+      : getJsonObject('/business/' + comment.businessId).then(business => business.name);
+  namePromise.then(name => {
     const businessPageLink = 
-        buildLinkElement('/business.html?id=' + comment.businessId, 'On ' + business.name /*As in on ...'s page*/); 
+        buildLinkElement('/business.html?id=' + comment.businessId, 'On ' + name /*As in on ...'s page*/); 
         
     // change text color to red
     businessPageLink.className = 'text-danger' 
@@ -130,18 +143,77 @@ function buildUserPageComment(comment) {
 * Load comment section given the parentDiv in which to load the comments, the property to filter 
 * comments by ('businessId' or 'userId') and the value to filter the comments by 
 */
-export function loadCommentList(userIsLoggedIn, businessId) {
+export function loadCommentList(userIsLoggedIn, businessId, initialComments) {
   const commentContainer = document.createElement('div');
   commentContainer.id = 'comments';
   
-  getJsonObject('/comments', {'businessId': businessId})
-      .then(comments => comments.forEach(comment => 
-          commentContainer.appendChild(buildTopLevelCommentElement(comment, userIsLoggedIn))
-      ));
+  // Pages that already loaded the newest comments pass them in, saving a request.
+  const commentsPromise = initialComments 
+      ? Promise.resolve(initialComments) 
+      : getJsonObject('/comments', {'businessId': businessId});
+  commentsPromise
+      .then(comments => {
+        comments.forEach(comment => 
+            commentContainer.appendChild(buildTopLevelCommentElement(comment, userIsLoggedIn))
+        );
+
+        // Comments are sorted newest first, so stream everything posted after the first one
+        const since = comments.length > 0 ? comments[0].timestamp : Date.now();
+        streamNewComments(commentContainer, userIsLoggedIn, businessId, since);
+      });
 
   return commentContainer
 }
 
+/** Add comments to the top of the comment section as they are posted */
+function streamNewComments(commentContainer, userIsLoggedIn, businessId, since) {
+  if (typeof EventSource === 'undefined') {
+    pollNewComments(commentContainer, userIsLoggedIn, businessId, since);
+    return;
+  }
+
+  const stream = new EventSource(
+      '/comments/stream?businessId=' + businessId + '&since=' + since);
+
+  stream.addEventListener('comment', event => {
+    const comment = JSON.parse(event.data);
+
+    // A reconnect may replay a comment that is already on the page
+    if (document.getElementById(comment.id) !== null) {
+      return;
+    }
+
+    commentContainer.prepend(buildTopLevelCommentElement(comment, userIsLoggedIn));
+  });
+}
+
+/**
+ * Fallback for browsers without EventSource: ask only for comments newer than the last poll.
+ * Every poll sends the same since, and resumes from the cursor the last poll returned.
+ */
+function pollNewComments(commentContainer, userIsLoggedIn, businessId, since, cursor) {
+  setTimeout(() => {
+    const parameters = {'businessId': businessId, 'since': since};
+    if (cursor) {
+      parameters['cursor'] = cursor;
+    }
+    makeGetRequest('/comments', parameters).then(response => {
+      // 204 means nothing was posted since the last poll
+      if (response.status !== 200) {
+        return cursor;
+      }
+
+      return response.json().then(delta => {
+        delta.comments.forEach(comment => commentContainer.prepend(
+            buildTopLevelCommentElement(comment, userIsLoggedIn)));
+
+        return delta.cursor;
+      });
+    }).then(nextCursor =>
+        pollNewComments(commentContainer, userIsLoggedIn, businessId, since, nextCursor));
+  }, COMMENT_POLL_INTERVAL_MS);
+}
+
 function buildTopLevelCommentElement(comment, userIsLoggedIn) {
   const commentElement = buildCommentElement(comment);
 
@@ -12,12 +12,13 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-import { buildElement, getJsonObject } from '/js/util.js';
+import { buildButton, buildElement, getJsonObject, getPage } from '/js/util.js';
 
 let map, infoWindow;
 let markers = [];
 let autocomplete;
 let MARKER_PATH = 'https://developers.google.com/maps/documentation/javascript/images/marker_green';
+const BUSINESS_PAGE_SIZE = 100;
 
 window.addEventListener('DOMContentLoaded', (event) => {
   // Check whether it's a new user.
@@ -50,31 +51,61 @@ function populateBusinessList() {
   header.className = 'text-center';
   businessList.appendChild(header);
 
-  getFollowedBusinesses().then(followSet =>
-    getJsonObject('/businesses').then(businesses => {
-      businesses.filter(business => !followSet.has(business.id)).forEach(business => {
-        businessList.appendChild(createCard(business));
-      })
-    })
-  );
+  getFollowedBusinesses().then(followSet => appendBusinessPage(businessList, followSet, null));
 }
 
-function getFollowedBusinesses() {
-  return getFollows()
-      .then(followArray => followArray.map(follow => follow.businessId))
-      .then(followedBusinessArray => new Set(followedBusinessArray));
-}
+/**
+ * Add a page of businesses to the list, followed by a button that loads the next page if there
+ * is one.
+ */
+function appendBusinessPage(businessList, followSet, cursor) {
+  let parameters = {'view': 'summary', 'limit': BUSINESS_PAGE_SIZE};
+  if (cursor) {
+    parameters.cursor = encodeURIComponent(cursor);
+  }
+
+  getPage('/businesses', parameters).then(page => {
+    page.items.filter(business => !followSet.has(business.id)).forEach(business => {
+      businessList.appendChild(createCard(business));
+    });
 
-function getFollows() {
-  return getJsonObject('/login').then(user => {
-    if (user.isLoggedin) {
-      return getJsonObject('/follows', {'userId': user.userId});
-    } else {
-      return [];
+    if (page.cursor) {
+      const moreButton = buildButton(
+          'btn btn-danger mb-2',
+          () => {
+            businessList.removeChild(moreButton);
+            appendBusinessPage(businessList, followSet, page.cursor);
+          },
+          'More businesses');
+      businessList.appendChild(moreButton);
     }
   });
 }
 
+async function getFollowedBusinesses() {
+  const follows = await getFollows();
+  return new Set(follows.map(follow => follow.businessId));
+}
+
+/** Get every follow of the signed in user, a page at a time from /follows. */
+async function getFollows() {
+  const user = await getJsonObject('/login');
+  if (!user.isLoggedin) {
+    return [];
+  }
+
+  let follows = [];
+  let parameters = {'userId': user.userId};
+  while (true) {
+    const page = await getPage('/follows', parameters);
+    follows = follows.concat(page.items);
+    if (!page.cursor) {
+      return follows;
+    }
+    parameters = {'userId': user.userId, 'cursor': encodeURIComponent(page.cursor)};
+  }
+}
+
 function createCard(business) {
   let businessCard = document.createElement('div');
   businessCard.classList.add('business-card');
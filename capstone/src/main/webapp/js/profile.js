@@ -13,18 +13,28 @@
 // limitations under the License.
 
 import { loadCommentList, loadUserPageCommentList } from '/js/comments.js'
-import { getJsonObject } from '/js/util.js';
+import { getJsonObject, getPage } from '/js/util.js';
 
-// Toggle between view and edit profile options.
 window.addEventListener('DOMContentLoaded', (event) =>  {
-  displayProfile();
-  displayCalendar();
-  
-  const url = new URLSearchParams(window.location.search);
-  const profileId = url.get('id');
-  document
-      .getElementById('comment-section')
-      .appendChild(loadUserPageCommentList(profileId));
+  const profileId = getId();
+
+  // Everything the page shows comes back from one request.
+  fetch('/page/profile/' + profileId)
+    .then(response => {
+      if (!response.ok) {
+        throw new Error("404 error");
+      }
+      return response.json();
+    })
+    .then(page => {
+      displayProfile(page.profile);
+      displayCalendar(page);
+      document
+          .getElementById('comment-section')
+          .appendChild(loadUserPageCommentList(profileId, page.comments, page.businessNames));
+    }).catch((e) => {
+      redirectToDefaultPage(profileId);
+    });
 })
 
 // Toggle between view and edit profile options.
@@ -53,22 +63,10 @@ window.hasAnswerQuestionnaire = function() {
 }
 
 // Display the correct profile information.
-function displayProfile() {
-  let id = getId();
-  fetch('/profile/'+id)
-    .then(response => {
-      if (!response.ok) {
-        throw new Error("404 error");
-      }
-      return response.json();
-    })
-    .then((userProfile) => {
-      createProfile(userProfile.name, userProfile.location, userProfile.bio);
-      displayEditButton(userProfile.isCurrentUser);
-      setEditValues(userProfile.name, userProfile.location, userProfile.bio);
-    }).catch((e) => {
-      redirectToDefaultPage(id);
-    });
+function displayProfile(userProfile) {
+  createProfile(userProfile.name, userProfile.location, userProfile.bio);
+  displayEditButton(userProfile.isCurrentUser);
+  setEditValues(userProfile.name, userProfile.location, userProfile.bio);
 }
 
 function redirectToDefaultPage(id) {
@@ -223,30 +221,28 @@ function geocodeAddress(address, geocoder, resultsMap, bounds) {
   });
 }
 
-async function displayCalendar() {
-  const userId = getId();
+async function displayCalendar(page) {
+  let emails = page.followedBusinesses.map(business => business.calendarEmail);
 
-  getJsonObject('/follows', {'userId': userId}).then(businessIds =>
-    generateCalendarSrc(businessIds).then(calendarSrc => {
-      const calendarSection = document.getElementById('calendar-section');
-      if (calendarSrc == '') {
-        calendarSection.style.display = 'none';
-      } else {
-        calendarSection.style.display = 'block';
-        const calendarIframe = document.getElementById('calendar')
-        calendarSrc += '&title=Followed Businesses';
-        calendarIframe.src = 'https://calendar.google.com/calendar/embed?src=' + calendarSrc;
-      }
-    })
-  );
-}
+  // The page holds the first follows; the rest are read a page at a time from /follows.
+  let cursor = page.followsCursor;
+  while (cursor) {
+    const follows = await getPage(
+        '/follows', {'userId': page.profile.id, 'cursor': encodeURIComponent(cursor)});
+    emails = emails.concat(await Promise.all(follows.items.map(follow =>
+        getJsonObject('/business/' + follow.businessId)
+            .then(businessInfo => businessInfo.calendarEmail))));
+    cursor = follows.cursor;
+  }
 
-function generateCalendarSrc(businessIds) {
-  const businessIdsPromise = 
-      Promise.all(businessIds.map(businessId =>
-          getJsonObject('/business/' + businessId.businessId)
-              .then(businessInfo => businessInfo.calendarEmail)));
-  return businessIdsPromise
-      .then(emails => emails.filter(email => email != null))
-      .then(emails => emails.join('&src='));
+  const calendarSrc = emails.filter(email => email != null && email != '').join('&src=');
+  const calendarSection = document.getElementById('calendar-section');
+  if (calendarSrc == '') {
+    calendarSection.style.display = 'none';
+  } else {
+    calendarSection.style.display = 'block';
+    const calendarIframe = document.getElementById('calendar')
+    calendarIframe.src = 'https://calendar.google.com/calendar/embed?src=' + calendarSrc
+        + '&title=Followed Businesses';
+  }
 }
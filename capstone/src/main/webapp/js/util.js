@@ -108,6 +108,16 @@ export function getJsonObject(url, parameters = {}) {
   return makeGetRequest(url, parameters).then(response => response.json());
 }
 
+/**
+ * Get one page of a paginated Json array. The cursor for the next page is read from the
+ * X-Next-Cursor header, and is null on the last page.
+ */
+export async function getPage(url, parameters = {}) {
+  const response = await makeGetRequest(url, parameters);
+  const items = await response.json();
+  return {items: items, cursor: response.headers.get('X-Next-Cursor')};
+}
+
 export function makeRequest(url, parameters, type) {
   if (Object.keys(parameters).length > 0) {
     // Add parameter fields to the url as query parameters
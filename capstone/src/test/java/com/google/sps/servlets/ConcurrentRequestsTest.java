@@ -0,0 +1,409 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
+import static com.google.sps.data.CommentDatastoreUtil.CONTENT_PROPERTY;
+import static com.google.sps.data.CommentSearchUtil.getCommentIndex;
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LAT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LONG_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NE_LAT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NE_LNG_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NO;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.SW_LAT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.SW_LNG_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.util.BenchmarkUtil.assumeBenchmarksEnabled;
+import static com.google.sps.util.BenchmarkUtil.report;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.search.GetRequest;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.sps.data.CommentSearchUtil;
+import com.google.sps.data.FollowGraph;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileCache;
+import com.google.sps.util.DelayedApiProxyDelegate;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Sends requests to shared servlet instances from many threads at once, as an instance serving
+ * concurrent requests does, and checks that every request succeeds and the results add up.
+ */
+public class ConcurrentRequestsTest {
+  private static final String USER_ID_KEY =
+      "com.google.appengine.api.users.UserService.user_id_key";
+  private static final String AUTH_DOMAIN = "gmail.com";
+  private static final String BUSINESS_ID_PREFIX = "business";
+  private static final int BUSINESSES = 4;
+  // The default number of requests App Engine sends an automatically scaled instance at once.
+  private static final int THREADS = 10;
+  private static final long DATASTORE_DELAY_MS = 20;
+
+  // Every thread sends each kind of request for each business, in this order.
+  private static final int GET_BUSINESS = 0;
+  private static final int GET_BUSINESS_PAGE = 1;
+  private static final int GET_MAP = 2;
+  private static final int POST_COMMENT = 3;
+  private static final int GET_COMMENTS = 4;
+  private static final int POST_FOLLOW = 5;
+  private static final int GET_FOLLOWS = 6;
+  private static final int REQUEST_KINDS = 7;
+  private static final int REQUESTS_PER_THREAD = REQUEST_KINDS * BUSINESSES;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalSearchServiceTestConfig().setPersistent(false),
+              new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"))
+          .setEnvAuthDomain(AUTH_DOMAIN)
+          .setEnvIsLoggedIn(true);
+
+  private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+  private final Logger indexLogger = Logger.getLogger(CommentSearchUtil.class.getName());
+  // Comments that fail to index are only logged, so count those warnings as failed requests.
+  private final Handler indexFailures =
+      new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+          if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+            errors.add("index write: " + record.getMessage());
+          }
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+      };
+
+  private Environment testEnvironment;
+  private DatastoreService datastore;
+  private BusinessServlet businessServlet;
+  private PageServlet pageServlet;
+  private MapServlet mapServlet;
+  private CommentServlet commentServlet;
+  private CommentsServlet commentsServlet;
+  private FollowServlet followServlet;
+  private FollowsServlet followsServlet;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    testEnvironment = ApiProxy.getCurrentEnvironment();
+    indexLogger.addHandler(indexFailures);
+    ProfileCache.getInstance().clear();
+    FollowerCounter.getInstance().clearCache();
+    FollowLeaderboard.getInstance().clear();
+    FollowGraph.getInstance().clear();
+
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int i = 0; i < BUSINESSES; i++) {
+      Entity business = new Entity(PROFILE_TASK_NAME, BUSINESS_ID_PREFIX + i);
+      business.setProperty(IS_BUSINESS_PROPERTY, YES);
+      business.setProperty(NAME_PROPERTY, "Business " + i);
+      business.setProperty(LOCATION_PROPERTY, "Mountain View, CA, USA");
+      business.setProperty(LAT_PROPERTY, 37.386051);
+      business.setProperty(LONG_PROPERTY, -122.083855);
+      datastore.put(business);
+    }
+
+    businessServlet = new BusinessServlet();
+    pageServlet = new PageServlet();
+    mapServlet = new MapServlet();
+    commentServlet = new CommentServlet(null);
+    commentsServlet = new CommentsServlet();
+    followServlet = new FollowServlet();
+    followsServlet = new FollowsServlet();
+  }
+
+  @After
+  public void tearDown() {
+    indexLogger.removeHandler(indexFailures);
+    ApiProxy.setEnvironmentForCurrentThread(testEnvironment);
+    helper.tearDown();
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    sendRequests(THREADS, "user");
+
+    assertTrue("Requests failed: " + errors, errors.isEmpty());
+
+    assertEquals(
+        THREADS * BUSINESSES,
+        datastore
+            .prepare(new Query(COMMENT_TASK_NAME))
+            .countEntities(FetchOptions.Builder.withDefaults()));
+    assertEquals(
+        THREADS * BUSINESSES,
+        getCommentIndex(SearchServiceFactory.getSearchService())
+            .getRange(GetRequest.newBuilder().setLimit(1000))
+            .getResults()
+            .size());
+
+    // Each business' sharded count must match its follows, however the follows interleaved.
+    FollowerCounter uncachedCounter = new FollowerCounter(datastore, System::currentTimeMillis);
+    for (int i = 0; i < BUSINESSES; i++) {
+      String businessId = BUSINESS_ID_PREFIX + i;
+      int follows =
+          datastore
+              .prepare(
+                  new Query(FOLLOW_TASK_NAME)
+                      .setFilter(FilterOperator.EQUAL.of(BUSINESS_ID_PROPERTY, businessId)))
+              .countEntities(FetchOptions.Builder.withDefaults());
+      assertEquals(follows, uncachedCounter.getCount(businessId));
+    }
+  }
+
+  /**
+   * Reports the requests one instance serves per second one at a time and {@link #THREADS} at a
+   * time, when each datastore call takes as long as a network round trip.
+   */
+  @Test
+  public void benchmarkThroughputPerInstance() throws Exception {
+    assumeBenchmarksEnabled();
+    // Load classes and fill caches first, so they don't count against either run.
+    sendRequests(THREADS, "warmup");
+
+    DelayedApiProxyDelegate delayed = DelayedApiProxyDelegate.install(DATASTORE_DELAY_MS);
+    double serialPerSecond;
+    double concurrentPerSecond;
+    try {
+      serialPerSecond = sendRequests(1, "serial");
+      concurrentPerSecond = sendRequests(THREADS, "concurrent");
+    } finally {
+      delayed.uninstall();
+    }
+
+    // Throughput of failed requests means nothing, so failures still fail the benchmark.
+    assertTrue("Requests failed: " + errors, errors.isEmpty());
+    report(
+        "Requests per second with " + DATASTORE_DELAY_MS + " ms datastore calls",
+        String.format(
+            "%.1f serial, %.1f with %d threads, at most %d datastore calls pending",
+            serialPerSecond, concurrentPerSecond, THREADS, delayed.getMaxPendingCalls()));
+  }
+
+  /**
+   * Send every thread's requests, each thread signed in as its own user.
+   *
+   * @return how many requests were served per second.
+   */
+  private double sendRequests(int threads, String userIdPrefix) throws Exception {
+    for (int thread = 0; thread < threads; thread++) {
+      Entity profile = new Entity(PROFILE_TASK_NAME, userIdPrefix + thread);
+      profile.setProperty(IS_BUSINESS_PROPERTY, NO);
+      profile.setProperty(NAME_PROPERTY, "User " + thread);
+      datastore.put(profile);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> results = new ArrayList<>();
+      for (int thread = 0; thread < threads; thread++) {
+        String userId = userIdPrefix + thread;
+        results.add(
+            executor.submit(
+                () -> {
+                  ApiProxy.setEnvironmentForCurrentThread(
+                      new UserEnvironment(testEnvironment, userId));
+                  for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    sendRequest(i % REQUEST_KINDS, BUSINESS_ID_PREFIX + i / REQUEST_KINDS);
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+      long elapsedNanos = System.nanoTime() - start;
+      return threads * REQUESTS_PER_THREAD / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void sendRequest(int kind, String businessId) throws Exception {
+    Map<String, String> parameters = new HashMap<>();
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameter(Mockito.anyString()))
+        .thenAnswer(invocation -> parameters.get(invocation.getArgument(0)));
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    doAnswer(
+            invocation -> {
+              int status = invocation.getArgument(0);
+              // Follows that keep colliding on a counter shard are turned away on purpose.
+              if (!(kind == POST_FOLLOW && status == HttpServletResponse.SC_SERVICE_UNAVAILABLE)) {
+                errors.add("request " + kind + " for " + businessId + ": " + status);
+              }
+              return null;
+            })
+        .when(response)
+        .sendError(Mockito.anyInt(), Mockito.anyString());
+
+    switch (kind) {
+      case GET_BUSINESS:
+        when(request.getPathInfo()).thenReturn("/" + businessId);
+        businessServlet.doGet(request, response);
+        break;
+      case GET_BUSINESS_PAGE:
+        when(request.getPathInfo()).thenReturn("/business/" + businessId);
+        pageServlet.doGet(request, response);
+        break;
+      case GET_MAP:
+        parameters.put(SW_LAT_PROPERTY, "37.2227223");
+        parameters.put(SW_LNG_PROPERTY, "-122.3033039");
+        parameters.put(NE_LAT_PROPERTY, "37.548271");
+        parameters.put(NE_LNG_PROPERTY, "-121.988571");
+        mapServlet.doGet(request, response);
+        break;
+      case POST_COMMENT:
+        parameters.put(CONTENT_PROPERTY, "Great place!");
+        parameters.put(BUSINESS_ID_PROPERTY, businessId);
+        commentServlet.doPost(request, response);
+        break;
+      case GET_COMMENTS:
+        parameters.put(BUSINESS_ID_PROPERTY, businessId);
+        commentsServlet.doGet(request, response);
+        break;
+      case POST_FOLLOW:
+        parameters.put(BUSINESS_ID_PROPERTY, businessId);
+        followServlet.doPost(request, response);
+        break;
+      case GET_FOLLOWS:
+        parameters.put(BUSINESS_ID_PROPERTY, businessId);
+        followsServlet.doGet(request, response);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown request kind " + kind);
+    }
+  }
+
+  /** The test's environment, signed in as a different user. */
+  private static final class UserEnvironment implements Environment {
+    private final Environment environment;
+    private final String userId;
+    private final Map<String, Object> attributes;
+
+    private UserEnvironment(Environment environment, String userId) {
+      this.environment = environment;
+      this.userId = userId;
+      this.attributes = new HashMap<>(environment.getAttributes());
+      attributes.put(USER_ID_KEY, userId);
+    }
+
+    @Override
+    public String getAppId() {
+      return environment.getAppId();
+    }
+
+    @Override
+    public String getModuleId() {
+      return environment.getModuleId();
+    }
+
+    @Override
+    public String getVersionId() {
+      return environment.getVersionId();
+    }
+
+    @Override
+    public String getEmail() {
+      return userId + "@" + AUTH_DOMAIN;
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+      return true;
+    }
+
+    @Override
+    public boolean isAdmin() {
+      return false;
+    }
+
+    @Override
+    public String getAuthDomain() {
+      return AUTH_DOMAIN;
+    }
+
+    @Override
+    public String getRequestNamespace() {
+      return environment.getRequestNamespace();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public long getRemainingMillis() {
+      return environment.getRemainingMillis();
+    }
+  }
+}
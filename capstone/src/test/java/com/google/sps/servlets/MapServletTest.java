@@ -26,6 +26,8 @@ import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.SW_LAT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.SW_LNG_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.util.BenchmarkUtil.assumeBenchmarksEnabled;
+import static com.google.sps.util.BenchmarkUtil.report;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
 
@@ -37,10 +39,12 @@ import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.gson.Gson;
 import com.google.gson.JsonParser;
 import com.google.sps.data.MapInfo;
+import com.google.sps.util.DelayedApiProxyDelegate;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.After;
@@ -71,6 +75,7 @@ public class MapServletTest {
   private static final String SW_LNG = "-122.3033039";
   private static final String NE_LAT = "37.548271";
   private static final String NE_LNG = "-121.988571";
+  private static final long DATASTORE_DELAY_MS = 50;
 
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
@@ -167,6 +172,54 @@ public class MapServletTest {
         .sendError(Mockito.eq(HttpServletResponse.SC_BAD_REQUEST), Mockito.anyString());
   }
 
+  /** Checks that doGet runs its two range queries at the same time. */
+  @Test
+  public void testDoGetOverlapsQueries() throws Exception {
+    setRequestParams();
+    Entity aBusinessInBounds = createBusiness(USER_ID_1);
+    aBusinessInBounds.setProperty(IS_BUSINESS_PROPERTY, A_BUSINESS);
+    aBusinessInBounds.setProperty(LOCATION_PROPERTY, LOCATION_IN_BOUNDS);
+    aBusinessInBounds.setProperty(LAT_PROPERTY, LAT_IN_BOUNDS);
+    aBusinessInBounds.setProperty(LONG_PROPERTY, LONG_IN_BOUNDS);
+    datastore.put(aBusinessInBounds);
+
+    DelayedApiProxyDelegate counting = DelayedApiProxyDelegate.install(0);
+    try {
+      servlet.doGet(request, response);
+    } finally {
+      counting.uninstall();
+    }
+
+    Assert.assertTrue(servletResponseWriter.toString().contains(USER_ID_1));
+    Assert.assertTrue(counting.getMaxPendingCalls() >= 2);
+  }
+
+  /** Reports how long doGet takes when each datastore call takes as long as a network call. */
+  @Test
+  public void benchmarkDoGet() throws Exception {
+    assumeBenchmarksEnabled();
+    setRequestParams();
+    Entity aBusinessInBounds = createBusiness(USER_ID_1);
+    aBusinessInBounds.setProperty(IS_BUSINESS_PROPERTY, A_BUSINESS);
+    aBusinessInBounds.setProperty(LOCATION_PROPERTY, LOCATION_IN_BOUNDS);
+    aBusinessInBounds.setProperty(LAT_PROPERTY, LAT_IN_BOUNDS);
+    aBusinessInBounds.setProperty(LONG_PROPERTY, LONG_IN_BOUNDS);
+    datastore.put(aBusinessInBounds);
+
+    DelayedApiProxyDelegate delayed = DelayedApiProxyDelegate.install(DATASTORE_DELAY_MS);
+    long start = System.nanoTime();
+    try {
+      servlet.doGet(request, response);
+    } finally {
+      delayed.uninstall();
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    report(
+        "Map doGet at " + DATASTORE_DELAY_MS + " ms per datastore call",
+        elapsedMillis + " ms for " + delayed.getCalls() + " calls");
+  }
+
   // Create a business entity.
   private Entity createBusiness(String id) {
     Entity newBusiness = new Entity(PROFILE_TASK_NAME, id);
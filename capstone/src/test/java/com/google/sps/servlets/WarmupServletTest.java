@@ -0,0 +1,239 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.SearchException;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.FollowGraph;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileCache;
+import com.google.sps.data.ProfileRepository;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class WarmupServletTest {
+  private static final String USER_ID = "1";
+  private static final String BUSINESS_ID_1 = "2";
+  private static final String BUSINESS_ID_2 = "3";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalSearchServiceTestConfig(),
+              new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"))
+          .setEnvIsLoggedIn(true)
+          .setEnvIsAdmin(true);
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private DatastoreService ds;
+  private FollowGraph followGraph;
+  private FollowLeaderboard leaderboard;
+  private final AtomicLong clockReads = new AtomicLong();
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    ds.put(createBusiness(BUSINESS_ID_1));
+    ds.put(createBusiness(BUSINESS_ID_2));
+    ds.put(createMockFollowEntity(USER_ID, BUSINESS_ID_1));
+    ds.put(createMockFollowEntity(USER_ID, BUSINESS_ID_2));
+
+    followGraph = new FollowGraph(ds, System::currentTimeMillis);
+    FollowerCounter followerCounter = new FollowerCounter(ds, System::currentTimeMillis);
+    Transaction transaction = ds.beginTransaction(FollowerCounter.transactionOptions());
+    followerCounter.increment(transaction, BUSINESS_ID_1, 1);
+    followerCounter.increment(transaction, BUSINESS_ID_2, 1);
+    transaction.commit();
+    leaderboard =
+        new FollowLeaderboard(
+            ds,
+            ProfileRepository.getInstance(),
+            followerCounter,
+            QueueFactory.getQueue(FollowLeaderboard.CHANGE_QUEUE_NAME),
+            System::currentTimeMillis);
+    leaderboard.recordChanges(Arrays.asList(BUSINESS_ID_1, BUSINESS_ID_2));
+    leaderboard.flush();
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity createBusiness(String id) {
+    Entity business = new Entity(PROFILE_TASK_NAME, id);
+    business.setProperty(IS_BUSINESS_PROPERTY, YES);
+    business.setProperty(NAME_PROPERTY, "Business " + id);
+    return business;
+  }
+
+  private WarmupServlet createServlet(SearchService searchService) {
+    LongSupplier countingClock =
+        () -> {
+          clockReads.incrementAndGet();
+          return System.currentTimeMillis();
+        };
+    return new WarmupServlet(
+        ds,
+        followGraph,
+        leaderboard,
+        ProfileRepository.getInstance(),
+        searchService,
+        countingClock);
+  }
+
+  private JsonObject getReport() {
+    return new JsonParser().parse(servletResponseWriter.toString()).getAsJsonObject();
+  }
+
+  @Test
+  public void testWarmupBuildsFollowStructures() throws IOException {
+    createServlet(SearchServiceFactory.getSearchService()).doGet(request, response);
+
+    verify(response, never()).setStatus(Mockito.anyInt());
+    JsonObject report = getReport();
+    assertTrue(report.get("ready").getAsBoolean());
+    assertEquals(2, report.get("hotBusinessesLoaded").getAsInt());
+    assertEquals(4, report.getAsJsonObject("stepMillis").size());
+
+    // Both were built during warmup, so they still know the follows once datastore has none.
+    for (Entity follow : ds.prepare(new Query(FOLLOW_TASK_NAME).setKeysOnly()).asIterable()) {
+      ds.delete(follow.getKey());
+    }
+    assertEquals(1, followGraph.getCoFollowedBusinesses(BUSINESS_ID_1, 5).size());
+  }
+
+  @Test
+  public void testWarmupRunsOnce() throws IOException {
+    WarmupServlet servlet = createServlet(SearchServiceFactory.getSearchService());
+    servlet.doGet(request, response);
+    String firstReport = servletResponseWriter.toString();
+    long clockReadsAfterWarmup = clockReads.get();
+
+    servletResponseWriter.getBuffer().setLength(0);
+    servlet.doGet(request, response);
+
+    assertEquals(firstReport, servletResponseWriter.toString());
+    assertEquals(clockReadsAfterWarmup, clockReads.get());
+  }
+
+  @Test
+  public void testFailedStepIsReportedAndRetried() throws IOException {
+    SearchService searchService = Mockito.mock(SearchService.class);
+    when(searchService.getIndex(Mockito.any(IndexSpec.Builder.class)))
+        .thenThrow(new SearchException("Search is unavailable."));
+    WarmupServlet servlet = createServlet(searchService);
+
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    JsonObject report = getReport();
+    assertFalse(report.get("ready").getAsBoolean());
+    assertEquals("searchIndex", report.getAsJsonArray("failedSteps").get(0).getAsString());
+    // The other steps still ran.
+    assertEquals(2, report.get("hotBusinessesLoaded").getAsInt());
+
+    servlet.doGet(request, response);
+    verify(searchService, times(2)).getIndex(Mockito.any(IndexSpec.Builder.class));
+  }
+
+  /** App Engine's warmup request has no signed-in user and no task queue or cron header. */
+  @Test
+  public void testWarmupWithoutSignedInUser() throws IOException {
+    helper.setEnvIsLoggedIn(false).setEnvIsAdmin(false);
+    createServlet(SearchServiceFactory.getSearchService()).doGet(request, response);
+
+    verify(response, never()).sendError(Mockito.anyInt(), Mockito.anyString());
+    verify(response, never()).setStatus(Mockito.anyInt());
+    assertTrue(getReport().get("ready").getAsBoolean());
+  }
+
+  /** Outside callers are kept out by web.xml rather than by the servlet. */
+  @Test
+  public void testWarmupUrlIsAdminOnly() throws Exception {
+    Document webXml =
+        DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder()
+            .parse(new File("src/main/webapp/WEB-INF/web.xml"));
+    NodeList constraints = webXml.getElementsByTagName("security-constraint");
+
+    assertEquals(1, constraints.getLength());
+    Element constraint = (Element) constraints.item(0);
+    assertEquals(
+        "/_ah/warmup", constraint.getElementsByTagName("url-pattern").item(0).getTextContent());
+    assertEquals("admin", constraint.getElementsByTagName("role-name").item(0).getTextContent());
+  }
+}
@@ -25,6 +25,7 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
@@ -33,6 +34,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.sps.data.ProfileCache;
 import com.google.sps.data.User;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -73,7 +75,9 @@ public class LoginServletTest {
     MockitoAnnotations.initMocks(this);
     helper =
         new LocalServiceTestHelper(
-                new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+                new LocalUserServiceTestConfig(),
+                new LocalDatastoreServiceTestConfig(),
+                new LocalMemcacheServiceTestConfig())
             .setEnvEmail(EMAIL)
             .setEnvAuthDomain(AUTHDOMAIN)
             .setEnvIsLoggedIn(true)
@@ -83,6 +87,7 @@ public class LoginServletTest {
                         "com.google.appengine.api.users.UserService.user_id_key", USER_ID)));
 
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     loginServlet = new LoginServlet();
     datastore = DatastoreServiceFactory.getDatastoreService();
@@ -31,9 +31,11 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.sps.data.ProfileCache;
 import java.util.HashMap;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -63,7 +65,9 @@ public class NewUserServletTest {
 
   private LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+              new LocalUserServiceTestConfig(),
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig())
           .setEnvEmail(EMAIL)
           .setEnvAuthDomain(AUTHDOMAIN)
           .setEnvIsLoggedIn(true)
@@ -78,6 +82,7 @@ public class NewUserServletTest {
   public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     datastore = DatastoreServiceFactory.getDatastoreService();
     newUserServlet = new NewUserServlet();
@@ -0,0 +1,309 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LAT_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.ProfileDatastoreUtil.getVersion;
+import static com.google.sps.data.TaskRequestUtil.QUEUE_NAME_HEADER;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class BusinessImportServletTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalUserServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  @Mock private SearchService searchService;
+  @Mock private Index index;
+
+  private DatastoreService ds;
+  private StringWriter responseWriter;
+  private BusinessImportServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    responseWriter = new StringWriter();
+    doReturn(new PrintWriter(responseWriter)).when(response).getWriter();
+    doReturn("default").when(request).getHeader(QUEUE_NAME_HEADER);
+    when(searchService.getIndex(Mockito.any(IndexSpec.Builder.class))).thenReturn(index);
+    servlet =
+        new BusinessImportServlet(
+            ds, searchService, QueueFactory.getDefaultQueue(), System::currentTimeMillis);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** Upload an import without running the tasks that import it. */
+  private JsonObject upload(String format, String body) throws IOException {
+    when(request.getParameter("format")).thenReturn(format);
+    when(request.getReader()).thenReturn(new BufferedReader(new StringReader(body)));
+    return readResponse(() -> servlet.doPost(request, response));
+  }
+
+  /** Upload an import and run each chunk's task in turn, as the task queue would. */
+  private JsonObject sendImport(String format, String body) throws IOException {
+    return runImportTasks(upload(format, body));
+  }
+
+  private JsonObject runImportTasks(JsonObject report) throws IOException {
+    when(request.getParameter(BusinessImportServlet.IMPORT_ID_PARAMETER))
+        .thenReturn(report.get("importId").getAsString());
+    while (countQueuedTasks() > 0) {
+      LocalTaskQueueTestConfig.getLocalTaskQueue().flushQueue("default");
+      report = readResponse(() -> servlet.doPost(request, response));
+    }
+    return report;
+  }
+
+  private JsonObject readResponse(ServletCall call) throws IOException {
+    responseWriter = new StringWriter();
+    doReturn(new PrintWriter(responseWriter)).when(response).getWriter();
+    call.run();
+    return new JsonParser().parse(responseWriter.toString()).getAsJsonObject();
+  }
+
+  private interface ServletCall {
+    void run() throws IOException;
+  }
+
+  private int countQueuedTasks() {
+    return LocalTaskQueueTestConfig.getLocalTaskQueue()
+        .getQueueStateInfo()
+        .get("default")
+        .getCountTasks();
+  }
+
+  private int countProfiles() {
+    return ds.prepare(new Query(PROFILE_TASK_NAME))
+        .countEntities(FetchOptions.Builder.withDefaults());
+  }
+
+  @Test
+  public void testOutsideRequestIsForbidden() throws IOException {
+    doReturn(null).when(request).getHeader(QUEUE_NAME_HEADER);
+
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_FORBIDDEN, response);
+    assertEquals(0, countProfiles());
+  }
+
+  @Test
+  public void testNdjsonImportReportsInvalidRows() throws Exception {
+    JsonObject report =
+        sendImport(
+            "ndjson",
+            "{\"id\": \"1\", \"name\": \"Pizzeria\", \"bio\": \"Pizza.\", \"lat\": 45.5}\n"
+                + "\n"
+                + "{\"id\": \"2\"}\n"
+                + "not json\n"
+                + "{\"id\": \"3\", \"name\": \"Bakery\", \"lat\": \"north\"}\n"
+                + "{\"id\": \"4\", \"name\": \"Cafe\", \"owner\": \"me\"}\n");
+
+    assertEquals(5, report.get("rowsRead").getAsInt());
+    assertEquals(1, report.get("imported").getAsInt());
+    assertEquals(4, report.get("errorCount").getAsInt());
+    JsonArray errors = report.getAsJsonArray("errors");
+    assertEquals(2, errors.get(0).getAsJsonObject().get("row").getAsInt());
+    assertEquals("2", errors.get(0).getAsJsonObject().get("id").getAsString());
+    assertEquals(3, errors.get(1).getAsJsonObject().get("row").getAsInt());
+
+    Entity business = ds.get(KeyFactory.createKey(PROFILE_TASK_NAME, "1"));
+    assertEquals(YES, business.getProperty(IS_BUSINESS_PROPERTY));
+    assertEquals("Pizza.", business.getProperty(BIO_PROPERTY));
+    assertEquals(45.5, business.getProperty(LAT_PROPERTY));
+    assertEquals(1L, getVersion(business));
+    Mockito.verify(index).put(Mockito.<Document>anyList());
+  }
+
+  @Test
+  public void testCsvImportReadsQuotedFields() throws Exception {
+    JsonObject report =
+        sendImport(
+            "csv",
+            "id,name,bio\r\n"
+                + "1,\"Pizza, Pasta & Co\",\"Family run\nsince \"\"1950\"\"\"\r\n"
+                + "2,Bakery\r\n");
+
+    assertEquals(2, report.get("rowsRead").getAsInt());
+    assertEquals(1, report.get("imported").getAsInt());
+    Entity business = ds.get(KeyFactory.createKey(PROFILE_TASK_NAME, "1"));
+    assertEquals("Pizza, Pasta & Co", business.getProperty(NAME_PROPERTY));
+    assertEquals("Family run\nsince \"1950\"", business.getProperty(BIO_PROPERTY));
+  }
+
+  @Test
+  public void testCsvWithUnknownColumnIsRejected() throws IOException {
+    when(request.getParameter("format")).thenReturn("csv");
+    when(request.getReader())
+        .thenReturn(new BufferedReader(new StringReader("id,name,owner\n1,Bakery,me\n")));
+
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+    assertEquals(0, countProfiles());
+  }
+
+  @Test
+  public void testExistingAndRepeatedIdsAreNotOverwritten() throws Exception {
+    Entity existing = new Entity(PROFILE_TASK_NAME, "1");
+    existing.setProperty(NAME_PROPERTY, "Jane");
+    ds.put(existing);
+
+    JsonObject report =
+        sendImport(
+            "ndjson",
+            "{\"id\": \"1\", \"name\": \"Pizzeria\"}\n"
+                + "{\"id\": \"2\", \"name\": \"Bakery\"}\n"
+                + "{\"id\": \"2\", \"name\": \"Other Bakery\"}\n");
+
+    assertEquals(1, report.get("imported").getAsInt());
+    assertEquals(2, report.get("errorCount").getAsInt());
+    assertEquals(
+        "Jane", ds.get(KeyFactory.createKey(PROFILE_TASK_NAME, "1")).getProperty(NAME_PROPERTY));
+    assertEquals(
+        "Bakery", ds.get(KeyFactory.createKey(PROFILE_TASK_NAME, "2")).getProperty(NAME_PROPERTY));
+  }
+
+  /** An upload is only stored, and its report shows the rows imported so far. */
+  @Test
+  public void testUploadIsImportedByTasks() throws Exception {
+    JsonObject accepted = upload("ndjson", "{\"id\": \"1\", \"name\": \"Pizzeria\"}\n");
+
+    InOrder inOrder = Mockito.inOrder(response);
+    inOrder.verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    inOrder.verify(response).getWriter();
+    assertFalse(accepted.get("complete").getAsBoolean());
+    assertEquals(1, accepted.get("rowsRead").getAsInt());
+    // The rate counts rows imported or rejected, not rows only read.
+    assertEquals(0, accepted.get("rowsPerSecond").getAsDouble(), 0);
+    assertEquals(0, countProfiles());
+    assertEquals(1, countQueuedTasks());
+
+    runImportTasks(accepted);
+    JsonObject report = readResponse(() -> servlet.doGet(request, response));
+
+    assertTrue(report.get("complete").getAsBoolean());
+    assertEquals(1, report.get("imported").getAsInt());
+    assertEquals(1, countProfiles());
+  }
+
+  /**
+   * A chunk retried after its profiles were saved, but before its progress was recorded, counts and
+   * indexes them rather than rejecting them as existing profiles.
+   */
+  @Test
+  public void testRetriedChunkCountsProfilesItSaved() throws Exception {
+    JsonObject accepted = upload("ndjson", "{\"id\": \"1\", \"name\": \"Pizzeria\"}\n");
+    Key importKey =
+        KeyFactory.createKey(
+            BusinessImportServlet.IMPORT_TASK_NAME, accepted.get("importId").getAsLong());
+    Entity importBeforeChunk = ds.get(importKey);
+    Entity chunk =
+        ds.get(KeyFactory.createKey(importKey, BusinessImportServlet.CHUNK_TASK_NAME, 1));
+    runImportTasks(accepted);
+
+    // Undo the progress transaction, as if the task had failed just before it.
+    ds.put(importBeforeChunk);
+    ds.put(chunk);
+    JsonObject report = readResponse(() -> servlet.doPost(request, response));
+
+    assertTrue(report.get("complete").getAsBoolean());
+    assertEquals(1, report.get("imported").getAsInt());
+    assertEquals(0, report.get("errorCount").getAsInt());
+    Mockito.verify(index, Mockito.times(2)).put(Mockito.anyList());
+  }
+
+  @Test
+  public void testLargeImportIsBatched() throws Exception {
+    int rows = 2 * BusinessImportServlet.PUT_BATCH_SIZE + 200;
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < rows; i++) {
+      body.append("{\"id\": \"").append(i).append("\", \"name\": \"Business ").append(i);
+      body.append("\"}\n");
+    }
+
+    JsonObject report = sendImport("ndjson", body.toString());
+
+    assertEquals(rows, report.get("imported").getAsInt());
+    assertEquals(rows, countProfiles());
+    ArgumentCaptor<List<Document>> batches = ArgumentCaptor.forClass(List.class);
+    // Each batch of 500 is indexed as 200, 200 and 100, and the final 200 in one put.
+    Mockito.verify(index, Mockito.times(7)).put(batches.capture());
+    int indexed = 0;
+    for (List<Document> batch : batches.getAllValues()) {
+      assertTrue(batch.size() <= 200);
+      indexed += batch.size();
+    }
+    assertEquals(rows, indexed);
+    assertTrue(report.get("rowsPerSecond").getAsDouble() > 0);
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.ConditionalGetUtil.ETAG_HEADER;
+import static com.google.sps.data.ConditionalGetUtil.IF_NONE_MATCH_HEADER;
 import static com.google.sps.data.ProfileDatastoreUtil.ABOUT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.CALENDAR_PROPERTY;
@@ -27,6 +29,7 @@ import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.STORY_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.SUPPORT_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.ProfileDatastoreUtil.getVersion;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
 
@@ -36,15 +39,24 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.SearchService;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.JsonParser;
 import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileCache;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
 import javax.servlet.ServletException;
@@ -56,6 +68,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -97,7 +110,9 @@ public class BusinessServletTest {
     MockitoAnnotations.initMocks(this);
     helper =
         new LocalServiceTestHelper(
-                new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+                new LocalUserServiceTestConfig(),
+                new LocalDatastoreServiceTestConfig(),
+                new LocalMemcacheServiceTestConfig())
             .setEnvEmail(EMAIL)
             .setEnvAuthDomain(AUTHDOMAIN)
             .setEnvIsLoggedIn(true)
@@ -106,11 +121,13 @@ public class BusinessServletTest {
                     ImmutableMap.of(
                         "com.google.appengine.api.users.UserService.user_id_key", USER_ID)));
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     datastore = DatastoreServiceFactory.getDatastoreService();
     servletResponseWriter = new StringWriter();
     doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
     servlet = new BusinessServlet();
+    FollowerCounter.getInstance().clearCache();
   }
 
   @After
@@ -198,6 +215,7 @@ public class BusinessServletTest {
 
     BusinessProfile profile =
         new BusinessProfile(USER_ID, NAME, LOCATION, BIO, STORY, ABOUT, EMAIL, SUPPORT, true);
+    profile.setFollowerCount(0);
 
     String servletResponse = servletResponseWriter.toString();
 
@@ -208,6 +226,55 @@ public class BusinessServletTest {
     Assert.assertEquals(parser.parse(expectedResponse), parser.parse(servletResponse));
   }
 
+  /**
+   * Test doGet() for when the client already holds the current version of the business. It should
+   * answer 304 without a body.
+   */
+  @Test
+  public void matchingEtagReturnNotModified() throws ServletException, IOException {
+    when(request.getPathInfo()).thenReturn(PATHINFO);
+
+    Entity validBusiness = setUserProfileData();
+    validBusiness.setProperty(IS_BUSINESS_PROPERTY, YES);
+    datastore.put(validBusiness);
+
+    servlet.doGet(request, response);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(response).setHeader(Mockito.eq(ETAG_HEADER), etag.capture());
+
+    when(request.getHeader(IF_NONE_MATCH_HEADER)).thenReturn(etag.getValue());
+    servletResponseWriter.getBuffer().setLength(0);
+    servlet.doGet(request, response);
+
+    Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals("", servletResponseWriter.toString());
+  }
+
+  /**
+   * Test doGet() for when the business was edited since the client's copy. It should send the new
+   * version in full.
+   */
+  @Test
+  public void staleEtagReturnJsonFile() throws ServletException, IOException {
+    when(request.getPathInfo()).thenReturn(PATHINFO);
+    when(request.getParameter(IS_BUSINESS_PROPERTY)).thenReturn(YES);
+    when(request.getParameter(NAME_PROPERTY)).thenReturn(NAME);
+    servlet.doPost(request, response);
+
+    servlet.doGet(request, response);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(response).setHeader(Mockito.eq(ETAG_HEADER), etag.capture());
+
+    when(request.getParameter(BIO_PROPERTY)).thenReturn(BIO);
+    servlet.doPost(request, response);
+    when(request.getHeader(IF_NONE_MATCH_HEADER)).thenReturn(etag.getValue());
+    servletResponseWriter.getBuffer().setLength(0);
+    servlet.doGet(request, response);
+
+    Mockito.verify(response, Mockito.never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertNotEquals("", servletResponseWriter.toString());
+  }
+
   /**
    * Test doPost() for when the user does not exist and they want to edit a profile. It should
    * return error.
@@ -286,4 +353,124 @@ public class BusinessServletTest {
     Mockito.verify(response, Mockito.times(1))
         .sendError(Mockito.eq(HttpServletResponse.SC_FORBIDDEN), Mockito.anyString());
   }
+
+  /**
+   * Test doPost() for when the user saves their profile without changing anything. It should
+   * neither write the profile again nor reindex it.
+   */
+  @Test
+  public void unchangedEditSkipsWrite() throws Exception {
+    Index index = useMockSearchIndex();
+    when(request.getParameter(IS_BUSINESS_PROPERTY)).thenReturn(YES);
+    when(request.getParameter(NAME_PROPERTY)).thenReturn(NAME);
+    when(request.getParameter(BIO_PROPERTY)).thenReturn(BIO);
+
+    servlet.doPost(request, response);
+    servlet.doPost(request, response);
+
+    Entity capEntity = datastore.get(KeyFactory.createKey(PROFILE_TASK_NAME, USER_ID));
+    Assert.assertEquals(1L, getVersion(capEntity));
+    Mockito.verify(index, Mockito.times(1)).put(Mockito.any(Document.class));
+  }
+
+  /**
+   * Test doPost() for when the user changes a field that is not searched on. It should save the
+   * profile without reindexing it.
+   */
+  @Test
+  public void editWithoutNameChangeSkipsReindex() throws Exception {
+    Index index = useMockSearchIndex();
+    when(request.getParameter(IS_BUSINESS_PROPERTY)).thenReturn(YES);
+    when(request.getParameter(NAME_PROPERTY)).thenReturn(NAME);
+    servlet.doPost(request, response);
+
+    when(request.getParameter(BIO_PROPERTY)).thenReturn(BIO);
+    servlet.doPost(request, response);
+
+    Entity capEntity = datastore.get(KeyFactory.createKey(PROFILE_TASK_NAME, USER_ID));
+    Assert.assertEquals(BIO, capEntity.getProperty(BIO_PROPERTY));
+    Assert.assertEquals(2L, getVersion(capEntity));
+    Mockito.verify(index, Mockito.times(1)).put(Mockito.any(Document.class));
+  }
+
+  /**
+   * Test doPost() for when a user profile becomes a business without changing its name. It should
+   * add the business to the search index.
+   */
+  @Test
+  public void userBecomingBusinessIsIndexed() throws Exception {
+    Index index = useMockSearchIndex();
+    Entity userProfile = setUserProfileData();
+    userProfile.setProperty(IS_BUSINESS_PROPERTY, NO);
+    datastore.put(userProfile);
+    when(request.getParameter(IS_BUSINESS_PROPERTY)).thenReturn(YES);
+    when(request.getParameter(NAME_PROPERTY)).thenReturn(NAME);
+
+    servlet.doPost(request, response);
+
+    Entity capEntity = datastore.get(KeyFactory.createKey(PROFILE_TASK_NAME, USER_ID));
+    Assert.assertEquals(YES, capEntity.getProperty(IS_BUSINESS_PROPERTY));
+    Mockito.verify(index, Mockito.times(1)).put(Mockito.any(Document.class));
+  }
+
+  /** Test a PATCH of a single field. It should change only that field. */
+  @Test
+  public void patchChangesOneField() throws Exception {
+    Entity validBusiness = setUserProfileData();
+    validBusiness.setProperty(IS_BUSINESS_PROPERTY, YES);
+    datastore.put(validBusiness);
+    Index index = useMockSearchIndex();
+    sendPatch(PATHINFO, "{\"bio\": \"A new bio.\"}");
+
+    Entity capEntity = datastore.get(KeyFactory.createKey(PROFILE_TASK_NAME, USER_ID));
+    Mockito.verify(response).setStatus(HttpServletResponse.SC_NO_CONTENT);
+    Assert.assertEquals("A new bio.", capEntity.getProperty(BIO_PROPERTY));
+    Assert.assertEquals(NAME, capEntity.getProperty(NAME_PROPERTY));
+    Assert.assertEquals(LAT, capEntity.getProperty(LAT_PROPERTY));
+    Mockito.verify(index, Mockito.never()).put(Mockito.any(Document.class));
+  }
+
+  /** Test a PATCH of another user's business. It should return error. */
+  @Test
+  public void patchOtherBusinessReturnError() throws Exception {
+    sendPatch("/" + WRONG_USER, "{\"bio\": \"A new bio.\"}");
+
+    Mockito.verify(response, Mockito.times(1))
+        .sendError(Mockito.eq(HttpServletResponse.SC_FORBIDDEN), Mockito.anyString());
+  }
+
+  /** Test a PATCH of a field that can not be edited. It should return error. */
+  @Test
+  public void patchUnknownFieldReturnError() throws Exception {
+    Entity validBusiness = setUserProfileData();
+    validBusiness.setProperty(IS_BUSINESS_PROPERTY, YES);
+    datastore.put(validBusiness);
+
+    sendPatch(PATHINFO, "{\"isBusiness\": \"No\"}");
+
+    Mockito.verify(response, Mockito.times(1))
+        .sendError(Mockito.eq(HttpServletResponse.SC_BAD_REQUEST), Mockito.anyString());
+    Assert.assertEquals(
+        YES,
+        datastore
+            .get(KeyFactory.createKey(PROFILE_TASK_NAME, USER_ID))
+            .getProperty(IS_BUSINESS_PROPERTY));
+  }
+
+  // Replace the servlet's search index with a mock, to tell when documents are written.
+  private Index useMockSearchIndex() {
+    SearchService searchService = Mockito.mock(SearchService.class);
+    Index index = Mockito.mock(Index.class);
+    when(searchService.getIndex(Mockito.any(IndexSpec.Builder.class))).thenReturn(index);
+    servlet = new BusinessServlet(searchService);
+    return index;
+  }
+
+  private void sendPatch(String pathInfo, String body) throws Exception {
+    when(request.getMethod()).thenReturn("PATCH");
+    when(request.getPathInfo()).thenReturn(pathInfo);
+    when(request.getReader()).thenReturn(new BufferedReader(new StringReader(body)));
+
+    servlet.service(request, response);
+  }
 }
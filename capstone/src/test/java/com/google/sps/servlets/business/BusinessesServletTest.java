@@ -14,10 +14,16 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.PaginationUtil.NEXT_CURSOR_HEADER;
 import static com.google.sps.data.ProfileDatastoreUtil.NO;
 import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -27,10 +33,12 @@ import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.gson.Gson;
 import com.google.gson.JsonParser;
 import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.BusinessSummary;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -38,6 +46,7 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -137,4 +146,82 @@ public class BusinessesServletTest {
     JsonParser parser = new JsonParser();
     Assert.assertEquals(parser.parse(servletResponse), parser.parse(expectedResponse));
   }
+
+  /*
+   *  Test doGet() with view=summary, returning only the listed fields with a shortened bio.
+   **/
+  @Test
+  public void testDoGetSummaryView() throws IOException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String longBio = String.join("", Collections.nCopies(20, BIO));
+
+    Entity aBusiness = createBusiness(USER_ID_1);
+    aBusiness.setProperty("isBusiness", A_BUSINESS);
+    aBusiness.setProperty("bio", longBio);
+    datastore.put(aBusiness);
+
+    when(request.getParameter("view")).thenReturn("summary");
+    servlet.doGet(request, response);
+
+    List<BusinessSummary> expected = new ArrayList<>();
+    expected.add(
+        new BusinessSummary(
+            USER_ID_1,
+            NAME,
+            LOCATION,
+            longBio.substring(0, BusinessesServlet.SUMMARY_BIO_LENGTH) + "..."));
+
+    JsonParser parser = new JsonParser();
+    Assert.assertEquals(
+        parser.parse(new Gson().toJson(expected)), parser.parse(servletResponseWriter.toString()));
+  }
+
+  /*
+   *  Test doGet() with a limit, returning a page and a cursor that leads to the rest.
+   **/
+  @Test
+  public void testDoGetPagesWithCursor() throws IOException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (String id : new String[] {"1", "2", "3"}) {
+      Entity business = createBusiness(id);
+      business.setProperty("isBusiness", A_BUSINESS);
+      datastore.put(business);
+    }
+
+    when(request.getParameter("limit")).thenReturn("2");
+    servlet.doGet(request, response);
+
+    ArgumentCaptor<String> cursor = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(eq(NEXT_CURSOR_HEADER), cursor.capture());
+    JsonParser parser = new JsonParser();
+    Assert.assertEquals(2, parser.parse(servletResponseWriter.toString()).getAsJsonArray().size());
+
+    servletResponseWriter.getBuffer().setLength(0);
+    when(request.getParameter("cursor")).thenReturn(cursor.getValue());
+    servlet.doGet(request, response);
+
+    Assert.assertEquals(
+        "3",
+        parser
+            .parse(servletResponseWriter.toString())
+            .getAsJsonArray()
+            .get(0)
+            .getAsJsonObject()
+            .get("id")
+            .getAsString());
+    // The last page is not full, so no further cursor is sent.
+    verify(response, times(1)).setHeader(eq(NEXT_CURSOR_HEADER), anyString());
+  }
+
+  /*
+   *  Test doGet() with a limit above the maximum, returning an error.
+   **/
+  @Test
+  public void testDoGetInvalidLimit() throws IOException {
+    when(request.getParameter("limit")).thenReturn("1000");
+
+    servlet.doGet(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+  }
 }
@@ -39,11 +39,13 @@ import com.google.appengine.api.search.SearchService;
 import com.google.appengine.api.search.SearchServiceFactory;
 import com.google.appengine.api.search.StatusCode;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.gson.Gson;
 import com.google.gson.JsonParser;
 import com.google.sps.data.BusinessProfile;
+import com.google.sps.data.ProfileCache;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -64,7 +66,9 @@ public class SearchServletTest {
 
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-          new LocalDatastoreServiceTestConfig(), new LocalSearchServiceTestConfig());
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalSearchServiceTestConfig());
 
   @Mock private HttpServletRequest request;
 
@@ -91,6 +95,7 @@ public class SearchServletTest {
   public void setUp() throws IOException {
     MockitoAnnotations.initMocks(this);
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     datastore = DatastoreServiceFactory.getDatastoreService();
     servletResponseWriter = new StringWriter();
@@ -0,0 +1,116 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static com.google.sps.util.TestUtil.assertSameJsonObject;
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileCache;
+import com.google.sps.data.ProfileRepository;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class TopBusinessesServletTest {
+  private static final String MOCK_BUSINESS_ID_1 = "3";
+  private static final String MOCK_BUSINESS_ID_2 = "4";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private TopBusinessesServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    FollowerCounter followerCounter = new FollowerCounter(ds, System::currentTimeMillis);
+    Transaction transaction = ds.beginTransaction(FollowerCounter.transactionOptions());
+    followerCounter.increment(transaction, MOCK_BUSINESS_ID_1, 1);
+    followerCounter.increment(transaction, MOCK_BUSINESS_ID_2, 2);
+    transaction.commit();
+    FollowLeaderboard leaderboard = createLeaderboard(ds, followerCounter);
+    leaderboard.recordChanges(Arrays.asList(MOCK_BUSINESS_ID_1, MOCK_BUSINESS_ID_2));
+    leaderboard.flush();
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+    servlet = new TopBusinessesServlet(createLeaderboard(ds, followerCounter));
+  }
+
+  private static FollowLeaderboard createLeaderboard(
+      DatastoreService ds, FollowerCounter followerCounter) {
+    return new FollowLeaderboard(
+        ds,
+        ProfileRepository.getInstance(),
+        followerCounter,
+        QueueFactory.getQueue(FollowLeaderboard.CHANGE_QUEUE_NAME),
+        System::currentTimeMillis);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testTopBusinesses() throws IOException {
+    doReturn("1").when(request).getParameter("limit");
+
+    servlet.doGet(request, response);
+
+    assertSameJsonObject(
+        "[{\"businessId\": \"" + MOCK_BUSINESS_ID_2 + "\", \"followerCount\": 2}]",
+        servletResponseWriter.toString());
+  }
+
+  @Test
+  public void testInvalidLimit() throws IOException {
+    doReturn("0").when(request).getParameter("limit");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.COMMENT_TASK_NAME;
+import static com.google.sps.data.CommentDatastoreUtil.CONTENT_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.PARENT_ID_PROPERTY;
+import static com.google.sps.data.CommentIngestQueue.INGEST_QUEUE_NAME;
+import static com.google.sps.data.TaskRequestUtil.QUEUE_NAME_HEADER;
+import static com.google.sps.util.CommentTestUtil.createCommentEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.CommentIngestQueue;
+import com.google.sps.data.ProfileCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class CommentDrainServletTest {
+  private static final String MOCK_EMAIL = "tutorguy@gmail.com";
+  private static final String MOCK_DOMAIN = "microsoft.com";
+  private final String MOCK_CONTENT = "This is my comment content.";
+  private final String MOCK_USER_ID = "1";
+  private final String MOCK_BUSINESS_ID = "2";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalSearchServiceTestConfig(),
+              new LocalTaskQueueTestConfig()
+                  .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                  .setDisableAutoTaskExecution(true))
+          .setEnvEmail(MOCK_EMAIL)
+          .setEnvAuthDomain(MOCK_DOMAIN)
+          .setEnvIsLoggedIn(true)
+          .setEnvAttributes(
+              new HashMap(
+                  ImmutableMap.of(
+                      "com.google.appengine.api.users.UserService.user_id_key", MOCK_USER_ID)));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private DatastoreService ds;
+  private CommentIngestQueue ingestQueue;
+  private CommentDrainServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    ingestQueue =
+        new CommentIngestQueue(
+            ds, QueueFactory.getQueue(INGEST_QUEUE_NAME), QueueFactory.getDefaultQueue());
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+    servlet = new CommentDrainServlet(ingestQueue);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private int countComments() {
+    return ds.prepare(new Query(COMMENT_TASK_NAME)).countEntities(withDefaults());
+  }
+
+  private int countQueuedComments() {
+    return LocalTaskQueueTestConfig.getLocalTaskQueue()
+        .getQueueStateInfo()
+        .get(INGEST_QUEUE_NAME)
+        .getCountTasks();
+  }
+
+  private JsonObject drainAsTask() throws IOException {
+    HttpServletRequest drainRequest = Mockito.mock(HttpServletRequest.class);
+    doReturn("default").when(drainRequest).getHeader(QUEUE_NAME_HEADER);
+
+    servlet.doPost(drainRequest, response);
+
+    return new JsonParser().parse(servletResponseWriter.toString()).getAsJsonObject();
+  }
+
+  /** A write-behind post returns before the write and the comment appears once drained. */
+  @Test
+  public void testPostIsWrittenOnDrain() throws IOException {
+    doReturn(MOCK_CONTENT).when(request).getParameter(CONTENT_PROPERTY);
+    doReturn(MOCK_BUSINESS_ID).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn(null).when(request).getParameter(PARENT_ID_PROPERTY);
+
+    new CommentServlet(ingestQueue).doPost(request, response);
+
+    assertEquals(0, countComments());
+    assertEquals(1, countQueuedComments());
+
+    JsonObject stats = drainAsTask();
+
+    assertEquals(1, countComments());
+    Entity comment = ds.prepare(new Query(COMMENT_TASK_NAME)).asSingleEntity();
+    assertEquals(MOCK_CONTENT, comment.getProperty(CONTENT_PROPERTY));
+    assertEquals(0, countQueuedComments());
+    assertEquals(1, stats.get("drainedComments").getAsLong());
+  }
+
+  /** More comments than fit in one put are written over several batches. */
+  @Test
+  public void testDrainInBatches() throws IOException {
+    int commentCount = CommentIngestQueue.MAX_BATCH_SIZE + 10;
+    for (int i = 0; i < commentCount; i++) {
+      Entity comment = createCommentEntity(i, MOCK_USER_ID, MOCK_BUSINESS_ID, false);
+      Entity queuedComment = new Entity(ingestQueue.allocateKey());
+      queuedComment.setPropertiesFrom(comment);
+      ingestQueue.enqueue(queuedComment);
+    }
+
+    JsonObject stats = drainAsTask();
+
+    assertEquals(commentCount, countComments());
+    assertEquals(commentCount, stats.get("drainedComments").getAsLong());
+  }
+
+  @Test
+  public void testRejectsOutsideRequests() throws IOException {
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_FORBIDDEN, response);
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.CONTENT_PROPERTY;
+import static com.google.sps.data.CommentSearchUtil.getCommentIndex;
+import static com.google.sps.data.CommentSearchUtil.searchComments;
+import static com.google.sps.data.TaskRequestUtil.QUEUE_NAME_HEADER;
+import static com.google.sps.util.CommentTestUtil.createCommentEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.search.GetRequest;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CommentReindexServletTest {
+  private static final String USER_ID_0 = "0";
+  private static final String BUSINESS_ID_0 = "1";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalSearchServiceTestConfig(),
+          new LocalUserServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private DatastoreService ds;
+  private SearchService searchService;
+  private CommentReindexServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    searchService = SearchServiceFactory.getSearchService();
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+    servlet = new CommentReindexServlet(ds, searchService, QueueFactory.getDefaultQueue());
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private JsonObject reindexAsTask() throws IOException {
+    doReturn("default").when(request).getHeader(QUEUE_NAME_HEADER);
+
+    servlet.doPost(request, response);
+
+    return new JsonParser().parse(servletResponseWriter.toString()).getAsJsonObject();
+  }
+
+  /** Comments saved without a search document become searchable. */
+  @Test
+  public void testIndexesExistingComments() throws IOException {
+    Entity comment = createCommentEntity(1, USER_ID_0, BUSINESS_ID_0, false);
+    comment.setProperty(CONTENT_PROPERTY, "Best pizza in town");
+    ds.put(comment);
+    ds.put(createCommentEntity(2, USER_ID_0, BUSINESS_ID_0, false));
+
+    JsonObject stats = reindexAsTask();
+
+    assertEquals(2, stats.get("commentsIndexed").getAsLong());
+    assertTrue(stats.get("complete").getAsBoolean());
+    assertEquals(1, searchComments("pizza", BUSINESS_ID_0, 1, searchService).size());
+  }
+
+  /** Comments spanning several index batches are all indexed. */
+  @Test
+  public void testIndexesManyBatches() throws IOException {
+    int commentCount = 450;
+    for (int i = 0; i < commentCount; i++) {
+      ds.put(createCommentEntity(i, USER_ID_0, BUSINESS_ID_0, false));
+    }
+
+    reindexAsTask();
+
+    assertEquals(
+        commentCount,
+        getCommentIndex(searchService)
+            .getRange(GetRequest.newBuilder().setLimit(1000))
+            .getResults()
+            .size());
+  }
+
+  @Test
+  public void testRejectsOutsideRequests() throws IOException {
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_FORBIDDEN, response);
+  }
+}
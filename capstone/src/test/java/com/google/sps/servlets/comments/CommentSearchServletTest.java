@@ -0,0 +1,213 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.CONTENT_PROPERTY;
+import static com.google.sps.data.CommentSearchUtil.indexComment;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.util.CommentTestUtil.createCommentEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.OperationResult;
+import com.google.appengine.api.search.PutException;
+import com.google.appengine.api.search.SearchService;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.StatusCode;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.sps.data.Comment;
+import com.google.sps.data.ProfileCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class CommentSearchServletTest {
+  private final String USER_ID_0 = "0";
+  private final String BUSINESS_ID_0 = "0";
+  private final String BUSINESS_ID_1 = "1";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalSearchServiceTestConfig());
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private DatastoreService ds;
+  private SearchService searchService;
+  private CommentSearchServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    searchService = SearchServiceFactory.getSearchService();
+
+    Entity profile = new Entity(PROFILE_TASK_NAME, USER_ID_0);
+    profile.setProperty(NAME_PROPERTY, "User 0");
+    ds.put(profile);
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+    servlet = new CommentSearchServlet(ds, searchService);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void postComment(long timestamp, String businessId, String content) {
+    Entity comment = createCommentEntity(timestamp, USER_ID_0, businessId, false);
+    comment.setProperty(CONTENT_PROPERTY, content);
+    ds.put(comment);
+    indexComment(comment, searchService);
+  }
+
+  private List<Comment> search() throws IOException {
+    servlet.doGet(request, response);
+    return new Gson()
+        .fromJson(servletResponseWriter.toString(), new TypeToken<List<Comment>>() {}.getType());
+  }
+
+  @Test
+  public void testNoQuery() throws IOException {
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  /** Query syntax in the text is searched for literally instead of failing the search. */
+  @Test
+  public void testQuerySyntaxIsSearchedLiterally() throws IOException {
+    postComment(1, BUSINESS_ID_0, "Best pizza in town");
+    doReturn("\"pizza").when(request).getParameter("q");
+
+    List<Comment> comments = search();
+
+    assertEquals(1, comments.size());
+  }
+
+  /** Operators in the text cannot widen a search beyond its business. */
+  @Test
+  public void testQueryCannotEscapeBusiness() throws IOException {
+    postComment(1, BUSINESS_ID_0, "Best pizza in town");
+    postComment(3, BUSINESS_ID_1, "Their pizza is great too");
+    doReturn("pizza) OR (pizza").when(request).getParameter("q");
+    doReturn(BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    List<Comment> comments = search();
+
+    assertEquals(0, comments.size());
+  }
+
+  @Test
+  public void testOnlyMatchingCommentsReturned() throws IOException {
+    postComment(1, BUSINESS_ID_0, "Best pizza in town");
+    postComment(2, BUSINESS_ID_0, "The pasta was cold");
+    postComment(3, BUSINESS_ID_1, "Their pizza is great too");
+    doReturn("pizza").when(request).getParameter("q");
+
+    List<Comment> comments = search();
+
+    assertEquals(2, comments.size());
+  }
+
+  @Test
+  public void testSearchWithinBusiness() throws IOException {
+    postComment(1, BUSINESS_ID_0, "Best pizza in town");
+    postComment(3, BUSINESS_ID_1, "Their pizza is great too");
+    doReturn("pizza").when(request).getParameter("q");
+    doReturn(BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    List<Comment> comments = search();
+
+    assertEquals(1, comments.size());
+    assertEquals(BUSINESS_ID_1, comments.get(0).getBusinessId());
+  }
+
+  /** Equally relevant comments are returned newest first. */
+  @Test
+  public void testNewerCommentsRankHigher() throws IOException {
+    long now = System.currentTimeMillis();
+    postComment(now - 60 * 1000, BUSINESS_ID_0, "Curbside pickup was quick");
+    postComment(now - 365L * 24 * 60 * 60 * 1000, BUSINESS_ID_0, "Curbside pickup was quick");
+    postComment(now, BUSINESS_ID_0, "Curbside pickup was quick");
+    doReturn("curbside").when(request).getParameter("q");
+
+    List<Comment> comments = search();
+
+    assertEquals(3, comments.size());
+    assertEquals(now, comments.get(0).getTimestamp());
+    assertEquals(now - 60 * 1000, comments.get(1).getTimestamp());
+  }
+
+  /** Comments that are indexed but not yet written are left out rather than failing the search. */
+  @Test
+  public void testSkipsUnwrittenComments() throws IOException {
+    Entity pending = createCommentEntity(5, USER_ID_0, BUSINESS_ID_0, false);
+    pending.setProperty(CONTENT_PROPERTY, "Waiting on pizza");
+    indexComment(pending, searchService);
+    doReturn("pizza").when(request).getParameter("q");
+
+    assertEquals(0, search().size());
+  }
+
+  /** A comment that can't be indexed even on retry is left for the reindex, not thrown. */
+  @Test
+  public void testIndexFailureIsNotThrown() {
+    Index index = Mockito.mock(Index.class);
+    SearchService failingSearch = Mockito.mock(SearchService.class);
+    when(failingSearch.getIndex(Mockito.any(IndexSpec.Builder.class))).thenReturn(index);
+    when(index.put(Mockito.any(Document.class)))
+        .thenThrow(
+            new PutException(
+                new OperationResult(StatusCode.TRANSIENT_ERROR, "Search is unavailable.")));
+
+    indexComment(createCommentEntity(5, USER_ID_0, BUSINESS_ID_0, false), failingSearch);
+
+    Mockito.verify(index, Mockito.times(2)).put(Mockito.any(Document.class));
+  }
+}
@@ -22,9 +22,11 @@ import static com.google.sps.data.CommentDatastoreUtil.HAS_REPLIES_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.NULL_ID;
 import static com.google.sps.data.CommentDatastoreUtil.PARENT_ID_PROPERTY;
 import static com.google.sps.data.CommentDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.CommentIngestQueue.INGEST_QUEUE_NAME;
 import static com.google.sps.util.CommentTestUtil.createCommentEntity;
 import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 
 import com.google.appengine.api.datastore.DatastoreService;
@@ -37,14 +39,21 @@ import com.google.appengine.api.datastore.Query.CompositeFilter;
 import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.sps.data.CommentIngestQueue;
+import com.google.sps.data.ProfileCache;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.After;
@@ -66,7 +75,11 @@ public class CommentServletTest {
 
   private LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalSearchServiceTestConfig(),
+              new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"))
           // All this is necessary to get the fake userService to return a user
           .setEnvEmail(MOCK_EMAIL)
           .setEnvAuthDomain(MOCK_DOMAIN)
@@ -86,6 +99,7 @@ public class CommentServletTest {
   public void setUp() throws IOException {
     MockitoAnnotations.initMocks(this);
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     ds = DatastoreServiceFactory.getDatastoreService();
 
@@ -261,6 +275,26 @@ public class CommentServletTest {
     assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
   }
 
+  /**
+   * With write-behind, a parent that is allocated but not yet drained can't be read, so the reply
+   * is turned away with a retry rather than told the parent doesn't exist.
+   */
+  @Test
+  public void testReplyToQueuedCommentIsRetried() throws IOException {
+    CommentIngestQueue ingestQueue =
+        new CommentIngestQueue(
+            ds, QueueFactory.getQueue(INGEST_QUEUE_NAME), QueueFactory.getDefaultQueue());
+    String parentId = KeyFactory.keyToString(ingestQueue.allocateKey());
+    doReturn(parentId).when(request).getParameter(PARENT_ID_PROPERTY);
+
+    new CommentServlet(ingestQueue).doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response);
+    Mockito.verify(response).setHeader(Mockito.eq("Retry-After"), Mockito.anyString());
+    assertTrue(
+        QueueFactory.getQueue(INGEST_QUEUE_NAME).leaseTasks(1, TimeUnit.SECONDS, 1).isEmpty());
+  }
+
   @Test
   public void testPostReplyWithInvalidParentId() throws IOException {
     doReturn(INVALID_COMMENT_ID).when(request).getParameter(PARENT_ID_PROPERTY);
@@ -0,0 +1,233 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.CommentDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.CommentDatastoreUtil.generateComment;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.util.CommentTestUtil.createCommentEntity;
+import static com.google.sps.util.CommentTestUtil.generateUniqueCommentId;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.CommentStreamHub;
+import com.google.sps.data.ProfileCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class CommentStreamServletTest {
+  private final String USER_ID_0 = "0";
+  private final String BUSINESS_ID_0 = "0";
+  private final String BUSINESS_ID_1 = "1";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  @Mock private AsyncContext asyncContext;
+
+  private StringWriter servletResponseWriter;
+  private CommentStreamHub streamHub;
+  private CommentStreamServlet servlet;
+  private DatastoreService ds;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+
+    Entity profile = new Entity(PROFILE_TASK_NAME, USER_ID_0);
+    profile.setProperty(NAME_PROPERTY, "User 0");
+    ds.put(profile);
+
+    servletResponseWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(servletResponseWriter);
+    doReturn(writer).when(response).getWriter();
+    doReturn(asyncContext).when(request).startAsync();
+    doReturn(response).when(asyncContext).getResponse();
+    // Run stream writes inline so the test can inspect them.
+    doAnswer(
+            invocation -> {
+              ((Runnable) invocation.getArgument(0)).run();
+              return null;
+            })
+        .when(asyncContext)
+        .start(ArgumentMatchers.any());
+
+    streamHub = new CommentStreamHub();
+    servlet = new CommentStreamServlet(streamHub, ds);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private int countEvents(String stream) {
+    return stream.split("event: comment", -1).length - 1;
+  }
+
+  @Test
+  public void testNoBusinessId() throws IOException {
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  @Test
+  public void testInvalidSince() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("yesterday").when(request).getParameter("since");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  /** A reconnecting client only receives top level comments on its business newer than it saw. */
+  @Test
+  public void testCatchUpFromLastEventId() throws IOException {
+    ds.put(createCommentEntity(/*timestamp*/ 1, USER_ID_0, BUSINESS_ID_0, false));
+    ds.put(createCommentEntity(/*timestamp*/ 2, USER_ID_0, BUSINESS_ID_0, false));
+    ds.put(createCommentEntity(/*timestamp*/ 3, USER_ID_0, BUSINESS_ID_1, false));
+    ds.put(
+        createCommentEntity(
+            /*timestamp*/ 4,
+            USER_ID_0,
+            BUSINESS_ID_0, /*parentId*/
+            generateUniqueCommentId(1, USER_ID_0, BUSINESS_ID_0)));
+    ds.put(createCommentEntity(/*timestamp*/ 5, USER_ID_0, BUSINESS_ID_0, false));
+
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("1").when(request).getHeader("Last-Event-ID");
+
+    servlet.doGet(request, response);
+
+    String stream = servletResponseWriter.toString();
+    assertEquals(2, countEvents(stream));
+    assertTrue(stream.indexOf("id: 2\n") < stream.indexOf("id: 5\n"));
+    assertTrue(streamHub.hasSubscribers(BUSINESS_ID_0));
+  }
+
+  /** Catch-up is not cut off at one page; every missed comment is sent. */
+  @Test
+  public void testCatchUpSendsEveryMissedComment() throws IOException {
+    int missed = 45;
+    for (int i = 1; i <= missed; i++) {
+      ds.put(createCommentEntity(/*timestamp*/ i, USER_ID_0, BUSINESS_ID_0, false));
+    }
+
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("0").when(request).getHeader("Last-Event-ID");
+
+    servlet.doGet(request, response);
+
+    String stream = servletResponseWriter.toString();
+    assertEquals(missed, countEvents(stream));
+    assertTrue(stream.indexOf("id: 20\n") < stream.indexOf("id: 21\n"));
+    assertTrue(stream.contains("id: " + missed + "\n"));
+  }
+
+  /** A stream that already finished is dropped without failing the request that posted. */
+  @Test
+  public void testCompletedSubscriberIsDropped() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doThrow(new IllegalStateException("Async context completed."))
+        .when(asyncContext)
+        .start(ArgumentMatchers.any());
+
+    servlet.doGet(request, response);
+    streamHub.publish(generateComment(createCommentEntity(7, USER_ID_0, BUSINESS_ID_0, false)));
+
+    assertFalse(streamHub.hasSubscribers(BUSINESS_ID_0));
+  }
+
+  @Test
+  public void testPublishedCommentIsStreamed() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doGet(request, response);
+    assertEquals(0, countEvents(servletResponseWriter.toString()));
+
+    streamHub.publish(generateComment(createCommentEntity(7, USER_ID_0, BUSINESS_ID_0, false)));
+    streamHub.publish(generateComment(createCommentEntity(8, USER_ID_0, BUSINESS_ID_1, false)));
+
+    String stream = servletResponseWriter.toString();
+    assertEquals(1, countEvents(stream));
+    assertTrue(stream.contains("id: 7\n"));
+  }
+
+  @Test
+  public void testStreamUnsubscribesOnTimeout() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doGet(request, response);
+
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    Mockito.verify(asyncContext).addListener(listener.capture());
+    listener.getValue().onTimeout(new AsyncEvent(asyncContext));
+
+    assertFalse(streamHub.hasSubscribers(BUSINESS_ID_0));
+    Mockito.verify(asyncContext).complete();
+  }
+
+  /** A subscriber that stops draining its buffer is dropped instead of growing without bound. */
+  @Test
+  public void testSlowSubscriberIsDropped() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    // Never run the writes, as if the container had no threads to spare.
+    doAnswer(invocation -> null).when(asyncContext).start(ArgumentMatchers.any());
+
+    servlet.doGet(request, response);
+
+    for (int i = 0; i <= CommentStreamHub.SUBSCRIBER_BUFFER_SIZE; i++) {
+      streamHub.publish(generateComment(createCommentEntity(i, USER_ID_0, BUSINESS_ID_0, false)));
+    }
+
+    assertFalse(streamHub.hasSubscribers(BUSINESS_ID_0));
+    Mockito.verify(asyncContext).complete();
+  }
+}
@@ -25,6 +25,8 @@ import static com.google.sps.util.CommentTestUtil.createCommentEntity;
 import static com.google.sps.util.CommentTestUtil.generateUniqueCommentId;
 import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
 import static com.google.sps.util.TestUtil.assertSameJsonObject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.reset;
 
@@ -32,18 +34,25 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.sps.data.Comment;
+import com.google.sps.data.ProfileCache;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 public class CommentsServletTest {
@@ -57,7 +66,8 @@ public class CommentsServletTest {
   private final long TIMESTAMP_0 = 0;
 
   private final LocalServiceTestHelper helper =
-      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
 
   @Mock private HttpServletRequest request;
   @Mock private HttpServletResponse response;
@@ -71,6 +81,7 @@ public class CommentsServletTest {
   public void setUp() throws IOException {
     MockitoAnnotations.initMocks(this);
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     ds = DatastoreServiceFactory.getDatastoreService();
 
@@ -166,7 +177,7 @@ public class CommentsServletTest {
         id,
         timestamp,
         userId,
-        getProfileName(userId, ds),
+        getProfileName(userId),
         businessId, /*parentId*/
         NULL_ID,
         hasReplies);
@@ -181,7 +192,7 @@ public class CommentsServletTest {
         id,
         timestamp,
         userId,
-        getProfileName(userId, ds),
+        getProfileName(userId),
         businessId,
         parentId, /*hasReplies*/
         false);
@@ -363,4 +374,104 @@ public class CommentsServletTest {
 
     assertSameJsonObject(expectedResponse, servletResponse);
   }
+
+  /** Polling a business with since only returns the top level comments posted afterwards. */
+  @Test
+  public void testBusinessRequestSince() throws IOException {
+    initDatastore(ds);
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("0").when(request).getParameter("since");
+
+    servlet.doGet(request, response);
+
+    JsonObject delta = getDelta();
+    assertSameJsonObject(
+        new Gson()
+            .toJson(
+                Arrays.asList(
+                    generateCommentForTest(/*timestamp*/ 3, USER_ID_1, BUSINESS_ID_0, true))),
+        delta.get("comments").toString());
+    assertTrue(delta.has("cursor"));
+  }
+
+  /** New replies are returned oldest first, with a cursor to resume from. */
+  @Test
+  public void testReplyRequestSince() throws IOException {
+    initDatastore(ds);
+    String parentId = generateUniqueCommentId(3, USER_ID_1, BUSINESS_ID_0);
+    doReturn(parentId).when(request).getParameter(PARENT_ID_PROPERTY);
+    doReturn("3").when(request).getParameter("since");
+
+    servlet.doGet(request, response);
+
+    JsonObject delta = getDelta();
+    assertSameJsonObject(
+        new Gson()
+            .toJson(
+                Arrays.asList(
+                    generateCommentForTest(/*timestamp*/ 4, USER_ID_0, BUSINESS_ID_0, parentId),
+                    generateCommentForTest(/*timestamp*/ 5, USER_ID_1, BUSINESS_ID_0, parentId))),
+        delta.get("comments").toString());
+    assertTrue(delta.has("cursor"));
+  }
+
+  /** A page that ends between two comments posted in the same millisecond loses neither. */
+  @Test
+  public void testSinceResumesFromCursorWithinTimestamp() throws IOException {
+    for (int timestamp = 1; timestamp <= 20; timestamp++) {
+      ds.put(createCommentEntity(timestamp, USER_ID_0, BUSINESS_ID_1, false));
+    }
+    ds.put(createCommentEntity(/*timestamp*/ 20, USER_ID_1, BUSINESS_ID_1, false));
+    doReturn(BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("0").when(request).getParameter("since");
+
+    servlet.doGet(request, response);
+    JsonObject firstPoll = getDelta();
+    assertEquals(20, firstPoll.getAsJsonArray("comments").size());
+
+    servletResponseWriter.getBuffer().setLength(0);
+    doReturn(firstPoll.get("cursor").getAsString()).when(request).getParameter("cursor");
+    servlet.doGet(request, response);
+    JsonArray secondPoll = getDelta().getAsJsonArray("comments");
+
+    assertEquals(1, secondPoll.size());
+    assertEquals(20, secondPoll.get(0).getAsJsonObject().get("timestamp").getAsLong());
+  }
+
+  @Test
+  public void testRejectsInvalidCursor() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("0").when(request).getParameter("since");
+    doReturn("not a cursor").when(request).getParameter("cursor");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  private JsonObject getDelta() {
+    return new JsonParser().parse(servletResponseWriter.toString()).getAsJsonObject();
+  }
+
+  @Test
+  public void testNothingNewSince() throws IOException {
+    initDatastore(ds);
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("3").when(request).getParameter("since");
+
+    servlet.doGet(request, response);
+
+    Mockito.verify(response).setStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertEquals("", servletResponseWriter.toString());
+  }
+
+  @Test
+  public void testRejectsInvalidSince() throws IOException {
+    doReturn(BUSINESS_ID_0).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    doReturn("3 minutes ago").when(request).getParameter("since");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
 }
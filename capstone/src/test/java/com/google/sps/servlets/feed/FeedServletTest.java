@@ -0,0 +1,203 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.PaginationUtil.NEXT_CURSOR_HEADER;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.util.CommentTestUtil.createCommentEntity;
+import static com.google.sps.util.CommentTestUtil.generateUniqueCommentId;
+import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.sps.data.ProfileCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class FeedServletTest {
+  private static final String MOCK_EMAIL = "tutorguy@gmail.com";
+  private static final String MOCK_DOMAIN = "microsoft.com";
+  private static final String USER_ID = "1";
+  private static final String AUTHOR_ID = "2";
+  private static final String BUSINESS_ID_1 = "3";
+  private static final String BUSINESS_ID_2 = "4";
+  private static final String BUSINESS_ID_3 = "5";
+  private static final String UNFOLLOWED_BUSINESS_ID = "6";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig())
+          .setEnvEmail(MOCK_EMAIL)
+          .setEnvAuthDomain(MOCK_DOMAIN)
+          .setEnvIsLoggedIn(true)
+          .setEnvAttributes(
+              new HashMap(
+                  ImmutableMap.of(
+                      "com.google.appengine.api.users.UserService.user_id_key", USER_ID)));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private DatastoreService ds;
+  private FeedServlet servlet;
+  // The cursor sent with the last page requested, or null if it was the last page.
+  private String nextCursor;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+
+    Entity author = new Entity(PROFILE_TASK_NAME, AUTHOR_ID);
+    author.setProperty(NAME_PROPERTY, "Author");
+    ds.put(author);
+
+    ds.put(createMockFollowEntity(USER_ID, BUSINESS_ID_1));
+    ds.put(createMockFollowEntity(USER_ID, BUSINESS_ID_2));
+    ds.put(createMockFollowEntity(USER_ID, BUSINESS_ID_3));
+
+    servlet = new FeedServlet(ds, DatastoreServiceFactory.getAsyncDatastoreService());
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private JsonArray getFeedPage(String cursor) throws IOException {
+    HttpServletResponse pageResponse = mock(HttpServletResponse.class);
+    StringWriter servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(pageResponse).getWriter();
+    doReturn(cursor).when(request).getParameter("cursor");
+
+    servlet.doGet(request, pageResponse);
+
+    ArgumentCaptor<String> cursorHeader = ArgumentCaptor.forClass(String.class);
+    verify(pageResponse, atMost(1)).setHeader(eq(NEXT_CURSOR_HEADER), cursorHeader.capture());
+    nextCursor = cursorHeader.getAllValues().isEmpty() ? null : cursorHeader.getValue();
+    return new JsonParser().parse(servletResponseWriter.toString()).getAsJsonArray();
+  }
+
+  private List<Long> getTimestamps(JsonArray page) {
+    List<Long> timestamps = new ArrayList<>();
+    for (JsonElement comment : page) {
+      timestamps.add(comment.getAsJsonObject().get("timestamp").getAsLong());
+    }
+    return timestamps;
+  }
+
+  @Test
+  public void testUserNotLoggedIn() throws IOException {
+    helper.setEnvIsLoggedIn(false);
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_UNAUTHORIZED, response);
+  }
+
+  @Test
+  public void testInvalidCursor() throws IOException {
+    doReturn("not a cursor").when(request).getParameter("cursor");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  /** Comments from every followed business are merged newest first, without replies. */
+  @Test
+  public void testMergesFollowedBusinesses() throws IOException {
+    ds.put(createCommentEntity(1, AUTHOR_ID, BUSINESS_ID_1, false));
+    ds.put(createCommentEntity(4, AUTHOR_ID, BUSINESS_ID_1, false));
+    ds.put(createCommentEntity(2, AUTHOR_ID, BUSINESS_ID_2, false));
+    ds.put(createCommentEntity(3, AUTHOR_ID, BUSINESS_ID_3, false));
+    ds.put(createCommentEntity(5, AUTHOR_ID, UNFOLLOWED_BUSINESS_ID, false));
+    ds.put(
+        createCommentEntity(
+            6, AUTHOR_ID, BUSINESS_ID_1, generateUniqueCommentId(4, AUTHOR_ID, BUSINESS_ID_1)));
+
+    JsonArray page = getFeedPage(null);
+
+    assertEquals(Arrays.asList(4L, 3L, 2L, 1L), getTimestamps(page));
+    assertNull(nextCursor);
+  }
+
+  /** Paging through the feed returns every comment exactly once, in order. */
+  @Test
+  public void testPagination() throws IOException {
+    String[] businessIds = {BUSINESS_ID_1, BUSINESS_ID_2, BUSINESS_ID_3};
+    int commentCount = 45;
+    for (int i = 1; i <= commentCount; i++) {
+      ds.put(createCommentEntity(i, AUTHOR_ID, businessIds[(i * 7) % 3], false));
+    }
+
+    List<Long> timestamps = new ArrayList<>();
+    JsonArray page = getFeedPage(null);
+    timestamps.addAll(getTimestamps(page));
+    int pages = 1;
+    while (nextCursor != null) {
+      page = getFeedPage(nextCursor);
+      timestamps.addAll(getTimestamps(page));
+      pages++;
+    }
+
+    assertEquals(3, pages);
+    assertEquals(commentCount, timestamps.size());
+    Set<Long> uniqueTimestamps = new HashSet<>(timestamps);
+    assertEquals(commentCount, uniqueTimestamps.size());
+    for (int i = 1; i < timestamps.size(); i++) {
+      assertTrue(timestamps.get(i - 1) > timestamps.get(i));
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.sps.data.TokenBucketRateLimiter;
+import java.io.IOException;
+import java.util.HashMap;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class RateLimitFilterTest {
+  private static final String MOCK_EMAIL = "tutorguy@gmail.com";
+  private static final String MOCK_DOMAIN = "microsoft.com";
+  private static final String MOCK_USER_ID = "1";
+  private static final String MOCK_IP_1 = "10.0.0.1";
+  private static final String MOCK_IP_2 = "10.0.0.2";
+  private static final int USER_BURST = 2;
+  private static final int IP_BURST = 3;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalUserServiceTestConfig())
+          .setEnvEmail(MOCK_EMAIL)
+          .setEnvAuthDomain(MOCK_DOMAIN)
+          .setEnvIsLoggedIn(true)
+          .setEnvAttributes(
+              new HashMap(
+                  ImmutableMap.of(
+                      "com.google.appengine.api.users.UserService.user_id_key", MOCK_USER_ID)));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  @Mock private FilterChain chain;
+
+  private RateLimitFilter filter;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    doReturn("POST").when(request).getMethod();
+    doReturn(MOCK_IP_1).when(request).getRemoteAddr();
+
+    filter =
+        new RateLimitFilter(
+            new TokenBucketRateLimiter("user", USER_BURST, 0.01, null),
+            new TokenBucketRateLimiter("ip", IP_BURST, 0.01, null));
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void verifyLimited() throws IOException {
+    Mockito.verify(response)
+        .sendError(Mockito.eq(RateLimitFilter.SC_TOO_MANY_REQUESTS), Mockito.anyString());
+    Mockito.verify(response).setHeader(Mockito.eq("Retry-After"), Mockito.anyString());
+  }
+
+  @Test
+  public void testUserLimit() throws IOException, ServletException {
+    for (int i = 0; i < USER_BURST; i++) {
+      // Switching addresses does not get around the per-user limit.
+      doReturn("10.0.1." + i).when(request).getRemoteAddr();
+      filter.doFilter(request, response, chain);
+    }
+    filter.doFilter(request, response, chain);
+
+    Mockito.verify(chain, Mockito.times(USER_BURST)).doFilter(request, response);
+    verifyLimited();
+  }
+
+  @Test
+  public void testIpLimit() throws IOException, ServletException {
+    helper.setEnvIsLoggedIn(false);
+
+    for (int i = 0; i <= IP_BURST; i++) {
+      filter.doFilter(request, response, chain);
+    }
+
+    Mockito.verify(chain, Mockito.times(IP_BURST)).doFilter(request, response);
+    verifyLimited();
+
+    // Other addresses are unaffected.
+    doReturn(MOCK_IP_2).when(request).getRemoteAddr();
+    filter.doFilter(request, response, chain);
+    Mockito.verify(chain, Mockito.times(IP_BURST + 1)).doFilter(request, response);
+  }
+
+  @Test
+  public void testReadsAreNotLimited() throws IOException, ServletException {
+    doReturn("GET").when(request).getMethod();
+
+    for (int i = 0; i <= IP_BURST; i++) {
+      filter.doFilter(request, response, chain);
+    }
+
+    Mockito.verify(chain, Mockito.times(IP_BURST + 1)).doFilter(request, response);
+    Mockito.verify(response, Mockito.never()).sendError(Mockito.anyInt(), Mockito.anyString());
+  }
+}
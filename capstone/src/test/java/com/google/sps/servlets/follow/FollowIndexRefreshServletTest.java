@@ -0,0 +1,105 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.TaskRequestUtil.QUEUE_NAME_HEADER;
+import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.data.FollowGraph;
+import com.google.sps.data.FollowSnapshot;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class FollowIndexRefreshServletTest {
+  private static final String MOCK_USER_ID_1 = "1";
+  private static final String MOCK_USER_ID_2 = "2";
+  private static final String MOCK_BUSINESS_ID_1 = "3";
+  private static final String MOCK_BUSINESS_ID_2 = "4";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig());
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private DatastoreService ds;
+  private FollowGraph followGraph;
+  private FollowIndexRefreshServlet servlet;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    followGraph = new FollowGraph(ds, System::currentTimeMillis);
+    servlet =
+        new FollowIndexRefreshServlet(
+            ds, new FollowSnapshot(ds, System::currentTimeMillis), followGraph);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** Follows written through another instance are picked up by the refresh. */
+  @Test
+  public void testRefreshPicksUpNewFollows() throws IOException {
+    ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    assertEquals(0, followGraph.getCoFollowedBusinesses(MOCK_BUSINESS_ID_1, 5).size());
+
+    ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2));
+    ds.put(createMockFollowEntity(MOCK_USER_ID_2, MOCK_BUSINESS_ID_2));
+    doReturn("default").when(request).getHeader(QUEUE_NAME_HEADER);
+    servlet.doPost(request, response);
+
+    assertEquals(1, followGraph.getCoFollowedBusinesses(MOCK_BUSINESS_ID_1, 5).size());
+  }
+
+  /** Other instances load the refreshed follows from the stored snapshot. */
+  @Test
+  public void testRefreshReachesOtherInstances() throws IOException {
+    ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2));
+    doReturn("default").when(request).getHeader(QUEUE_NAME_HEADER);
+    servlet.doPost(request, response);
+
+    FollowGraph otherGraph = new FollowGraph(ds, System::currentTimeMillis);
+    assertEquals(1, otherGraph.getCoFollowedBusinesses(MOCK_BUSINESS_ID_1, 5).size());
+  }
+
+  @Test
+  public void testRejectsOutsideRequests() throws IOException {
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_FORBIDDEN, response);
+  }
+}
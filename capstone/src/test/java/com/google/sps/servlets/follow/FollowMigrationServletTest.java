@@ -0,0 +1,148 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
+import static com.google.sps.data.FollowDatastoreUtil.createFollowKey;
+import static com.google.sps.data.TaskRequestUtil.QUEUE_NAME_HEADER;
+import static com.google.sps.util.FollowTestUtil.createLegacyFollowEntity;
+import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.FollowDatastoreUtil;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class FollowMigrationServletTest {
+  private static final String MOCK_USER_ID_1 = "1";
+  private static final String MOCK_USER_ID_2 = "2";
+  private static final String MOCK_BUSINESS_ID_1 = "3";
+  private static final String MOCK_BUSINESS_ID_2 = "4";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalUserServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private DatastoreService ds;
+  private FollowMigrationServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+    servlet =
+        new FollowMigrationServlet(
+            DatastoreServiceFactory.getAsyncDatastoreService(), QueueFactory.getDefaultQueue());
+  }
+
+  @After
+  public void tearDown() {
+    FollowDatastoreUtil.clearMigrationStatus();
+    helper.tearDown();
+  }
+
+  private JsonObject migrateAsTask() throws IOException {
+    doReturn("default").when(request).getHeader(QUEUE_NAME_HEADER);
+
+    servlet.doPost(request, response);
+
+    return new JsonParser().parse(servletResponseWriter.toString()).getAsJsonObject();
+  }
+
+  private int countFollows() {
+    return ds.prepare(new Query(FOLLOW_TASK_NAME)).countEntities(withDefaults());
+  }
+
+  /** Legacy follows are rewritten under their key and duplicates are merged. */
+  @Test
+  public void testMigratesLegacyFollows() throws IOException, EntityNotFoundException {
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2));
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_2, MOCK_BUSINESS_ID_1));
+    // Already migrated, and a duplicate of a legacy follow.
+    ds.put(createMockFollowEntity(MOCK_USER_ID_2, MOCK_BUSINESS_ID_1));
+
+    JsonObject stats = migrateAsTask();
+
+    assertEquals(3, countFollows());
+    assertNotNull(ds.get(createFollowKey(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1)));
+    assertNotNull(ds.get(createFollowKey(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2)));
+    assertNotNull(ds.get(createFollowKey(MOCK_USER_ID_2, MOCK_BUSINESS_ID_1)));
+    assertEquals(4, stats.get("legacyFollows").getAsLong());
+    assertEquals(3, stats.get("keyedFollowsWritten").getAsLong());
+    assertTrue(stats.get("complete").getAsBoolean());
+    assertNotNull(ds.get(FollowDatastoreUtil.MIGRATION_COMPLETE_KEY));
+  }
+
+  /** Legacy follows spanning several pages are all migrated. */
+  @Test
+  public void testMigratesManyPages() throws IOException {
+    int followCount = 1200;
+    for (int i = 0; i < followCount; i++) {
+      ds.put(createLegacyFollowEntity(Integer.toString(i), MOCK_BUSINESS_ID_1));
+    }
+
+    migrateAsTask();
+
+    assertEquals(followCount, countFollows());
+    for (Entity follow : ds.prepare(new Query(FOLLOW_TASK_NAME)).asIterable()) {
+      assertNotNull(follow.getKey().getName());
+    }
+  }
+
+  @Test
+  public void testRejectsOutsideRequests() throws IOException {
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_FORBIDDEN, response);
+  }
+}
@@ -18,9 +18,11 @@ import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaul
 import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
 import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
 import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.createFollowKey;
 import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.util.FollowTestUtil.createLegacyFollowEntity;
 import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
 import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
 import static com.google.sps.util.TestUtil.assertSameJsonObject;
@@ -30,15 +32,22 @@ import static org.mockito.Mockito.doReturn;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.CompositeFilter;
 import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.sps.data.FollowDatastoreUtil;
+import com.google.sps.data.FollowLeaderboard;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileCache;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -50,6 +59,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 public class FollowServletTest {
@@ -63,7 +73,10 @@ public class FollowServletTest {
 
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"))
           // All this is necessary to get the fake userService to return a user
           .setEnvEmail(MOCK_EMAIL)
           .setEnvAuthDomain(MOCK_DOMAIN)
@@ -84,6 +97,7 @@ public class FollowServletTest {
   public void setUp() throws IOException {
     MockitoAnnotations.initMocks(this);
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     ds = DatastoreServiceFactory.getDatastoreService();
 
@@ -93,6 +107,9 @@ public class FollowServletTest {
     servletResponseWriter = new StringWriter();
     doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
     servlet = new FollowServlet();
+    FollowerCounter.getInstance().clearCache();
+    FollowLeaderboard.getInstance().clear();
+    FollowDatastoreUtil.clearMigrationStatus();
   }
 
   @After
@@ -134,6 +151,33 @@ public class FollowServletTest {
     assertEquals(1, countFollowOccurences(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
   }
 
+  /** A follow can be found by key without a query. */
+  @Test
+  public void testFollowIsKeyedByUserAndBusiness() throws IOException, EntityNotFoundException {
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doPost(request, response);
+
+    Entity follow = ds.get(createFollowKey(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    assertEquals(MOCK_USER_ID_1, follow.getProperty(USER_ID_PROPERTY));
+    assertEquals(MOCK_BUSINESS_ID_1, follow.getProperty(BUSINESS_ID_PROPERTY));
+  }
+
+  /** A follow records its business for the next leaderboard flush. */
+  @Test
+  public void testFollowRecordedForLeaderboard() throws IOException {
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doPost(request, response);
+
+    assertEquals(
+        1,
+        LocalTaskQueueTestConfig.getLocalTaskQueue()
+            .getQueueStateInfo()
+            .get(FollowLeaderboard.CHANGE_QUEUE_NAME)
+            .getCountTasks());
+  }
+
   /**
    * When the user sends two requests to follow the same business only one follow should be saved.
    */
@@ -289,6 +333,19 @@ public class FollowServletTest {
     assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
   }
 
+  /** Following and unfollowing keep the business' follower count up to date. */
+  @Test
+  public void testFollowerCount() throws IOException {
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doPost(request, response);
+    assertEquals(1, FollowerCounter.getInstance().getCount(MOCK_BUSINESS_ID_1));
+    assertEquals(0, FollowerCounter.getInstance().getCount(MOCK_BUSINESS_ID_2));
+
+    servlet.doDelete(request, response);
+    assertEquals(0, FollowerCounter.getInstance().getCount(MOCK_BUSINESS_ID_1));
+  }
+
   @Test
   public void testBasicDoGetPositive() throws IOException {
     ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
@@ -331,4 +388,106 @@ public class FollowServletTest {
 
     assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
   }
+
+  /** Follows saved with automatic ids are still seen before the migration has run. */
+  @Test
+  public void testLegacyFollowIsFound() throws IOException {
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doGet(request, response);
+    assertSameJsonObject("true", servletResponseWriter.toString());
+
+    servletResponseWriter.getBuffer().setLength(0);
+    doReturn(MOCK_BUSINESS_ID_1 + "," + MOCK_BUSINESS_ID_2)
+        .when(request)
+        .getParameter("businessIds");
+    servlet.doGet(request, response);
+    assertSameJsonObject(
+        "{\"" + MOCK_BUSINESS_ID_1 + "\": true, \"" + MOCK_BUSINESS_ID_2 + "\": false}",
+        servletResponseWriter.toString());
+  }
+
+  @Test
+  public void testLegacyFollowIsNotDuplicated() throws IOException {
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doPost(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+    assertEquals(1, countFollowOccurences(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+  }
+
+  @Test
+  public void testUnfollowDeletesLegacyFollow() throws IOException {
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doDelete(request, response);
+
+    Mockito.verify(response).sendRedirect(Mockito.anyString());
+    assertEquals(0, countFollowOccurences(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+  }
+
+  /** Once the migration has completed, lookups go by key alone. */
+  @Test
+  public void testLegacyQuerySkippedOnceMigrated() throws IOException {
+    ds.put(new Entity(FollowDatastoreUtil.MIGRATION_COMPLETE_KEY));
+    ds.put(createLegacyFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doGet(request, response);
+
+    assertSameJsonObject("false", servletResponseWriter.toString());
+  }
+
+  /** Many businesses can be checked in one request. */
+  @Test
+  public void testDoGetBatch() throws IOException {
+    ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2));
+    ds.put(createMockFollowEntity(MOCK_USER_ID_2, MOCK_BUSINESS_ID_1));
+    doReturn(MOCK_BUSINESS_ID_1 + "," + MOCK_BUSINESS_ID_2 + "," + NON_EXISTENT_BUSINESS_ID)
+        .when(request)
+        .getParameter("businessIds");
+
+    servlet.doGet(request, response);
+
+    assertSameJsonObject(
+        "{\""
+            + MOCK_BUSINESS_ID_1
+            + "\": false, \""
+            + MOCK_BUSINESS_ID_2
+            + "\": true, \""
+            + NON_EXISTENT_BUSINESS_ID
+            + "\": false}",
+        servletResponseWriter.toString());
+  }
+
+  @Test
+  public void testDoGetBatchTooManyBusinesses() throws IOException {
+    StringBuilder businessIds = new StringBuilder();
+    for (int i = 0; i <= 100; i++) {
+      businessIds.append(i).append(",");
+    }
+    doReturn(businessIds.toString()).when(request).getParameter("businessIds");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  /** Follow statuses are read from datastore, so a new follow is never reported as missing. */
+  @Test
+  public void testDoGetAfterFollow() throws IOException {
+    doReturn(MOCK_BUSINESS_ID_1).when(request).getParameter(BUSINESS_ID_PROPERTY);
+    servlet.doGet(request, response);
+    assertSameJsonObject("false", servletResponseWriter.toString());
+
+    servlet.doPost(request, response);
+    servletResponseWriter.getBuffer().setLength(0);
+    servlet.doGet(request, response);
+
+    assertSameJsonObject("true", servletResponseWriter.toString());
+  }
 }
@@ -0,0 +1,174 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static com.google.sps.util.TestUtil.assertSameJsonObject;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.sps.data.ProfileCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class FollowerExportServletTest {
+  private static final String MOCK_EMAIL = "tutorguy@gmail.com";
+  private static final String MOCK_DOMAIN = "microsoft.com";
+  private static final String MOCK_BUSINESS_ID_1 = "1";
+  private static final String MOCK_BUSINESS_ID_2 = "2";
+  private static final String MOCK_USER_ID_1 = "3";
+  private static final String MOCK_USER_ID_2 = "4";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvEmail(MOCK_EMAIL)
+          .setEnvAuthDomain(MOCK_DOMAIN)
+          .setEnvIsLoggedIn(true)
+          .setEnvAttributes(
+              new HashMap(
+                  ImmutableMap.of(
+                      "com.google.appengine.api.users.UserService.user_id_key",
+                      MOCK_BUSINESS_ID_1)));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private StringWriter servletResponseWriter;
+  private FollowerExportServlet servlet;
+  private DatastoreService ds;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+
+    Entity profile = new Entity(PROFILE_TASK_NAME, MOCK_USER_ID_1);
+    profile.setProperty(NAME_PROPERTY, "Smith, \"Jo\"");
+    profile.setProperty(LOCATION_PROPERTY, "Seattle");
+    ds.put(profile);
+    ds.put(createMockFollowEntity(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1));
+    ds.put(createMockFollowEntity(MOCK_USER_ID_2, MOCK_BUSINESS_ID_2));
+
+    servletResponseWriter = new StringWriter();
+    doReturn(new PrintWriter(servletResponseWriter)).when(response).getWriter();
+
+    servlet = new FollowerExportServlet();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testNdjsonExport() throws IOException {
+    servlet.doGet(request, response);
+
+    String[] lines = servletResponseWriter.toString().split("\n");
+    assertEquals(1, lines.length);
+    assertSameJsonObject(
+        "{\"userId\": \""
+            + MOCK_USER_ID_1
+            + "\", \"businessId\": \""
+            + MOCK_BUSINESS_ID_1
+            + "\", \"name\": \"Smith, \\\"Jo\\\"\", \"location\": \"Seattle\"}",
+        lines[0]);
+  }
+
+  @Test
+  public void testCsvExport() throws IOException {
+    doReturn("csv").when(request).getParameter("format");
+
+    servlet.doGet(request, response);
+
+    assertEquals(
+        "userId,name,location\n" + MOCK_USER_ID_1 + ",\"Smith, \"\"Jo\"\"\",Seattle\n",
+        servletResponseWriter.toString());
+  }
+
+  /** Names and locations that a spreadsheet would run as formulas are exported as text. */
+  @Test
+  public void testCsvExportEscapesFormulas() throws IOException {
+    Entity profile = new Entity(PROFILE_TASK_NAME, MOCK_USER_ID_1);
+    profile.setProperty(NAME_PROPERTY, "=HYPERLINK(\"http://example.com\")");
+    profile.setProperty(LOCATION_PROPERTY, "-1+2");
+    ds.put(profile);
+    ProfileCache.getInstance().clear();
+    doReturn("csv").when(request).getParameter("format");
+
+    servlet.doGet(request, response);
+
+    assertEquals(
+        "userId,name,location\n"
+            + MOCK_USER_ID_1
+            + ",\"'=HYPERLINK(\"\"http://example.com\"\")\",'-1+2\n",
+        servletResponseWriter.toString());
+  }
+
+  /** Exports larger than one page are read over several queries. */
+  @Test
+  public void testExportSpansPages() throws IOException {
+    for (int i = 0; i < FollowerExportServlet.PAGE_SIZE; i++) {
+      ds.put(createMockFollowEntity("user" + i, MOCK_BUSINESS_ID_1));
+    }
+
+    servlet.doGet(request, response);
+
+    assertEquals(
+        FollowerExportServlet.PAGE_SIZE + 1, servletResponseWriter.toString().split("\n").length);
+  }
+
+  @Test
+  public void testCannotExportOtherBusiness() throws IOException {
+    doReturn(MOCK_BUSINESS_ID_2).when(request).getParameter(BUSINESS_ID_PROPERTY);
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_FORBIDDEN, response);
+  }
+
+  @Test
+  public void testInvalidFormat() throws IOException {
+    doReturn("xml").when(request).getParameter("format");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+}
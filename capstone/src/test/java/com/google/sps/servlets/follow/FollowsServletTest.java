@@ -16,6 +16,9 @@ package com.google.sps.servlets;
 
 import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
 import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.LOCATION_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
 import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
 import static com.google.sps.util.TestUtil.assertSameJsonObject;
@@ -23,6 +26,7 @@ import static org.mockito.Mockito.doReturn;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.gson.Gson;
@@ -35,7 +39,9 @@ import javax.servlet.http.HttpServletResponse;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 public class FollowsServletTest {
@@ -174,4 +180,79 @@ public class FollowsServletTest {
 
     assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
   }
+
+  /** Pages are linked by the cursor in the response header. */
+  @Test
+  public void testDoGetPaginated() throws IOException {
+    doReturn(MOCK_USER_ID_1).when(request).getParameter(USER_ID_PROPERTY);
+    doReturn("1").when(request).getParameter("limit");
+
+    servlet.doGet(request, response);
+
+    ArgumentCaptor<String> cursor = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(response).setHeader(Mockito.eq("X-Next-Cursor"), cursor.capture());
+    assertSameJsonObject(
+        new Gson().toJson(new Follow[] {new Follow(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1)}),
+        servletResponseWriter.toString());
+
+    StringWriter secondPageWriter = new StringWriter();
+    doReturn(new PrintWriter(secondPageWriter)).when(response).getWriter();
+    doReturn(cursor.getValue()).when(request).getParameter("cursor");
+
+    servlet.doGet(request, response);
+
+    assertSameJsonObject(
+        new Gson().toJson(new Follow[] {new Follow(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2)}),
+        secondPageWriter.toString());
+  }
+
+  @Test
+  public void testDoGetLastPageHasNoCursor() throws IOException {
+    doReturn(MOCK_USER_ID_1).when(request).getParameter(USER_ID_PROPERTY);
+
+    servlet.doGet(request, response);
+
+    Mockito.verify(response, Mockito.never())
+        .setHeader(Mockito.eq("X-Next-Cursor"), Mockito.anyString());
+  }
+
+  @Test
+  public void testDoGetInvalidCursor() throws IOException {
+    doReturn(MOCK_USER_ID_1).when(request).getParameter(USER_ID_PROPERTY);
+    doReturn("not a cursor").when(request).getParameter("cursor");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
+
+  /** Expanding inlines the followed business' profile. */
+  @Test
+  public void testDoGetExpandProfile() throws IOException {
+    Entity business = new Entity(PROFILE_TASK_NAME, MOCK_BUSINESS_ID_2);
+    business.setProperty(NAME_PROPERTY, "Famous Pizzeria");
+    business.setProperty(LOCATION_PROPERTY, "Mountain View, CA");
+    ds.put(business);
+    doReturn(MOCK_USER_ID_1).when(request).getParameter(USER_ID_PROPERTY);
+    doReturn("profile").when(request).getParameter("expand");
+
+    servlet.doGet(request, response);
+
+    Follow expandedFollow = new Follow(MOCK_USER_ID_1, MOCK_BUSINESS_ID_2);
+    expandedFollow.setProfile("Famous Pizzeria", "Mountain View, CA");
+    assertSameJsonObject(
+        new Gson()
+            .toJson(new Follow[] {new Follow(MOCK_USER_ID_1, MOCK_BUSINESS_ID_1), expandedFollow}),
+        servletResponseWriter.toString());
+  }
+
+  @Test
+  public void testDoGetUnknownExpansion() throws IOException {
+    doReturn(MOCK_USER_ID_1).when(request).getParameter(USER_ID_PROPERTY);
+    doReturn("comments").when(request).getParameter("expand");
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_BAD_REQUEST, response);
+  }
 }
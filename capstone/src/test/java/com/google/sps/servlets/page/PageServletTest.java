@@ -0,0 +1,240 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.ConditionalGetUtil.ETAG_HEADER;
+import static com.google.sps.data.ConditionalGetUtil.IF_NONE_MATCH_HEADER;
+import static com.google.sps.data.ProfileDatastoreUtil.CALENDAR_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NO;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.util.CommentTestUtil.createCommentEntity;
+import static com.google.sps.util.FollowTestUtil.createMockFollowEntity;
+import static com.google.sps.util.TestUtil.assertResponseWithArbitraryTextRaised;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.FollowerCounter;
+import com.google.sps.data.ProfileCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class PageServletTest {
+  private static final String VIEWER_ID = "1";
+  private static final String BUSINESS_ID_1 = "10";
+  private static final String BUSINESS_ID_2 = "11";
+  private static final String OTHER_USER_ID = "2";
+  private static final String EMAIL = "abc@gmail.com";
+  private static final String AUTHDOMAIN = "gmail.com";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalUserServiceTestConfig())
+          .setEnvEmail(EMAIL)
+          .setEnvAuthDomain(AUTHDOMAIN)
+          .setEnvIsLoggedIn(true)
+          .setEnvAttributes(
+              new HashMap(
+                  ImmutableMap.of(
+                      "com.google.appengine.api.users.UserService.user_id_key", VIEWER_ID)));
+
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private DatastoreService ds;
+  private StringWriter responseWriter;
+  private PageServlet servlet;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+    FollowerCounter.getInstance().clearCache();
+
+    ds = DatastoreServiceFactory.getDatastoreService();
+    responseWriter = new StringWriter();
+    doReturn(new PrintWriter(responseWriter)).when(response).getWriter();
+    servlet = new PageServlet();
+
+    ds.put(createProfile(VIEWER_ID, "Viewer", NO));
+    ds.put(createProfile(OTHER_USER_ID, "Other", NO));
+    ds.put(createProfile(BUSINESS_ID_1, "Pizzeria", YES));
+    ds.put(createProfile(BUSINESS_ID_2, "Bakery", YES));
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity createProfile(String id, String name, String isBusiness) {
+    Entity profile = new Entity(PROFILE_TASK_NAME, id);
+    profile.setProperty(NAME_PROPERTY, name);
+    profile.setProperty(IS_BUSINESS_PROPERTY, isBusiness);
+    profile.setProperty(CALENDAR_PROPERTY, name + "@business.biz");
+    return profile;
+  }
+
+  private JsonObject getPage(String pathInfo) throws IOException {
+    doReturn(pathInfo).when(request).getPathInfo();
+    responseWriter = new StringWriter();
+    doReturn(new PrintWriter(responseWriter)).when(response).getWriter();
+    servlet.doGet(request, response);
+    return new JsonParser().parse(responseWriter.toString()).getAsJsonObject();
+  }
+
+  @Test
+  public void testBusinessPage() throws IOException {
+    ds.put(createMockFollowEntity(VIEWER_ID, BUSINESS_ID_1));
+    ds.put(createCommentEntity(1000, OTHER_USER_ID, BUSINESS_ID_1, false));
+    ds.put(createCommentEntity(2000, VIEWER_ID, BUSINESS_ID_1, false));
+    ds.put(createCommentEntity(3000, VIEWER_ID, BUSINESS_ID_2, false));
+
+    JsonObject page = getPage("/business/" + BUSINESS_ID_1);
+
+    JsonObject user = page.getAsJsonObject("user");
+    assertTrue(user.get("isLoggedin").getAsBoolean());
+    assertEquals(VIEWER_ID, user.get("userId").getAsString());
+    assertEquals(NO, user.get("isBusiness").getAsString());
+
+    JsonObject business = page.getAsJsonObject("business");
+    assertEquals("Pizzeria", business.get("name").getAsString());
+    assertFalse(business.get("isCurrentUser").getAsBoolean());
+    assertEquals(0, business.get("followerCount").getAsLong());
+    assertTrue(page.get("isFollowing").getAsBoolean());
+
+    JsonArray comments = page.getAsJsonArray("comments");
+    assertEquals(2, comments.size());
+    assertEquals(2000, comments.get(0).getAsJsonObject().get("timestamp").getAsLong());
+  }
+
+  @Test
+  public void testBusinessPageNotFollowing() throws IOException {
+    JsonObject page = getPage("/business/" + BUSINESS_ID_2);
+
+    assertFalse(page.get("isFollowing").getAsBoolean());
+  }
+
+  /** A client that already holds the page gets 304 Not Modified, until the page changes. */
+  @Test
+  public void testBusinessPageNotModified() throws IOException {
+    getPage("/business/" + BUSINESS_ID_1);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(eq(ETAG_HEADER), etag.capture());
+    doReturn(etag.getValue()).when(request).getHeader(IF_NONE_MATCH_HEADER);
+
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+    ds.put(createCommentEntity(1000, OTHER_USER_ID, BUSINESS_ID_1, false));
+    JsonObject page = getPage("/business/" + BUSINESS_ID_1);
+
+    assertEquals(1, page.getAsJsonArray("comments").size());
+  }
+
+  @Test
+  public void testBusinessPageOfUserIsNotFound() throws IOException {
+    doReturn("/business/" + OTHER_USER_ID).when(request).getPathInfo();
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_NOT_FOUND, response);
+  }
+
+  @Test
+  public void testProfilePage() throws IOException {
+    ds.put(createMockFollowEntity(OTHER_USER_ID, BUSINESS_ID_1));
+    ds.put(createMockFollowEntity(OTHER_USER_ID, BUSINESS_ID_2));
+    ds.put(createCommentEntity(1000, OTHER_USER_ID, BUSINESS_ID_2, false));
+    ds.put(createCommentEntity(2000, VIEWER_ID, BUSINESS_ID_1, false));
+
+    JsonObject page = getPage("/profile/" + OTHER_USER_ID);
+
+    JsonObject profile = page.getAsJsonObject("profile");
+    assertEquals(OTHER_USER_ID, profile.get("id").getAsString());
+    assertFalse(profile.get("isCurrentUser").getAsBoolean());
+
+    JsonArray followed = page.getAsJsonArray("followedBusinesses");
+    assertEquals(2, followed.size());
+    assertEquals(
+        "Pizzeria@business.biz",
+        followed.get(0).getAsJsonObject().get("calendarEmail").getAsString());
+
+    assertEquals(1, page.getAsJsonArray("comments").size());
+    assertEquals("Bakery", page.getAsJsonObject("businessNames").get(BUSINESS_ID_2).getAsString());
+  }
+
+  /** Follows past the page's limit are left to /follows, from the cursor the page holds. */
+  @Test
+  public void testProfilePageFollowsCursor() throws IOException {
+    assertFalse(getPage("/profile/" + OTHER_USER_ID).has("followsCursor"));
+
+    for (int i = 0; i <= PageServlet.FOLLOW_LIMIT; i++) {
+      ds.put(createMockFollowEntity(OTHER_USER_ID, "business" + i));
+    }
+    JsonObject page = getPage("/profile/" + OTHER_USER_ID);
+
+    assertTrue(page.has("followsCursor"));
+  }
+
+  @Test
+  public void testProfilePageOfBusinessIsNotFound() throws IOException {
+    doReturn("/profile/" + BUSINESS_ID_1).when(request).getPathInfo();
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_NOT_FOUND, response);
+  }
+
+  @Test
+  public void testUnknownPageIsNotFound() throws IOException {
+    doReturn("/settings/" + VIEWER_ID).when(request).getPathInfo();
+
+    servlet.doGet(request, response);
+
+    assertResponseWithArbitraryTextRaised(HttpServletResponse.SC_NOT_FOUND, response);
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.sps.servlets.profile;
 
+import static com.google.sps.data.ConditionalGetUtil.ETAG_HEADER;
+import static com.google.sps.data.ConditionalGetUtil.IF_NONE_MATCH_HEADER;
 import static com.google.sps.data.ProfileDatastoreUtil.BIO_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.LAT_PROPERTY;
@@ -23,6 +25,7 @@ import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
 import static com.google.sps.data.ProfileDatastoreUtil.NO;
 import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
 import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.data.ProfileDatastoreUtil.getVersion;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.datastore.DatastoreService;
@@ -31,6 +34,7 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
@@ -39,6 +43,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.sps.data.ProfileCache;
 import com.google.sps.data.UserProfile;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -51,6 +56,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -87,7 +93,9 @@ public class ProfileServletTest {
     MockitoAnnotations.initMocks(this);
     helper =
         new LocalServiceTestHelper(
-                new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+                new LocalUserServiceTestConfig(),
+                new LocalDatastoreServiceTestConfig(),
+                new LocalMemcacheServiceTestConfig())
             .setEnvEmail(EMAIL)
             .setEnvAuthDomain(AUTHDOMAIN)
             .setEnvIsLoggedIn(true)
@@ -96,6 +104,7 @@ public class ProfileServletTest {
                     ImmutableMap.of(
                         "com.google.appengine.api.users.UserService.user_id_key", USER_ID)));
     helper.setUp();
+    ProfileCache.getInstance().clear();
 
     datastore = DatastoreServiceFactory.getDatastoreService();
     profileServlet = new ProfileServlet();
@@ -197,6 +206,64 @@ public class ProfileServletTest {
     Assert.assertEquals(responseJsonObject, userJsonObject);
   }
 
+  /*
+   *  Test doGet() for when the client already holds the current version of the profile. It should
+   *  answer 304 without a body.
+   **/
+  @Test
+  public void matchingEtagReturnNotModified() throws Exception {
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+    when(request.getPathInfo()).thenReturn(PATHINFO);
+
+    Entity ent = setBusinessEntityProperty();
+    ent.setProperty(IS_BUSINESS_PROPERTY, NO);
+    datastore.put(ent);
+
+    profileServlet.doGet(request, response);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(response).setHeader(Mockito.eq(ETAG_HEADER), etag.capture());
+
+    when(request.getHeader(IF_NONE_MATCH_HEADER)).thenReturn(etag.getValue());
+    stringWriter.getBuffer().setLength(0);
+    profileServlet.doGet(request, response);
+
+    Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals("", stringWriter.toString());
+  }
+
+  /*
+   *  Test doGet() for when the client holds the version of the profile another viewer was sent. It
+   *  should answer with the full profile.
+   **/
+  @Test
+  public void otherViewersEtagReturnsProfile() throws Exception {
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+    when(request.getPathInfo()).thenReturn(PATHINFO);
+
+    Entity ent = setBusinessEntityProperty();
+    ent.setProperty(IS_BUSINESS_PROPERTY, NO);
+    datastore.put(ent);
+
+    profileServlet.doGet(request, response);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(response).setHeader(Mockito.eq(ETAG_HEADER), etag.capture());
+
+    helper.setEnvAttributes(
+        new HashMap(
+            ImmutableMap.of("com.google.appengine.api.users.UserService.user_id_key", USER2_ID)));
+    helper.tearDown();
+    helper.setUp();
+    datastore.put(ent);
+    when(request.getHeader(IF_NONE_MATCH_HEADER)).thenReturn(etag.getValue());
+    stringWriter.getBuffer().setLength(0);
+    profileServlet.doGet(request, response);
+
+    Mockito.verify(response, Mockito.never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertNotEquals("", stringWriter.toString());
+  }
+
   /*
    *  Test doPost() for when the user does not exist and they want to edit a profile. It should return error.
    **/
@@ -260,6 +327,7 @@ public class ProfileServletTest {
     Assert.assertEquals(capEntity.getProperty(LAT_PROPERTY), LAT);
     Assert.assertEquals(capEntity.getProperty(LONG_PROPERTY), LONG);
     Assert.assertEquals(capEntity.getProperty(BIO_PROPERTY), BIO);
+    Assert.assertEquals(1L, getVersion(capEntity));
   }
 
   /*
@@ -0,0 +1,194 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.AsyncDatastoreUtil.await;
+import static com.google.sps.data.AsyncDatastoreUtil.exists;
+import static com.google.sps.data.AsyncDatastoreUtil.getIfExists;
+import static com.google.sps.data.AsyncDatastoreUtil.startQuery;
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static com.google.sps.util.BenchmarkUtil.assumeBenchmarksEnabled;
+import static com.google.sps.util.BenchmarkUtil.report;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.DelayedApiProxyDelegate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncDatastoreUtilTest {
+  private static final String BUSINESS_ID = "1";
+  private static final String MISSING_ID = "2";
+  private static final int READS = 4;
+  private static final long DATASTORE_DELAY_MS = 50;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private AsyncDatastoreService asyncDatastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    asyncDatastore = DatastoreServiceFactory.getAsyncDatastoreService();
+
+    Entity business = new Entity(PROFILE_TASK_NAME, BUSINESS_ID);
+    business.setProperty(IS_BUSINESS_PROPERTY, YES);
+    datastore.put(business);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static Key profileKey(String id) {
+    return KeyFactory.createKey(PROFILE_TASK_NAME, id);
+  }
+
+  @Test
+  public void testGetIfExists() {
+    assertEquals(
+        profileKey(BUSINESS_ID),
+        await(getIfExists(asyncDatastore, profileKey(BUSINESS_ID))).getKey());
+    assertNull(await(getIfExists(asyncDatastore, profileKey(MISSING_ID))));
+  }
+
+  @Test
+  public void testExists() {
+    assertTrue(await(exists(asyncDatastore, profileKey(BUSINESS_ID))));
+    assertFalse(await(exists(asyncDatastore, profileKey(MISSING_ID))));
+  }
+
+  @Test
+  public void testStartQuery() {
+    Iterator<Entity> results =
+        startQuery(
+            asyncDatastore,
+            new Query(PROFILE_TASK_NAME)
+                .setFilter(FilterOperator.EQUAL.of(IS_BUSINESS_PROPERTY, YES)));
+
+    assertEquals(BUSINESS_ID, results.next().getKey().getName());
+    assertFalse(results.hasNext());
+  }
+
+  /** Checks that reads started together are all pending at once, unlike reads awaited in turn. */
+  @Test
+  public void testOverlappedReads() {
+    DelayedApiProxyDelegate sequential =
+        countDatastoreCalls(
+            () -> {
+              for (int i = 0; i < READS; i++) {
+                await(getIfExists(asyncDatastore, profileKey(BUSINESS_ID)));
+              }
+            });
+    assertEquals(READS, sequential.getCalls());
+    assertEquals(1, sequential.getMaxPendingCalls());
+
+    DelayedApiProxyDelegate overlapped =
+        countDatastoreCalls(
+            () -> {
+              List<Future<Entity>> reads = new ArrayList<>();
+              for (int i = 0; i < READS; i++) {
+                reads.add(getIfExists(asyncDatastore, profileKey(BUSINESS_ID)));
+              }
+              reads.forEach(AsyncDatastoreUtil::await);
+            });
+    assertEquals(READS, overlapped.getCalls());
+    assertEquals(READS, overlapped.getMaxPendingCalls());
+
+    Query query =
+        new Query(PROFILE_TASK_NAME).setFilter(FilterOperator.EQUAL.of(IS_BUSINESS_PROPERTY, YES));
+    DelayedApiProxyDelegate queries =
+        countDatastoreCalls(
+            () -> {
+              Iterator<Entity> first = startQuery(asyncDatastore, query);
+              Iterator<Entity> second = startQuery(asyncDatastore, query);
+              first.hasNext();
+              second.hasNext();
+            });
+    assertEquals(2, queries.getMaxPendingCalls());
+  }
+
+  /** Reports how long reads awaited in turn take against reads started together. */
+  @Test
+  public void benchmarkOverlappedReads() {
+    assumeBenchmarksEnabled();
+
+    long sequentialMillis =
+        timeWithDatastoreDelay(
+            () -> {
+              for (int i = 0; i < READS; i++) {
+                await(getIfExists(asyncDatastore, profileKey(BUSINESS_ID)));
+              }
+            });
+    long overlappedMillis =
+        timeWithDatastoreDelay(
+            () -> {
+              List<Future<Entity>> reads = new ArrayList<>();
+              for (int i = 0; i < READS; i++) {
+                reads.add(getIfExists(asyncDatastore, profileKey(BUSINESS_ID)));
+              }
+              reads.forEach(AsyncDatastoreUtil::await);
+            });
+
+    report(
+        READS + " reads at " + DATASTORE_DELAY_MS + " ms each",
+        "sequential " + sequentialMillis + " ms, overlapped " + overlappedMillis + " ms");
+  }
+
+  private static long timeWithDatastoreDelay(Runnable calls) {
+    DelayedApiProxyDelegate delayed = DelayedApiProxyDelegate.install(DATASTORE_DELAY_MS);
+    long start = System.nanoTime();
+    try {
+      calls.run();
+    } finally {
+      delayed.uninstall();
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private static DelayedApiProxyDelegate countDatastoreCalls(Runnable calls) {
+    DelayedApiProxyDelegate counting = DelayedApiProxyDelegate.install(0);
+    try {
+      calls.run();
+    } finally {
+      counting.uninstall();
+    }
+    return counting;
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.util;
+
+import org.junit.Assume;
+
+/**
+ * Benchmarks report timings instead of asserting on them, since wall time depends on the machine.
+ * They are skipped unless asked for, e.g. {@code mvn test -Dbloom.benchmarks=true}.
+ */
+public final class BenchmarkUtil {
+  public static final String BENCHMARKS_PROPERTY = "bloom.benchmarks";
+
+  /** Skip the calling benchmark unless benchmarks were asked for. */
+  public static void assumeBenchmarksEnabled() {
+    Assume.assumeTrue(
+        "Benchmarks run with -D" + BENCHMARKS_PROPERTY + "=true",
+        Boolean.getBoolean(BENCHMARKS_PROPERTY));
+  }
+
+  /** Print a benchmark's result to the test output. */
+  public static void report(String benchmark, String result) {
+    System.out.println("[benchmark] " + benchmark + ": " + result);
+  }
+}
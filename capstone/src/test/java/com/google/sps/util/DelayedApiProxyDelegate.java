@@ -0,0 +1,191 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.util;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delegate that makes every datastore call to the local test services take at least a fixed time,
+ * like a call over the network would. Calls started together wait out their delays together. It
+ * also counts datastore calls and how many were pending at once, so tests can check that a request
+ * overlaps its reads without relying on wall time. A call is pending from when it is made until its
+ * result is taken.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class DelayedApiProxyDelegate implements Delegate<Environment> {
+  private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+  private final Delegate<Environment> delegate;
+  private final long delayNanos;
+  private final AtomicInteger calls = new AtomicInteger();
+  private final AtomicInteger pendingCalls = new AtomicInteger();
+  private final AtomicInteger maxPendingCalls = new AtomicInteger();
+
+  private DelayedApiProxyDelegate(Delegate<Environment> delegate, long delayMillis) {
+    this.delegate = delegate;
+    this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+  }
+
+  /** Delay datastore calls made after this, until {@link #uninstall()}. */
+  public static DelayedApiProxyDelegate install(long delayMillis) {
+    DelayedApiProxyDelegate delayed =
+        new DelayedApiProxyDelegate(ApiProxy.getDelegate(), delayMillis);
+    ApiProxy.setDelegate(delayed);
+    return delayed;
+  }
+
+  /** Put back the delegate that was in place before {@link #install(long)}. */
+  public void uninstall() {
+    ApiProxy.setDelegate(delegate);
+  }
+
+  /** Returns the number of datastore calls made since {@link #install(long)}. */
+  public int getCalls() {
+    return calls.get();
+  }
+
+  /** Returns the most datastore calls that were pending at the same time. */
+  public int getMaxPendingCalls() {
+    return maxPendingCalls.get();
+  }
+
+  @Override
+  public byte[] makeSyncCall(
+      Environment environment, String packageName, String methodName, byte[] request) {
+    long readyAt = System.nanoTime() + delayFor(packageName);
+    boolean counted = startCall(packageName);
+    try {
+      byte[] response = delegate.makeSyncCall(environment, packageName, methodName, request);
+      sleepUntil(readyAt);
+      return response;
+    } finally {
+      if (counted) {
+        pendingCalls.decrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(
+      Environment environment,
+      String packageName,
+      String methodName,
+      byte[] request,
+      ApiConfig apiConfig) {
+    long readyAt = System.nanoTime() + delayFor(packageName);
+    AtomicBoolean pending = new AtomicBoolean(startCall(packageName));
+    Future<byte[]> response =
+        delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    return new Future<byte[]>() {
+      @Override
+      public byte[] get() throws InterruptedException, ExecutionException {
+        try {
+          byte[] result = response.get();
+          sleepUntil(readyAt);
+          return result;
+        } finally {
+          finishCall(pending);
+        }
+      }
+
+      @Override
+      public byte[] get(long timeout, TimeUnit unit)
+          throws InterruptedException, ExecutionException, TimeoutException {
+        byte[] result;
+        try {
+          result = response.get(timeout, unit);
+        } catch (ExecutionException e) {
+          finishCall(pending);
+          throw e;
+        }
+        sleepUntil(readyAt);
+        finishCall(pending);
+        return result;
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        return response.cancel(mayInterruptIfRunning);
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return response.isCancelled();
+      }
+
+      @Override
+      public boolean isDone() {
+        return response.isDone() && System.nanoTime() >= readyAt;
+      }
+    };
+  }
+
+  @Override
+  public void log(Environment environment, LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+
+  /** Counts a datastore call as pending, returning whether it was counted. */
+  private boolean startCall(String packageName) {
+    if (!packageName.equals(DATASTORE_PACKAGE)) {
+      return false;
+    }
+    calls.incrementAndGet();
+    maxPendingCalls.accumulateAndGet(pendingCalls.incrementAndGet(), Math::max);
+    return true;
+  }
+
+  private void finishCall(AtomicBoolean pending) {
+    if (pending.compareAndSet(true, false)) {
+      pendingCalls.decrementAndGet();
+    }
+  }
+
+  private long delayFor(String packageName) {
+    return packageName.equals(DATASTORE_PACKAGE) ? delayNanos : 0;
+  }
+
+  private static void sleepUntil(long readyAt) {
+    long remaining = readyAt - System.nanoTime();
+    if (remaining > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
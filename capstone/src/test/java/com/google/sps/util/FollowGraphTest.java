@@ -0,0 +1,175 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.FollowDatastoreUtil.buildFollowEntity;
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FollowGraphTest {
+  private static final String USER_ID_1 = "1";
+  private static final String USER_ID_2 = "2";
+  private static final String USER_ID_3 = "3";
+  private static final String BUSINESS_ID_A = "10";
+  private static final String BUSINESS_ID_B = "11";
+  private static final String BUSINESS_ID_C = "12";
+  private static final String BUSINESS_ID_D = "13";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService ds;
+  private long now;
+  private FollowGraph graph;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    now = 0;
+    graph = new FollowGraph(ds, () -> now);
+
+    ds.put(buildFollowEntity(USER_ID_1, BUSINESS_ID_A));
+    ds.put(buildFollowEntity(USER_ID_1, BUSINESS_ID_B));
+    ds.put(buildFollowEntity(USER_ID_1, BUSINESS_ID_C));
+    ds.put(buildFollowEntity(USER_ID_2, BUSINESS_ID_A));
+    ds.put(buildFollowEntity(USER_ID_2, BUSINESS_ID_B));
+    ds.put(buildFollowEntity(USER_ID_3, BUSINESS_ID_D));
+    FollowScan.rebuild(ds, graph);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private String toJson(List<BusinessRecommendation> recommendations) {
+    return new Gson().toJson(recommendations);
+  }
+
+  private String recommendation(String businessId, int sharedFollowers) {
+    return "{\"businessId\":\"" + businessId + "\",\"sharedFollowers\":" + sharedFollowers + "}";
+  }
+
+  @Test
+  public void testCoFollowedBusinessesRanked() {
+    assertEquals(
+        "[" + recommendation(BUSINESS_ID_B, 2) + "," + recommendation(BUSINESS_ID_C, 1) + "]",
+        toJson(graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5)));
+  }
+
+  @Test
+  public void testLimit() {
+    assertEquals(
+        "[" + recommendation(BUSINESS_ID_B, 2) + "]",
+        toJson(graph.getCoFollowedBusinesses(BUSINESS_ID_A, 1)));
+  }
+
+  @Test
+  public void testUnknownBusiness() {
+    assertEquals("[]", toJson(graph.getCoFollowedBusinesses("99", 5)));
+  }
+
+  /** Follows made through this instance are reflected straight away. */
+  @Test
+  public void testPatches() {
+    graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5);
+
+    graph.addFollow(USER_ID_3, BUSINESS_ID_A);
+    graph.removeFollow(USER_ID_1, BUSINESS_ID_B);
+
+    assertEquals(
+        "["
+            + recommendation(BUSINESS_ID_B, 1)
+            + ","
+            + recommendation(BUSINESS_ID_C, 1)
+            + ","
+            + recommendation(BUSINESS_ID_D, 1)
+            + "]",
+        toJson(graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5)));
+  }
+
+  /** Follows made elsewhere are picked up when the graph is rebuilt, not by later requests. */
+  @Test
+  public void testRebuild() {
+    graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5);
+    ds.put(buildFollowEntity(USER_ID_3, BUSINESS_ID_A));
+
+    assertEquals(2, graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5).size());
+
+    FollowScan.rebuild(ds, graph);
+    assertEquals(3, graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5).size());
+  }
+
+  /** Requests never scan the follows, so a graph without a snapshot has nothing to offer. */
+  @Test
+  public void testNoScanWithoutSnapshot() {
+    FollowGraph unbuiltGraph = new FollowGraph(ds, () -> now);
+
+    assertEquals("[]", toJson(unbuiltGraph.getCoFollowedBusinesses(BUSINESS_ID_A, 5)));
+  }
+
+  /** Snapshots stored by another instance are loaded at most once per check interval. */
+  @Test
+  public void testLoadsNewerSnapshot() {
+    FollowSnapshot snapshot = new FollowSnapshot(ds, () -> now);
+    FollowGraph otherGraph = new FollowGraph(ds, () -> now);
+    FollowScan.rebuild(ds, snapshot);
+    assertEquals(2, otherGraph.getCoFollowedBusinesses(BUSINESS_ID_A, 5).size());
+
+    now += 1;
+    ds.put(buildFollowEntity(USER_ID_3, BUSINESS_ID_A));
+    FollowScan.rebuild(ds, snapshot);
+    assertEquals(2, otherGraph.getCoFollowedBusinesses(BUSINESS_ID_A, 5).size());
+
+    now += TimeUnit.MINUTES.toMillis(1);
+    assertEquals(3, otherGraph.getCoFollowedBusinesses(BUSINESS_ID_A, 5).size());
+  }
+
+  /** Follows made through this instance after a snapshot was taken survive loading it. */
+  @Test
+  public void testFollowAfterSnapshotIsReplayed() {
+    FollowSnapshot snapshot = new FollowSnapshot(ds, () -> now);
+    now += 1;
+    FollowScan.rebuild(ds, snapshot);
+    now += 1;
+    graph.addFollow(USER_ID_3, BUSINESS_ID_A);
+
+    assertEquals(3, graph.getCoFollowedBusinesses(BUSINESS_ID_A, 5).size());
+  }
+
+  /** Follows made through this instance while a rebuild scans datastore are kept. */
+  @Test
+  public void testFollowDuringRebuild() {
+    graph.beginRebuild();
+    graph.addFollow(USER_ID_1, BUSINESS_ID_A);
+    graph.finishRebuild(Arrays.asList(USER_ID_1), Arrays.asList(BUSINESS_ID_D));
+
+    assertEquals(
+        "[" + recommendation(BUSINESS_ID_A, 1) + "]",
+        toJson(graph.getCoFollowedBusinesses(BUSINESS_ID_D, 5)));
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FollowLeaderboardTest {
+  private static final int MAX_FLUSHES = 100;
+  private static final String BUSINESS_ID_A = "10";
+  private static final String BUSINESS_ID_B = "11";
+  private static final String BUSINESS_ID_C = "12";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+
+  private DatastoreService ds;
+  private long now;
+  private FollowerCounter followerCounter;
+  private FollowLeaderboard leaderboard;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ProfileCache.getInstance().clear();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    now = 0;
+    followerCounter = new FollowerCounter(ds, () -> now);
+    leaderboard = createLeaderboard(ds);
+
+    Entity business = new Entity(PROFILE_TASK_NAME, BUSINESS_ID_A);
+    business.setProperty(NAME_PROPERTY, "Business A");
+    ds.put(business);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private FollowLeaderboard createLeaderboard(DatastoreService datastore) {
+    return new FollowLeaderboard(
+        datastore,
+        ProfileRepository.getInstance(),
+        followerCounter,
+        QueueFactory.getQueue(FollowLeaderboard.CHANGE_QUEUE_NAME),
+        () -> now);
+  }
+
+  /** Change a business' follower count the way a follow does. */
+  private void changeCount(String businessId, long delta) {
+    Transaction transaction = ds.beginTransaction(FollowerCounter.transactionOptions());
+    followerCounter.increment(transaction, businessId, delta);
+    leaderboard.recordChange(transaction, businessId);
+    transaction.commit();
+  }
+
+  private int countRecordedChanges() {
+    return LocalTaskQueueTestConfig.getLocalTaskQueue()
+        .getQueueStateInfo()
+        .get(FollowLeaderboard.CHANGE_QUEUE_NAME)
+        .getCountTasks();
+  }
+
+  /**
+   * Flush until no recorded change is left. A change recorded in the same millisecond as a flush
+   * isn't due yet, so a single flush can leave it in the queue.
+   */
+  private void flushAll(FollowLeaderboard leaderboard) {
+    for (int i = 0; i < MAX_FLUSHES && countRecordedChanges() > 0; i++) {
+      leaderboard.flush();
+    }
+  }
+
+  @Test
+  public void testRankedByFollowerCount() {
+    changeCount(BUSINESS_ID_A, 2);
+    changeCount(BUSINESS_ID_B, 5);
+    changeCount(BUSINESS_ID_C, 1);
+    changeCount(BUSINESS_ID_C, -1);
+
+    flushAll(leaderboard);
+
+    List<LeaderboardEntry> top = leaderboard.getTop(10);
+    assertEquals(2, top.size());
+    assertEquals(BUSINESS_ID_B, top.get(0).getBusinessId());
+    assertEquals(BUSINESS_ID_A, top.get(1).getBusinessId());
+    assertEquals("Business A", top.get(1).getName());
+    assertEquals(1, leaderboard.getTop(1).size());
+    assertEquals(0, countRecordedChanges());
+  }
+
+  /** A change is only recorded if its transaction commits. */
+  @Test
+  public void testRolledBackChangeNotRecorded() {
+    Transaction transaction = ds.beginTransaction(FollowerCounter.transactionOptions());
+    followerCounter.increment(transaction, BUSINESS_ID_A, 1);
+    leaderboard.recordChange(transaction, BUSINESS_ID_A);
+    transaction.rollback();
+
+    assertEquals(0, countRecordedChanges());
+    assertEquals(0, leaderboard.flush());
+    assertEquals(0, leaderboard.getTop(10).size());
+  }
+
+  /** Later flushes replace stored entries with the businesses' latest counts. */
+  @Test
+  public void testMergesWithStoredLeaderboard() {
+    changeCount(BUSINESS_ID_A, 2);
+    changeCount(BUSINESS_ID_B, 3);
+    flushAll(leaderboard);
+
+    changeCount(BUSINESS_ID_B, -2);
+    changeCount(BUSINESS_ID_C, 4);
+    flushAll(createLeaderboard(ds));
+
+    List<LeaderboardEntry> top = createLeaderboard(ds).getTop(10);
+    assertEquals(3, top.size());
+    assertEquals(BUSINESS_ID_C, top.get(0).getBusinessId());
+    assertEquals(BUSINESS_ID_A, top.get(1).getBusinessId());
+    assertEquals(1, top.get(2).getFollowerCount());
+  }
+
+  /** Changes stay queued when the merge fails, so a later flush retries them. */
+  @Test
+  public void testFailedFlushKeepsChanges() {
+    changeCount(BUSINESS_ID_A, 2);
+    DatastoreService failingDatastore = mock(DatastoreService.class);
+    when(failingDatastore.beginTransaction())
+        .thenThrow(new DatastoreFailureException("Datastore unavailable"));
+
+    assertEquals(0, createLeaderboard(failingDatastore).flush());
+
+    assertEquals(1, countRecordedChanges());
+    assertEquals(0, leaderboard.getTop(10).size());
+  }
+
+  @Test
+  public void testOnlyTopEntriesKept() {
+    for (int i = 0; i <= FollowLeaderboard.CAPACITY; i++) {
+      changeCount(String.valueOf(i), i + 1);
+    }
+
+    flushAll(leaderboard);
+
+    List<LeaderboardEntry> top = createLeaderboard(ds).getTop(1000);
+    assertEquals(FollowLeaderboard.CAPACITY, top.size());
+    assertEquals(2, top.get(top.size() - 1).getFollowerCount());
+  }
+}
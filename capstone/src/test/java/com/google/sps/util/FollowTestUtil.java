@@ -17,11 +17,17 @@ package com.google.sps.util;
 import static com.google.sps.data.FollowDatastoreUtil.BUSINESS_ID_PROPERTY;
 import static com.google.sps.data.FollowDatastoreUtil.FOLLOW_TASK_NAME;
 import static com.google.sps.data.FollowDatastoreUtil.USER_ID_PROPERTY;
+import static com.google.sps.data.FollowDatastoreUtil.buildFollowEntity;
 
 import com.google.appengine.api.datastore.Entity;
 
 public class FollowTestUtil {
   public static Entity createMockFollowEntity(String userId, String businessId) {
+    return buildFollowEntity(userId, businessId);
+  }
+
+  /** A follow saved before follows were keyed by user and business, with an automatic id. */
+  public static Entity createLegacyFollowEntity(String userId, String businessId) {
     Entity followEntity = new Entity(FOLLOW_TASK_NAME);
 
     followEntity.setProperty(USER_ID_PROPERTY, userId);
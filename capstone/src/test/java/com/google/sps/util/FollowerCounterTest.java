@@ -0,0 +1,117 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FollowerCounterTest {
+  private static final String BUSINESS_ID_1 = "1";
+  private static final String BUSINESS_ID_2 = "2";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService ds;
+  private long now;
+  private FollowerCounter counter;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    now = 0;
+    counter = new FollowerCounter(ds, () -> now);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void increment(FollowerCounter counter, String businessId, long delta) {
+    Transaction transaction = ds.beginTransaction(FollowerCounter.transactionOptions());
+    counter.increment(transaction, businessId, delta);
+    transaction.commit();
+  }
+
+  @Test
+  public void testCountSumsShards() {
+    for (int i = 0; i < 50; i++) {
+      increment(counter, BUSINESS_ID_1, 1);
+    }
+    increment(counter, BUSINESS_ID_1, -1);
+    increment(counter, BUSINESS_ID_2, 1);
+
+    assertEquals(49, counter.getCount(BUSINESS_ID_1));
+    assertEquals(1, counter.getCount(BUSINESS_ID_2));
+    // Writes are spread over several shards.
+    int shardCount = ds.prepare(new Query(FollowerCounter.SHARD_TASK_NAME)).countEntities();
+    assertTrue(shardCount > 2);
+  }
+
+  /** Totals are served from the cache until it expires. */
+  @Test
+  public void testCachedCount() {
+    assertEquals(0, counter.getCount(BUSINESS_ID_1));
+
+    // A write through another instance is not seen until the cached total expires.
+    increment(new FollowerCounter(ds, () -> now), BUSINESS_ID_1, 1);
+    assertEquals(0, counter.getCount(BUSINESS_ID_1));
+
+    // Writes through this instance are.
+    increment(counter, BUSINESS_ID_1, 1);
+    counter.recordCommitted(BUSINESS_ID_1, 1);
+    assertEquals(1, counter.getCount(BUSINESS_ID_1));
+
+    now += TimeUnit.MINUTES.toMillis(1);
+    assertEquals(2, counter.getCount(BUSINESS_ID_1));
+  }
+
+  @Test
+  public void testReconcile() {
+    increment(counter, BUSINESS_ID_1, 1);
+    increment(counter, BUSINESS_ID_1, 1);
+    assertEquals(2, counter.getCount(BUSINESS_ID_1));
+
+    assertTrue(counter.reconcile(BUSINESS_ID_1, counter.getStoredCount(BUSINESS_ID_1), 5));
+
+    assertEquals(5, counter.getCount(BUSINESS_ID_1));
+  }
+
+  /** A follow committed while follows were being counted is not overwritten by the correction. */
+  @Test
+  public void testReconcileSkipsCountChangedWhileCounting() {
+    increment(counter, BUSINESS_ID_1, 1);
+    long storedCount = counter.getStoredCount(BUSINESS_ID_1);
+    increment(counter, BUSINESS_ID_1, 1);
+
+    assertFalse(counter.reconcile(BUSINESS_ID_1, storedCount, 5));
+
+    assertEquals(2, counter.getCount(BUSINESS_ID_1));
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+
+public class JsonStreamUtilTest {
+  private static final int LARGE_LISTING_SIZE = 100000;
+  private static final Follow FOLLOW = new Follow("user", "business");
+  private static final int FOLLOW_LENGTH = new Gson().toJson(FOLLOW).length();
+
+  @Test
+  public void writesJsonArray() throws IOException {
+    StringWriter output = new StringWriter();
+    HttpServletResponse response = mockResponse(output);
+
+    JsonStreamUtil.writeJsonArray(
+        response, Arrays.asList("a", "b", null), item -> item == null ? null : FOLLOW);
+
+    JsonParser parser = new JsonParser();
+    assertEquals(
+        parser.parse(new Gson().toJson(Arrays.asList(FOLLOW, FOLLOW, null))),
+        parser.parse(output.toString()));
+  }
+
+  @Test
+  public void largeListingIsWrittenAsItIsRead() throws IOException {
+    CountingWriter output = new CountingWriter();
+    HttpServletResponse response = mockResponse(output);
+    Iterable<Follow> follows =
+        () ->
+            new Iterator<Follow>() {
+              private int produced = 0;
+
+              @Override
+              public boolean hasNext() {
+                return produced < LARGE_LISTING_SIZE;
+              }
+
+              @Override
+              public Follow next() {
+                // Everything produced before the last flush must already be out of memory.
+                long unwritten = (long) produced * (FOLLOW_LENGTH + 1) - output.count;
+                assertTrue(unwritten <= (long) JsonStreamUtil.FLUSH_INTERVAL * (FOLLOW_LENGTH + 1));
+                produced++;
+                return FOLLOW;
+              }
+            };
+
+    JsonStreamUtil.writeJsonArray(response, follows);
+
+    // The brackets, every element, the commas between them, and the final line separator.
+    long expectedLength =
+        2L
+            + (long) LARGE_LISTING_SIZE * FOLLOW_LENGTH
+            + (LARGE_LISTING_SIZE - 1)
+            + System.lineSeparator().length();
+    assertEquals(expectedLength, output.count);
+  }
+
+  @Test
+  public void stopsWhenClientGoesAway() throws IOException {
+    CountingWriter output = new CountingWriter();
+    output.failAfter = 1000;
+    HttpServletResponse response = mockResponse(output);
+    int[] produced = {0};
+    Iterable<Follow> follows =
+        () ->
+            new Iterator<Follow>() {
+              @Override
+              public boolean hasNext() {
+                return produced[0] < LARGE_LISTING_SIZE;
+              }
+
+              @Override
+              public Follow next() {
+                produced[0]++;
+                return FOLLOW;
+              }
+            };
+
+    JsonStreamUtil.writeJsonArray(response, follows);
+
+    assertEquals(JsonStreamUtil.FLUSH_INTERVAL, produced[0]);
+  }
+
+  private static HttpServletResponse mockResponse(Writer output) throws IOException {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+    return response;
+  }
+
+  /** Counts what is written without keeping it, and can fail like a closed connection. */
+  private static final class CountingWriter extends Writer {
+    private long count = 0;
+    private long failAfter = Long.MAX_VALUE;
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      if (count + length > failAfter) {
+        throw new IOException("Connection closed.");
+      }
+      count += length;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.ProfileDatastoreUtil.NAME_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProfileCacheTest {
+  private static final String USER_ID = "1";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService ds;
+  private MemcacheService memcache;
+  private long now;
+  // How far the clock moves each time it is read, standing in for the time a load takes.
+  private long tick;
+  private double random;
+  private ProfileCache cache;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    memcache = MemcacheServiceFactory.getMemcacheService();
+    now = 0;
+    tick = 0;
+    random = 0.5;
+    cache = newCache();
+
+    putProfile("First");
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** A cache on another instance: its own local tier, the same memcache. */
+  private ProfileCache newCache() {
+    return new ProfileCache(ds, memcache, () -> now += tick, () -> random);
+  }
+
+  private void putProfile(String name) {
+    Entity profile = new Entity(PROFILE_TASK_NAME, USER_ID);
+    profile.setProperty(NAME_PROPERTY, name);
+    ds.put(profile);
+  }
+
+  private String getName(ProfileCache profileCache) throws EntityNotFoundException {
+    return (String) profileCache.get(USER_ID).getProperty(NAME_PROPERTY);
+  }
+
+  @Test
+  public void testServedFromLocalTier() throws EntityNotFoundException {
+    assertEquals("First", getName(cache));
+    putProfile("Second");
+
+    assertEquals("First", getName(cache));
+  }
+
+  @Test
+  public void testServedFromSharedTier() throws EntityNotFoundException {
+    getName(cache);
+    putProfile("Second");
+
+    now += ProfileCache.LOCAL_TTL_MS;
+
+    assertEquals("First", getName(cache));
+    assertEquals("First", getName(newCache()));
+  }
+
+  @Test
+  public void testInvalidate() throws EntityNotFoundException {
+    getName(cache);
+    putProfile("Second");
+
+    cache.invalidate(USER_ID);
+
+    assertEquals("Second", getName(cache));
+  }
+
+  /** Copies are returned, so callers can't change what other requests see. */
+  @Test
+  public void testReturnsCopies() throws EntityNotFoundException {
+    cache.get(USER_ID).setProperty(NAME_PROPERTY, "Changed");
+
+    assertEquals("First", getName(cache));
+  }
+
+  @Test(expected = EntityNotFoundException.class)
+  public void testMissingProfile() throws EntityNotFoundException {
+    cache.get("99");
+  }
+
+  /** A slow-loading entry can be refreshed well before it expires from memcache. */
+  @Test
+  public void testEarlyRefresh() throws EntityNotFoundException {
+    tick = 1000;
+    getName(cache);
+    putProfile("Second");
+    now += ProfileCache.LOCAL_TTL_MS;
+
+    // Not due yet: 1000 * -ln(0.5) is far less than the time left.
+    assertEquals("First", getName(cache));
+
+    now += ProfileCache.LOCAL_TTL_MS;
+    // A draw this small is due: 1000 * -ln(1e-300) is more than the time left.
+    random = 1e-300;
+
+    assertEquals("Second", getName(cache));
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.ProfileDatastoreUtil.IS_BUSINESS_PROPERTY;
+import static com.google.sps.data.ProfileDatastoreUtil.NO;
+import static com.google.sps.data.ProfileDatastoreUtil.PROFILE_TASK_NAME;
+import static com.google.sps.data.ProfileDatastoreUtil.YES;
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProfileRepositoryTest {
+  private static final String USER_ID = "1";
+  private static final String BUSINESS_ID_1 = "2";
+  private static final String BUSINESS_ID_2 = "3";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private ProfileRepository repository;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    repository =
+        new ProfileRepository(
+            new ProfileCache(
+                ds,
+                MemcacheServiceFactory.getMemcacheService(),
+                System::currentTimeMillis,
+                () -> 1));
+
+    ds.put(createProfile(USER_ID, NO));
+    ds.put(createProfile(BUSINESS_ID_1, YES));
+    ds.put(createProfile(BUSINESS_ID_2, YES));
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity createProfile(String id, String isBusiness) {
+    Entity profile = new Entity(PROFILE_TASK_NAME, id);
+    profile.setProperty(IS_BUSINESS_PROPERTY, isBusiness);
+    return profile;
+  }
+
+  @Test
+  public void testGetBusiness() throws EntityNotFoundException {
+    assertEquals(BUSINESS_ID_1, repository.getBusiness(BUSINESS_ID_1).getKey().getName());
+  }
+
+  @Test(expected = EntityNotFoundException.class)
+  public void testGetBusinessRejectsUsers() throws EntityNotFoundException {
+    repository.getBusiness(USER_ID);
+  }
+
+  /** Batches keep the requested order, and leave out what doesn't exist. */
+  @Test
+  public void testGetProfiles() {
+    assertEquals(
+        Arrays.asList(BUSINESS_ID_2, USER_ID),
+        new ArrayList<>(
+            repository.getProfiles(Arrays.asList(BUSINESS_ID_2, "99", USER_ID)).keySet()));
+  }
+
+  @Test
+  public void testGetBusinessesRejectsUsers() {
+    assertEquals(
+        Arrays.asList(BUSINESS_ID_2, BUSINESS_ID_1),
+        new ArrayList<>(
+            repository
+                .getBusinesses(Arrays.asList(BUSINESS_ID_2, USER_ID, BUSINESS_ID_1))
+                .keySet()));
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.util.BenchmarkUtil.assumeBenchmarksEnabled;
+import static com.google.sps.util.BenchmarkUtil.report;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketRateLimiterTest {
+  private static final String KEY_1 = "1";
+  private static final String KEY_2 = "2";
+  private static final int CAPACITY = 3;
+  private static final double TOKENS_PER_SECOND = 0.5;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private long nowNanos;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    nowNanos = 0;
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private TokenBucketRateLimiter createLocalLimiter() {
+    return new TokenBucketRateLimiter("test", CAPACITY, TOKENS_PER_SECOND, null, () -> nowNanos);
+  }
+
+  @Test
+  public void testBurstThenLimited() {
+    TokenBucketRateLimiter limiter = createLocalLimiter();
+
+    for (int i = 0; i < CAPACITY; i++) {
+      assertEquals(0, limiter.tryAcquire(KEY_1));
+    }
+
+    // One token refills every 2 seconds.
+    assertEquals(2, limiter.tryAcquire(KEY_1));
+    // Other keys have their own bucket.
+    assertEquals(0, limiter.tryAcquire(KEY_2));
+  }
+
+  @Test
+  public void testTokensRefillOverTime() {
+    TokenBucketRateLimiter limiter = createLocalLimiter();
+    for (int i = 0; i < CAPACITY; i++) {
+      limiter.tryAcquire(KEY_1);
+    }
+
+    nowNanos += TimeUnit.SECONDS.toNanos(1);
+    assertEquals(1, limiter.tryAcquire(KEY_1));
+
+    nowNanos += TimeUnit.SECONDS.toNanos(1);
+    assertEquals(0, limiter.tryAcquire(KEY_1));
+    assertTrue(limiter.tryAcquire(KEY_1) > 0);
+  }
+
+  /** Two instances share one allowance through memcache. */
+  @Test
+  public void testSharedStoreLimitsAcrossInstances() {
+    TokenBucketRateLimiter instance1 =
+        new TokenBucketRateLimiter(
+            "test",
+            CAPACITY,
+            TOKENS_PER_SECOND,
+            MemcacheServiceFactory.getMemcacheService(),
+            () -> nowNanos);
+    TokenBucketRateLimiter instance2 =
+        new TokenBucketRateLimiter(
+            "test",
+            CAPACITY,
+            TOKENS_PER_SECOND,
+            MemcacheServiceFactory.getMemcacheService(),
+            () -> nowNanos);
+
+    assertEquals(0, instance1.tryAcquire(KEY_1));
+    assertEquals(0, instance1.tryAcquire(KEY_1));
+    assertEquals(0, instance2.tryAcquire(KEY_1));
+    assertTrue(instance2.tryAcquire(KEY_1) > 0);
+  }
+
+  /** Keys that share a lock stripe still each get their own bucket. */
+  @Test
+  public void testManyKeysHaveSeparateBuckets() {
+    TokenBucketRateLimiter limiter = createLocalLimiter();
+    String[] keys = new String[1000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "user" + i;
+    }
+
+    for (int round = 0; round < CAPACITY; round++) {
+      for (String key : keys) {
+        assertEquals(0, limiter.tryAcquire(key));
+      }
+    }
+    for (String key : keys) {
+      assertTrue(limiter.tryAcquire(key) > 0);
+    }
+  }
+
+  /** Reports how long the in-memory limiter takes per request. */
+  @Test
+  public void benchmarkLimiterOverhead() {
+    assumeBenchmarksEnabled();
+    TokenBucketRateLimiter limiter =
+        new TokenBucketRateLimiter("benchmark", CAPACITY, TOKENS_PER_SECOND, null);
+    String[] keys = new String[10000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "user" + i;
+    }
+
+    int warmupIterations = 200000;
+    for (int i = 0; i < warmupIterations; i++) {
+      limiter.tryAcquire(keys[i % keys.length]);
+    }
+
+    int iterations = 1000000;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      limiter.tryAcquire(keys[i % keys.length]);
+    }
+    long nanosPerRequest = (System.nanoTime() - start) / iterations;
+
+    report("Rate limiter overhead", nanosPerRequest + " ns/request");
+  }
+}